@@ -0,0 +1,213 @@
+#!/usr/bin/env bash
+# ---------------------------------------------------------------------------
+# scale-harness.sh — End-to-end scale test on a synthetic bytecode corpus.
+#
+# Generates corpora of case classes, companions, lambdas and bridges with ASM
+# (rewriter-core test class ScaleCorpus), then runs verify, rewrite and report
+# through the CLI, rewrite through the Maven plugin (RewriteMojo), and verify
+# and rewrite through the sbt plugin. Records wall time, throughput and (CLI,
+# Linux) peak RSS per run and fails when a run exceeds scale-thresholds.txt.
+#
+# Runs offline. Not part of run-all.sh: the largest corpus takes minutes.
+#
+# Prerequisites: sbt; for the plugin runs, the plugins published locally
+# (see run-all.sh). Plugin runs are skipped when their plugin is not found.
+#
+# Usage:
+#   ./integration-tests/scale-harness.sh [--sizes "10000 100000 1000000"]
+#                                        [--tools cli,maven,sbt]
+#                                        [--results <file.csv>]
+#
+# JMF_SCALE_JAVA_OPTS is passed to the CLI JVM (e.g. -Xmx512m).
+# ---------------------------------------------------------------------------
+source "$(dirname "$0")/helpers.sh"
+
+SIZES="10000 100000 1000000"
+TOOLS="cli,maven,sbt"
+RESULTS=""
+while [[ $# -gt 0 ]]; do
+  case "$1" in
+    --sizes)   SIZES="$2"; shift 2 ;;
+    --tools)   TOOLS="$2"; shift 2 ;;
+    --results) RESULTS="$2"; shift 2 ;;
+    *) fail "unknown argument: $1" ;;
+  esac
+done
+
+THRESHOLDS="$SCRIPT_DIR/scale-thresholds.txt"
+VERSION=$(sed -n 's/^ThisBuild \/ version *:= *"\(.*\)".*/\1/p' "$REPO_ROOT/build.sbt")
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+MAIN="io.moranaapps.jacocomethodfilter.CoverageRewriter"
+
+uses() { [[ ",$TOOLS," == *",$1,"* ]]; }
+
+now_ms() {
+  if [[ -n "${EPOCHREALTIME:-}" ]]; then
+    local t="${EPOCHREALTIME/[.,]/}"
+    echo $(( t / 1000 ))
+  else
+    echo $(( $(date +%s) * 1000 ))
+  fi
+}
+
+# ── Classpath: rewriter-core with its test classes (ScaleCorpus) and JaCoCo ──
+info "Resolving rewriter-core test classpath (offline)"
+CP=$(cd "$REPO_ROOT" && sbt -Dsbt.offline=true -Dsbt.log.noformat=true \
+  "export rewriterCore/Test/fullClasspath" < /dev/null | tail -1)
+[[ "$CP" == *rewriter-core* ]] || fail "could not resolve the rewriter-core test classpath"
+
+# Rules: the shipped template plus rescue rules, so both outcomes are exercised.
+RULES="$WORK_DIR/jmf-rules.txt"
+cp "$REPO_ROOT/jmf-rules.template.txt" "$RULES"
+cat >> "$RULES" <<'EOF'
++corpus.p0.*$#apply(*)           id:scale-keep-p0-apply
++corpus.p1*.Model*#toString(*)   id:scale-keep-p1-tostring
+EOF
+
+RESULT_LINES=()
+FAILURES=()
+
+# ---------------------------------------------------------------------------
+# measure <tool> <mode> <methods> <cmd> [args...]
+# Runs the command, records wall time and (for CLI runs on Linux) the peak RSS
+# of the JVM, and checks both against scale-thresholds.txt.
+# ---------------------------------------------------------------------------
+measure() {
+  local tool="$1" mode="$2" methods="$3"; shift 3
+  local log="$WORK_DIR/${tool}-${mode}-${methods}.log"
+  local rc=0 peak_kb=0 hwm start end
+  info "$tool $mode ($methods methods)"
+  start=$(now_ms)
+  "$@" > "$log" 2>&1 &
+  local pid=$!
+  if [[ "$tool" == cli && -r "/proc/$pid/status" ]]; then
+    while kill -0 "$pid" 2>/dev/null; do
+      hwm=$(awk '/^VmHWM:/ { print $2 }' "/proc/$pid/status" 2>/dev/null || true)
+      if [[ -n "$hwm" && "$hwm" -gt "$peak_kb" ]]; then peak_kb=$hwm; fi
+      sleep 0.1
+    done
+  fi
+  wait "$pid" || rc=$?
+  end=$(now_ms)
+
+  if [[ $rc -ne 0 ]]; then
+    cat "$log"
+    fail "$tool $mode ($methods methods) exited with status $rc"
+  fi
+
+  local ms=$(( end - start ))
+  local rss_mb="-"
+  [[ "$peak_kb" -gt 0 ]] && rss_mb=$(( peak_kb / 1024 ))
+  local rate=$(( methods * 1000 / (ms > 0 ? ms : 1) ))
+
+  local status="ok" base us max_rss
+  read -r base us max_rss < <(awk -v t="$tool" -v m="$mode" '$1 == t && $2 == m { print $3, $4, $5 }' "$THRESHOLDS")
+  if [[ -n "${base:-}" ]]; then
+    local limit_ms
+    limit_ms=$(awk -v b="$base" -v u="$us" -v n="$methods" 'BEGIN { printf "%d", b * 1000 + n * u / 1000 }')
+    if [[ "$ms" -gt "$limit_ms" ]]; then
+      status="SLOW (limit ${limit_ms} ms)"
+    fi
+    if [[ "$max_rss" != "-" && "$rss_mb" != "-" && "$rss_mb" -gt "$max_rss" ]]; then
+      status="RSS (limit ${max_rss} MB)"
+    fi
+  fi
+  [[ "$status" == ok ]] || FAILURES+=("$tool $mode $methods: $status")
+
+  RESULT_LINES+=("$tool,$mode,$methods,$ms,$rate,$rss_mb,$status")
+  printf '  %-6s %-8s %9s methods  %8s ms  %9s methods/s  RSS %6s MB  %s\n' \
+    "$tool" "$mode" "$methods" "$ms" "$rate" "$rss_mb" "$status"
+}
+
+# ── Maven and sbt availability ─────────────────────────────────────────────
+MVN_PLUGIN="$HOME/.m2/repository/io/github/moranaapps/jacoco-method-filter-maven-plugin/$VERSION"
+SBT_PLUGIN=$(find ~/.ivy2/local/io.github.moranaapps -maxdepth 1 -name "jacoco-method-filter-sbt*" 2>/dev/null | head -1 || true)
+
+if uses maven && { ! command -v mvn >/dev/null 2>&1 || [[ ! -d "$MVN_PLUGIN" ]]; }; then
+  info "Skipping Maven runs (mvn or locally installed plugin $VERSION not found)"
+  TOOLS="${TOOLS//maven/}"
+fi
+if uses sbt && [[ -z "$SBT_PLUGIN" ]]; then
+  info "Skipping sbt runs (sbt plugin not published locally)"
+  TOOLS="${TOOLS//sbt/}"
+fi
+
+if uses maven; then
+  mkdir -p "$WORK_DIR/mvn"
+  cat > "$WORK_DIR/mvn/pom.xml" <<'EOF'
+<project xmlns="http://maven.apache.org/POM/4.0.0">
+  <modelVersion>4.0.0</modelVersion>
+  <groupId>scale</groupId>
+  <artifactId>scale-corpus</artifactId>
+  <version>1</version>
+</project>
+EOF
+fi
+if uses sbt; then
+  cp -R "$REPO_ROOT/integration-tests/fixtures/sbt-basic" "$WORK_DIR/sbt"
+fi
+
+# ── Runs ───────────────────────────────────────────────────────────────────
+for size in $SIZES; do
+  corpus="$WORK_DIR/corpus-$size"
+  info "Generating corpus with $size methods"
+  summary=$("$JAVA" -cp "$CP" io.moranaapps.jacocomethodfilter.ScaleCorpus "$corpus" "$size")
+  echo "$summary"
+  methods=$(echo "$summary" | sed -n 's/.* \([0-9]*\) method(s).*/\1/p')
+
+  if uses cli; then
+    # shellcheck disable=SC2086
+    measure cli verify "$methods" "$JAVA" ${JMF_SCALE_JAVA_OPTS:-} -cp "$CP" "$MAIN" \
+      --verify --in "$corpus" --local-rules "$RULES"
+    assert_file_contains "$WORK_DIR/cli-verify-$methods.log" "Verification complete" "cli verify ($methods methods)"
+    # shellcheck disable=SC2086
+    measure cli rewrite "$methods" "$JAVA" ${JMF_SCALE_JAVA_OPTS:-} -cp "$CP" "$MAIN" \
+      --in "$corpus" --out "$WORK_DIR/cli-out-$size" --local-rules "$RULES"
+    assert_file_contains "$WORK_DIR/cli-rewrite-$methods.log" "Processed" "cli rewrite ($methods methods)"
+    # shellcheck disable=SC2086
+    measure cli report "$methods" "$JAVA" ${JMF_SCALE_JAVA_OPTS:-} -cp "$CP" "$MAIN" report \
+      --classfiles "$WORK_DIR/cli-out-$size" --xml "$WORK_DIR/report-$size.xml" --csv "$WORK_DIR/report-$size.csv"
+    assert_file_exists "$WORK_DIR/report-$size.xml" "cli report ($size methods)"
+    rm -rf "$WORK_DIR/cli-out-$size"
+  fi
+
+  if uses maven; then
+    # No -q: the "Processed" summary asserted below is logged at INFO.
+    measure maven rewrite "$methods" bash -c "cd '$WORK_DIR/mvn' && mvn -B -o \
+      io.github.moranaapps:jacoco-method-filter-maven-plugin:$VERSION:rewrite \
+      -Djmf.inputDirectory='$corpus' -Djmf.outputDirectory='$WORK_DIR/mvn-out-$size' -Djmf.localRules='$RULES'"
+    assert_file_contains "$WORK_DIR/maven-rewrite-$methods.log" "Processed" "maven rewrite ($methods methods)"
+    rm -rf "$WORK_DIR/mvn-out-$size"
+  fi
+
+  if uses sbt; then
+    sbt_settings=(
+      "set ThisBuild / offline := true"
+      "set every jacocoPluginEnabled := true"
+      "set Compile / classDirectory := file(\"$corpus\")"
+      "set jmfLocalRulesFile := file(\"$RULES\")"
+    )
+    measure sbt verify "$methods" bash -c 'cd "$0" && sbt "$@" jmfVerify < /dev/null' \
+      "$WORK_DIR/sbt" "${sbt_settings[@]}"
+    assert_file_contains "$WORK_DIR/sbt-verify-$methods.log" "Verification complete" "sbt verify ($methods methods)"
+    measure sbt rewrite "$methods" bash -c 'cd "$0" && sbt "$@" jmfRewrite < /dev/null' \
+      "$WORK_DIR/sbt" "${sbt_settings[@]}"
+    assert_file_contains "$WORK_DIR/sbt-rewrite-$methods.log" "Processed" "sbt rewrite ($methods methods)"
+  fi
+
+  rm -rf "$corpus"
+done
+
+if [[ -n "$RESULTS" ]]; then
+  {
+    echo "tool,mode,methods,wall_ms,methods_per_s,peak_rss_mb,status"
+    printf '%s\n' "${RESULT_LINES[@]}"
+  } > "$RESULTS"
+  info "Results written to $RESULTS"
+fi
+
+if [[ ${#FAILURES[@]} -gt 0 ]]; then
+  printf '  %s\n' "${FAILURES[@]}"
+  fail "scale harness: ${#FAILURES[@]} run(s) over threshold"
+fi
+pass "scale harness"
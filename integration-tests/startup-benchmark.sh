@@ -0,0 +1,77 @@
+#!/usr/bin/env bash
+# ---------------------------------------------------------------------------
+# startup-benchmark.sh — Time to first class processed, with and without the
+# AppCDS startup archive the Maven and sbt plugins create for the forked CLI.
+#
+# Rewrites one corpus unit (three classes, generated by the rewriter-core test
+# class ScaleCorpus), so the wall time of each run is JVM startup plus the
+# first classes. Runs the CLI from jars, as the plugins do:
+#   cold     no archive
+#   record   -XX:ArchiveClassesAtExit (first plugin run per JDK and classpath)
+#   warm     -XX:SharedArchiveFile    (every later plugin run)
+# and prints the median of each. Requires JDK 13+; runs offline.
+#
+# Usage:
+#   ./integration-tests/startup-benchmark.sh [--runs 10]
+# ---------------------------------------------------------------------------
+source "$(dirname "$0")/helpers.sh"
+
+RUNS=10
+while [[ $# -gt 0 ]]; do
+  case "$1" in
+    --runs) RUNS="$2"; shift 2 ;;
+    *) fail "unknown argument: $1" ;;
+  esac
+done
+
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+MAIN="io.moranaapps.jacocomethodfilter.CoverageRewriter"
+CDS_OPTS=(-Xlog:cds=off -Xlog:cds+dynamic=off)
+
+now_ms() {
+  if [[ -n "${EPOCHREALTIME:-}" ]]; then
+    local t="${EPOCHREALTIME/[.,]/}"
+    echo $(( t / 1000 ))
+  else
+    echo $(( $(date +%s) * 1000 ))
+  fi
+}
+
+# ── Classpaths: the CLI from jars (AppCDS rejects class directories), the corpus generator from test classes ──
+info "Resolving rewriter-core classpaths (offline)"
+SBT_OUT=$(cd "$REPO_ROOT" && sbt -Dsbt.offline=true -Dsbt.log.noformat=true \
+  "export rewriterCore/Runtime/fullClasspathAsJars" "export rewriterCore/Test/fullClasspath" < /dev/null)
+JAR_CP=$(echo "$SBT_OUT" | grep '\.jar' | tail -2 | head -1)
+TEST_CP=$(echo "$SBT_OUT" | tail -1)
+[[ "$JAR_CP" == *jacoco-method-filter-core* ]] || fail "could not resolve the rewriter-core jar classpath"
+
+"$JAVA" -cp "$TEST_CP" io.moranaapps.jacocomethodfilter.ScaleCorpus "$WORK_DIR/corpus" 1
+cp "$REPO_ROOT/jmf-rules.template.txt" "$WORK_DIR/rules.txt"
+
+# run_once <jvm-options...> — prints the wall time of one rewrite in ms
+run_once() {
+  rm -rf "$WORK_DIR/out"
+  local start end
+  start=$(now_ms)
+  "$JAVA" "$@" -cp "$JAR_CP" "$MAIN" --in "$WORK_DIR/corpus" --out "$WORK_DIR/out" \
+    --local-rules "$WORK_DIR/rules.txt" > "$WORK_DIR/run.log" 2>&1 || { cat "$WORK_DIR/run.log"; fail "rewrite failed"; }
+  end=$(now_ms)
+  grep -q "Processed" "$WORK_DIR/run.log" || fail "rewrite processed nothing"
+  echo $(( end - start ))
+}
+
+median() { printf '%s\n' "$@" | sort -n | awk '{ a[NR] = $1 } END { print a[int((NR + 1) / 2)] }'; }
+
+ARCHIVE="$WORK_DIR/jmf.jsa"
+cold=() record=() warm=()
+for ((i = 0; i < RUNS; i++)); do
+  cold+=("$(run_once)")
+  rm -f "$ARCHIVE"
+  record+=("$(run_once -XX:ArchiveClassesAtExit="$ARCHIVE" "${CDS_OPTS[@]}")")
+  warm+=("$(run_once -XX:SharedArchiveFile="$ARCHIVE" "${CDS_OPTS[@]}")")
+done
+
+printf '  %-8s %6s ms  (median of %d)\n' cold   "$(median "${cold[@]}")"   "$RUNS"
+printf '  %-8s %6s ms\n'                 record "$(median "${record[@]}")"
+printf '  %-8s %6s ms\n'                 warm   "$(median "${warm[@]}")"
+pass "startup benchmark"
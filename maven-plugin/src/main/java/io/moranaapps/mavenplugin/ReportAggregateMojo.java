@@ -0,0 +1,171 @@
+package io.moranaapps.mavenplugin;
+
+import io.moranaapps.jacocomethodfilter.CoverageReport;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Generates one merged report for all modules of the reactor.
+ *
+ * <p>Every module's execution data file is loaded concurrently and merged in memory, and all modules'
+ * filtered class directories are analysed in parallel in a single in-process run.</p>
+ */
+@Mojo(name = "report-aggregate", defaultPhase = LifecyclePhase.VERIFY, aggregator = true, threadSafe = true)
+public class ReportAggregateMojo extends AbstractMojo {
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Parameter(defaultValue = "${reactorProjects}", readonly = true, required = true)
+    private List<MavenProject> reactorProjects;
+
+    @Parameter(property = "jmf.execFileName", defaultValue = "jacoco.exec")
+    private String execFileName;
+
+    @Parameter(property = "jmf.classesDirectoryName", defaultValue = "classes-filtered")
+    private String classesDirectoryName;
+
+    @Parameter(property = "jmf.overlay", defaultValue = "false")
+    private boolean overlay;
+
+    @Parameter(property = "jmf.aggregateReportDirectory", defaultValue = "${project.build.directory}/jacoco-aggregate-report")
+    private File reportDirectory;
+
+    @Parameter(property = "jmf.reportName", defaultValue = "${project.name}")
+    private String reportName;
+
+    @Parameter(property = "jmf.sourceEncoding", defaultValue = "UTF-8")
+    private String sourceEncoding;
+
+    @Parameter(property = "jmf.reportFormats", defaultValue = "html,xml,csv")
+    private String reportFormats;
+
+    @Parameter(property = "jmf.skip", defaultValue = "false")
+    private boolean skip;
+
+    public void execute() throws MojoExecutionException {
+        if (skip) {
+            getLog().info("Aggregate report generation bypassed");
+            return;
+        }
+
+        List<String> execFiles = new ArrayList<>();
+        List<String> classArgs = new ArrayList<>();
+        List<String> sourceDirs = new ArrayList<>();
+        int modules = 0;
+
+        for (MavenProject module : reactorProjects) {
+            if ("pom".equals(module.getPackaging())) {
+                continue;
+            }
+            File buildDir = new File(module.getBuild().getDirectory());
+            File exec = new File(buildDir, execFileName);
+            if (!exec.exists()) {
+                getLog().info("No execution data for " + module.getArtifactId() + ": " + exec.getAbsolutePath() + " (skipping)");
+                continue;
+            }
+            modules++;
+            execFiles.add(exec.getAbsolutePath());
+
+            File original = new File(module.getBuild().getOutputDirectory());
+            File filtered = new File(buildDir, classesDirectoryName);
+            if (filtered.isDirectory() && overlay) {
+                // The overlay shadows only this module's originals, never another module's classes.
+                classArgs.add("--overlay");
+                classArgs.add(filtered.getAbsolutePath() + File.pathSeparator + original.getAbsolutePath());
+            } else if (filtered.isDirectory()) {
+                classArgs.add("--classfiles");
+                classArgs.add(filtered.getAbsolutePath());
+            } else {
+                getLog().warn("Filtered classes not found for " + module.getArtifactId() + "; using " + original.getAbsolutePath());
+                classArgs.add("--classfiles");
+                classArgs.add(original.getAbsolutePath());
+            }
+
+            List<String> roots = module.getCompileSourceRoots();
+            if (roots != null) {
+                for (String root : roots) {
+                    if (root != null && new File(root).isDirectory()) {
+                        sourceDirs.add(new File(root).getAbsolutePath());
+                    }
+                }
+            }
+        }
+
+        if (modules == 0) {
+            getLog().info("No module execution data found; aggregate report skipped");
+            return;
+        }
+
+        List<String> args = new ArrayList<>(execFiles);
+        args.addAll(classArgs);
+        for (String dir : sourceDirs) {
+            args.add("--sourcefiles");
+            args.add(dir);
+        }
+        args.addAll(formatArgs());
+        if (reportName != null && !reportName.isEmpty()) {
+            args.add("--name");
+            args.add(reportName);
+        }
+        if (sourceEncoding != null && !sourceEncoding.isEmpty()) {
+            args.add("--encoding");
+            args.add(sourceEncoding);
+        }
+
+        getLog().info("╔═══ JaCoCo Method Filter: Aggregate Report ═══");
+        getLog().info("║ Modules:    " + modules);
+        getLog().info("║ Report:     " + reportDirectory.getAbsolutePath());
+        getLog().info("║ Formats:    " + reportFormats);
+        getLog().info("╚═══════════════════════════════════════════════");
+
+        int exitVal = CoverageReport.run(args.toArray(new String[0]), this::routeLogLine);
+        if (exitVal != 0) {
+            throw new MojoExecutionException("Aggregate report generation failed with code: " + exitVal);
+        }
+        getLog().info("Aggregate report generated successfully");
+    }
+
+    private List<String> formatArgs() {
+        Set<String> validFormats = new HashSet<>(Arrays.asList("html", "xml", "csv"));
+        List<String> args = new ArrayList<>();
+        if (reportFormats != null) {
+            for (String format : reportFormats.split(",")) {
+                String f = format.trim().toLowerCase();
+                if (f.isEmpty()) continue;
+                if (!validFormats.contains(f)) {
+                    getLog().warn("[jacoco] unknown report format: " + f + " (valid: html, xml, csv)");
+                } else if (f.equals("html")) {
+                    args.add("--html");
+                    args.add(reportDirectory.getAbsolutePath());
+                } else {
+                    args.add("--" + f);
+                    args.add(new File(reportDirectory, "jacoco." + f).getAbsolutePath());
+                }
+            }
+        }
+        if (args.isEmpty()) {
+            getLog().warn("[jacoco] jacocoReportFormats is empty — no reports will be generated");
+        }
+        return args;
+    }
+
+    private void routeLogLine(String content) {
+        if (content.startsWith("[info]")) {
+            getLog().info(content.substring(6).trim());
+        } else if (content.startsWith("[warn]")) {
+            getLog().warn(content.substring(6).trim());
+        } else if (content.startsWith("[error]")) {
+            getLog().error(content.substring(7).trim());
+        } else {
+            getLog().info(content);
+        }
+    }
+}
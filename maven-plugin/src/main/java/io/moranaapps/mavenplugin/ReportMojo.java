@@ -1,6 +1,6 @@
 package io.moranaapps.mavenplugin;
 
-import org.apache.maven.artifact.Artifact;
+import io.moranaapps.jacocomethodfilter.CoverageReport;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -9,8 +9,7 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 
-import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.io.File;
 import java.util.*;
 
 @Mojo(name = "report", defaultPhase = LifecyclePhase.VERIFY, threadSafe = true)
@@ -19,15 +18,28 @@ public class ReportMojo extends AbstractMojo {
     @Parameter(defaultValue = "${project}", readonly = true, required = true)
     private MavenProject project;
     
-    @Parameter(defaultValue = "${plugin}", readonly = true, required = true)
-    private org.apache.maven.plugin.descriptor.PluginDescriptor pluginDescriptor;
-
     @Parameter(property = "jmf.jacocoExecFile", defaultValue = "${project.build.directory}/jacoco.exec")
     private File jacocoExecFile;
 
     @Parameter(property = "jmf.classesDirectory", defaultValue = "${project.build.directory}/classes-filtered")
     private File classesDirectory;
 
+    @Parameter(property = "jmf.overlay", defaultValue = "false")
+    private boolean overlay;
+
+    @Parameter(property = "jmf.baseClassesDirectory", defaultValue = "${project.build.outputDirectory}")
+    private File baseClassesDirectory;
+
+    /** Apply the rules while analysing {@code baseClassesDirectory} instead of reading rewritten classes. */
+    @Parameter(property = "jmf.filterInReport", defaultValue = "false")
+    private boolean filterInReport;
+
+    @Parameter(property = "jmf.globalRules")
+    private String globalRules;
+
+    @Parameter(property = "jmf.localRules", defaultValue = "${project.basedir}/jmf-rules.txt")
+    private File localRules;
+
     @Parameter(property = "jmf.sourceDirectories")
     private File[] sourceDirectories;
 
@@ -106,13 +118,16 @@ public class ReportMojo extends AbstractMojo {
     }
 
     private void produceReports() throws MojoExecutionException {
-        File cliJar = findJacocoCliJar();
-        String javaCmd = locateJavaExec();
-        List<String> command = buildReportCmd(javaCmd, cliJar);
+        List<String> args = buildReportArgs();
         
         getLog().info("╔═══ JaCoCo Method Filter: Report Generation ═══");
         getLog().info("║ Exec data:  " + jacocoExecFile.getAbsolutePath());
-        getLog().info("║ Classes:    " + classesDirectory.getAbsolutePath());
+        getLog().info("║ Classes:    " + reportClassesDirectory().getAbsolutePath());
+        if (filterInReport) {
+            getLog().info("║ Rules:      applied during analysis (no rewritten classes)");
+        } else if (overlay) {
+            getLog().info("║ Overlay on: " + baseClassesDirectory.getAbsolutePath());
+        }
         getLog().info("║ Report:     " + reportDirectory.getAbsolutePath());
         getLog().info("║ Formats:    " + reportFormats);
         if (reportName != null && !reportName.isEmpty()) {
@@ -123,18 +138,23 @@ public class ReportMojo extends AbstractMojo {
         }
         getLog().info("╚════════════════════════════════════════════════");
 
-        executeReportTool(command);
+        generateReport(args);
     }
 
-    private List<String> buildReportCmd(String javaBin, File jarFile) {
+    private List<String> buildReportArgs() {
         List<String> cmd = new ArrayList<>();
-        cmd.add(javaBin);
-        cmd.add("-jar");
-        cmd.add(jarFile.getAbsolutePath());
-        cmd.add("report");
         cmd.add(jacocoExecFile.getAbsolutePath());
-        cmd.add("--classfiles");
-        cmd.add(classesDirectory.getAbsolutePath());
+        if (overlay && !filterInReport) {
+            // The sparse overlay shadows the originals it replaces.
+            cmd.add("--overlay");
+            cmd.add(reportClassesDirectory().getAbsolutePath() + File.pathSeparator + baseClassesDirectory.getAbsolutePath());
+        } else {
+            cmd.add("--classfiles");
+            cmd.add(reportClassesDirectory().getAbsolutePath());
+        }
+        if (filterInReport) {
+            addRulesArgs(cmd);
+        }
         
         for (File src : sourceDirectories) {
             if (src.isDirectory()) {
@@ -192,64 +212,46 @@ public class ReportMojo extends AbstractMojo {
         return cmd;
     }
 
-    private void executeReportTool(List<String> cmdArgs) throws MojoExecutionException {
-        try {
-            Process p = new ProcessBuilder(cmdArgs).redirectErrorStream(true).start();
-            
-            Thread logCapture = new Thread(() -> {
-                try (BufferedReader rdr = new BufferedReader(
-                        new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
-                    String line;
-                    while ((line = rdr.readLine()) != null) {
-                        if (!line.trim().isEmpty()) {
-                            getLog().info(line.trim());
-                        }
-                    }
-                } catch (IOException ex) {
-                    getLog().error("Log capture error: " + ex.getMessage());
-                }
-            });
-            logCapture.start();
-            
-            int exitVal = p.waitFor();
-            logCapture.join();
-            
-            if (exitVal != 0) {
-                throw new MojoExecutionException("JaCoCo CLI exited with code: " + exitVal);
-            }
-            
-            getLog().info("Reports generated successfully");
-            
-        } catch (IOException ex) {
-            throw new MojoExecutionException("CLI launch failed", ex);
-        } catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
-            throw new MojoExecutionException("Report generation interrupted", ex);
+    /** The original classes when the report filters them itself, otherwise the rewritten ones. */
+    private File reportClassesDirectory() {
+        return filterInReport ? baseClassesDirectory : classesDirectory;
+    }
+
+    private void addRulesArgs(List<String> cmd) {
+        boolean hasGlobal = globalRules != null && !globalRules.trim().isEmpty();
+        if (hasGlobal) {
+            cmd.add("--global-rules");
+            cmd.add(globalRules);
+        }
+        if (localRules != null && localRules.exists()) {
+            cmd.add("--local-rules");
+            cmd.add(localRules.getAbsolutePath());
+        } else if (!hasGlobal) {
+            getLog().warn("[jacoco] rules file missing: "
+                + (localRules != null ? localRules.getAbsolutePath() : "jmf-rules.txt") + "; report is not filtered");
         }
     }
 
-    private File findJacocoCliJar() throws MojoExecutionException {
-        // Search plugin dependencies for JaCoCo CLI
-        List<Artifact> deps = pluginDescriptor.getArtifacts();
-        for (Artifact dep : deps) {
-            if ("org.jacoco".equals(dep.getGroupId()) && 
-                "org.jacoco.cli".equals(dep.getArtifactId())) {
-                File jarLocation = dep.getFile();
-                if (jarLocation != null && jarLocation.exists()) {
-                    return jarLocation;
-                }
-            }
+    /**
+     * Runs the core report engine in the Maven JVM; class analysis is parallelised there.
+     */
+    private void generateReport(List<String> args) throws MojoExecutionException {
+        int exitVal = CoverageReport.run(args.toArray(new String[0]), this::routeLogLine);
+        if (exitVal != 0) {
+            throw new MojoExecutionException("Report generation failed with code: " + exitVal);
         }
-        throw new MojoExecutionException("JaCoCo CLI JAR not found in plugin dependencies");
+        getLog().info("Reports generated successfully");
     }
 
-    private String locateJavaExec() {
-        String home = System.getProperty("java.home");
-        if (home == null) return "java";
-        
-        String osName = System.getProperty("os.name", "").toLowerCase();
-        String binName = osName.startsWith("win") ? "java.exe" : "java";
-        File execFile = new File(new File(home, "bin"), binName);
-        return execFile.exists() ? execFile.getAbsolutePath() : "java";
+    private void routeLogLine(String content) {
+        if (content.startsWith("[info]")) {
+            getLog().info(content.substring(6).trim());
+        } else if (content.startsWith("[warn]")) {
+            getLog().warn(content.substring(6).trim());
+        } else if (content.startsWith("[error]")) {
+            getLog().error(content.substring(7).trim());
+        } else {
+            getLog().info(content);
+        }
     }
 }
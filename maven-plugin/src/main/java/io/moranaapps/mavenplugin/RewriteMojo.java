@@ -1,5 +1,6 @@
 package io.moranaapps.mavenplugin;
 
+import io.moranaapps.jacocomethodfilter.RewriterDaemon;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -18,6 +19,8 @@ import java.util.*;
       requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
 public class RewriteMojo extends AbstractMojo {
 
+    private static final String MAIN_CLASS = "io.moranaapps.jacocomethodfilter.CoverageRewriter";
+
     @Parameter(defaultValue = "${project}", readonly = true, required = true)
     private MavenProject project;
     
@@ -39,12 +42,39 @@ public class RewriteMojo extends AbstractMojo {
     @Parameter(property = "jmf.dryRun", defaultValue = "false")
     private boolean dryRun;
 
+    @Parameter(property = "jmf.overlay", defaultValue = "false")
+    private boolean overlay;
+
+    @Parameter(property = "jmf.jacocoIncludes", defaultValue = "**")
+    private String jacocoIncludes;
+
+    @Parameter(property = "jmf.jacocoExcludes", defaultValue = "")
+    private String jacocoExcludes;
+
+    @Parameter(property = "jmf.cacheDirectory")
+    private File cacheDirectory;
+
+    @Parameter(property = "jmf.cacheMaxMb", defaultValue = "1024")
+    private long cacheMaxMb;
+
     @Parameter(property = "jmf.reportFile")
     private File reportFile;
 
     @Parameter(property = "jmf.reportFormat", defaultValue = "txt")
     private String reportFormat;
 
+    @Parameter(property = "jmf.startupArchive", defaultValue = "true")
+    private boolean startupArchive;
+
+    @Parameter(property = "jmf.startupArchiveDirectory", defaultValue = "${user.home}/.cache/jacoco-method-filter/cds")
+    private File startupArchiveDirectory;
+
+    @Parameter(property = "jmf.daemon", defaultValue = "false")
+    private boolean daemon;
+
+    @Parameter(property = "jmf.daemonIdleTimeout", defaultValue = "900")
+    private int daemonIdleTimeout;
+
     @Parameter(property = "jmf.skip", defaultValue = "false")
     private boolean skip;
 
@@ -94,27 +124,60 @@ public class RewriteMojo extends AbstractMojo {
 
     private void runTransformation() throws MojoExecutionException {
         String javaCmd = locateJavaExec();
-        List<String> command = assembleCmdLine(javaCmd);
+        String classpath = buildCp();
+        StartupArchive archive = startupArchive
+            ? StartupArchive.forClasspath(classpath, startupArchiveDirectory, getLog())
+            : null;
+        List<String> command = assembleCmdLine(javaCmd, classpath, archive);
         
         getLog().info("╔═══ JaCoCo Method Filter: Bytecode Rewrite ═══");
         getLog().info("║ Source:      " + inputDirectory.getAbsolutePath());
         getLog().info("║ Destination: " + outputDirectory.getAbsolutePath());
         logRulesConfig();
         getLog().info("║ Dry run:     " + (dryRun ? "YES (no writes)" : "NO"));
+        if (overlay) {
+            getLog().info("║ Overlay:     YES (only rewritten classes written)");
+        }
+        if (cacheDirectory != null) {
+            getLog().info("║ Cache:       " + cacheDirectory.getAbsolutePath() + " (max " + cacheMaxMb + " MiB)");
+        }
         if (reportFile != null) {
             getLog().info("║ Report:      " + reportFile.getAbsolutePath() + " (" + reportFormat + ")");
         }
         getLog().info("╚═══════════════════════════════════════════════");
 
-        launchSubprocess(command);
+        if (daemon && runOnDaemon(javaCmd, classpath, command.subList(command.indexOf(MAIN_CLASS) + 1, command.size()))) {
+            return;
+        }
+        launchSubprocess(command, archive);
     }
 
-    private List<String> assembleCmdLine(String javaPath) throws MojoExecutionException {
+    /** Run on the shared rewriter daemon; false when it cannot be reached, so the caller forks instead. */
+    private boolean runOnDaemon(String javaPath, String classpath, List<String> cliArgs) throws MojoExecutionException {
+        File stateDir = new File(System.getProperty("user.home"), ".cache/jacoco-method-filter/daemon");
+        int result;
+        try {
+            // Relative paths resolve against the directory a forked run would start in.
+            result = RewriterDaemon.submit(stateDir.toPath(), Arrays.asList(javaPath, "-cp", classpath),
+                daemonIdleTimeout, new File("").getAbsoluteFile().toPath(), cliArgs.toArray(new String[0]), this::routeLogLine);
+        } catch (IOException ex) {
+            getLog().warn("Rewriter daemon unavailable, forking instead: " + ex.getMessage());
+            return false;
+        }
+        if (result != 0) {
+            throw new MojoExecutionException("Tool terminated abnormally: code " + result);
+        }
+        getLog().info("Transformation completed");
+        return true;
+    }
+
+    private List<String> assembleCmdLine(String javaPath, String classpath, StartupArchive archive) {
         List<String> cmd = new ArrayList<>();
         cmd.add(javaPath);
+        if (archive != null) cmd.addAll(archive.jvmOptions());
         cmd.add("-cp");
-        cmd.add(buildCp());
-        cmd.add("io.moranaapps.jacocomethodfilter.CoverageRewriter");
+        cmd.add(classpath);
+        cmd.add(MAIN_CLASS);
         cmd.add("--in");
         cmd.add(inputDirectory.getAbsolutePath());
         cmd.add("--out");
@@ -130,6 +193,21 @@ public class RewriteMojo extends AbstractMojo {
         }
         
         if (dryRun) cmd.add("--dry-run");
+        if (overlay) cmd.add("--overlay");
+        if (jacocoIncludes != null && !jacocoIncludes.trim().isEmpty()) {
+            cmd.add("--includes");
+            cmd.add(jacocoIncludes);
+        }
+        if (jacocoExcludes != null && !jacocoExcludes.trim().isEmpty()) {
+            cmd.add("--excludes");
+            cmd.add(jacocoExcludes);
+        }
+        if (cacheDirectory != null) {
+            cmd.add("--cache-dir");
+            cmd.add(cacheDirectory.getAbsolutePath());
+            cmd.add("--cache-max-mb");
+            cmd.add(Long.toString(cacheMaxMb));
+        }
         if (reportFile != null) {
             cmd.add("--report-file");
             cmd.add(reportFile.getAbsolutePath());
@@ -174,7 +252,8 @@ public class RewriteMojo extends AbstractMojo {
         return execFile.exists() ? execFile.getAbsolutePath() : "java";
     }
 
-    private void launchSubprocess(List<String> cmdLine) throws MojoExecutionException {
+    private void launchSubprocess(List<String> cmdLine, StartupArchive archive) throws MojoExecutionException {
+        boolean succeeded = false;
         try {
             Process p = new ProcessBuilder(cmdLine).redirectErrorStream(true).start();
             
@@ -197,6 +276,7 @@ public class RewriteMojo extends AbstractMojo {
             if (result != 0) {
                 throw new MojoExecutionException("Tool terminated abnormally: code " + result);
             }
+            succeeded = true;
             
             getLog().info("Transformation completed");
             
@@ -205,6 +285,8 @@ public class RewriteMojo extends AbstractMojo {
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new MojoExecutionException("Process interrupted", ex);
+        } finally {
+            if (archive != null) archive.finish(succeeded, getLog());
         }
     }
 
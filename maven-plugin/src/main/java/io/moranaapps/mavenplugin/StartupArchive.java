@@ -0,0 +1,120 @@
+package io.moranaapps.mavenplugin;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Application class-data-sharing (AppCDS) archive for the forked rewriter JVM.
+ *
+ * <p>A forked run spends most of its startup loading Scala library, scopt and ASM classes. On JDK 13+
+ * the first fork for a given JDK and plugin classpath records the classes it loaded into a dynamic
+ * archive ({@code -XX:ArchiveClassesAtExit}); later forks map that archive instead of loading and
+ * verifying the classes again. The archive name is derived from the JDK and from the path, size and
+ * modification time of every classpath jar, because the JVM only accepts an archive for the exact
+ * classpath it was dumped with. A new plugin version or JDK therefore gets a fresh archive.
+ *
+ * <p>The archive is dumped to a temporary file and moved into place only after the fork succeeded,
+ * so concurrent builds never map a partially written archive. An unusable archive is ignored by the
+ * JVM and only costs the time to check it.
+ */
+final class StartupArchive {
+
+    private static final int MIN_JAVA = 13;
+
+    private final File archive;
+    private final File pending;
+
+    private StartupArchive(File archive, File pending) {
+        this.archive = archive;
+        this.pending = pending;
+    }
+
+    /**
+     * Archive for forks of the running JDK with {@code classpath}, or {@code null} when the JDK cannot
+     * use dynamic archives, the classpath is not all jars, or {@code directory} cannot be created.
+     */
+    static StartupArchive forClasspath(String classpath, File directory, Log log) {
+        if (javaFeatureVersion() < MIN_JAVA) return null;
+        // The JVM refuses to dump an archive for a classpath with a non-empty directory.
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (!entry.endsWith(".jar") || !new File(entry).isFile()) return null;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            log.debug("Startup archive disabled: cannot create " + directory);
+            return null;
+        }
+        File archive = new File(directory, "jmf-" + key(classpath) + ".jsa");
+        if (archive.isFile()) return new StartupArchive(archive, null);
+        File pending = new File(directory, archive.getName() + "." + System.nanoTime() + ".tmp");
+        return new StartupArchive(archive, pending);
+    }
+
+    /** JVM options that map the archive, or record it when it does not exist yet. */
+    List<String> jvmOptions() {
+        List<String> opts = new ArrayList<>();
+        if (pending == null) opts.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+        else opts.add("-XX:ArchiveClassesAtExit=" + pending.getAbsolutePath());
+        // A mismatched archive is skipped; keep its warnings out of the build log.
+        opts.add("-Xlog:cds=off");
+        opts.add("-Xlog:cds+dynamic=off");
+        return opts;
+    }
+
+    /** Publish a recorded archive after a successful fork; discard it otherwise. */
+    void finish(boolean succeeded, Log log) {
+        if (pending == null || !pending.isFile()) return;
+        try {
+            if (succeeded) {
+                try {
+                    Files.move(pending.toPath(), archive.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(pending.toPath(), archive.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                log.debug("Startup archive written: " + archive);
+            } else {
+                Files.delete(pending.toPath());
+            }
+        } catch (IOException e) {
+            log.debug("Startup archive not kept: " + e.getMessage());
+            pending.delete();
+        }
+    }
+
+    private static String key(String classpath) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(System.getProperty("java.home")).append('\n');
+        sb.append(System.getProperty("java.vm.version")).append('\n');
+        for (String entry : classpath.split(File.pathSeparator)) {
+            File f = new File(entry);
+            sb.append(f.getAbsolutePath()).append(' ').append(f.length()).append(' ').append(f.lastModified()).append('\n');
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : Arrays.copyOf(digest, 12)) hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int javaFeatureVersion() {
+        String spec = System.getProperty("java.specification.version", "");
+        try {
+            return spec.startsWith("1.") ? Integer.parseInt(spec.substring(2)) : Integer.parseInt(spec);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package io.moranaapps.mavenplugin;
 
+import io.moranaapps.jacocomethodfilter.RewriterDaemon;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -16,6 +17,8 @@ import java.util.*;
 @Mojo(name = "verify", requiresDependencyResolution = ResolutionScope.RUNTIME, threadSafe = true)
 public class VerifyMojo extends AbstractMojo {
 
+    private static final String MAIN_CLASS = "io.moranaapps.jacocomethodfilter.CoverageRewriter";
+
     @Parameter(defaultValue = "${project}", readonly = true, required = true)
     private MavenProject project;
     
@@ -31,12 +34,39 @@ public class VerifyMojo extends AbstractMojo {
     @Parameter(property = "jmf.inputDirectory", defaultValue = "${project.build.outputDirectory}")
     private File inputDirectory;
 
+    @Parameter(property = "jmf.classesFrom")
+    private File classesFrom;
+
+    @Parameter(property = "jmf.jacocoIncludes", defaultValue = "**")
+    private String jacocoIncludes;
+
+    @Parameter(property = "jmf.jacocoExcludes", defaultValue = "")
+    private String jacocoExcludes;
+
+    @Parameter(property = "jmf.verifyCache", defaultValue = "${project.build.directory}/jmf-verify.cache")
+    private File verifyCache;
+
+    @Parameter(property = "jmf.baseline")
+    private File baseline;
+
     @Parameter(property = "jmf.reportFile")
     private File reportFile;
 
     @Parameter(property = "jmf.reportFormat", defaultValue = "txt")
     private String reportFormat;
 
+    @Parameter(property = "jmf.startupArchive", defaultValue = "true")
+    private boolean startupArchive;
+
+    @Parameter(property = "jmf.startupArchiveDirectory", defaultValue = "${user.home}/.cache/jacoco-method-filter/cds")
+    private File startupArchiveDirectory;
+
+    @Parameter(property = "jmf.daemon", defaultValue = "false")
+    private boolean daemon;
+
+    @Parameter(property = "jmf.daemonIdleTimeout", defaultValue = "900")
+    private int daemonIdleTimeout;
+
     @Parameter(property = "jmf.skip", defaultValue = "false")
     private boolean skip;
 
@@ -86,25 +116,58 @@ public class VerifyMojo extends AbstractMojo {
 
     private void runVerification() throws MojoExecutionException {
         String javaCmd = locateJavaExec();
-        List<String> command = assembleCmdLine(javaCmd);
+        String classpath = buildCp();
+        StartupArchive archive = startupArchive
+            ? StartupArchive.forClasspath(classpath, startupArchiveDirectory, getLog())
+            : null;
+        List<String> command = assembleCmdLine(javaCmd, classpath, archive);
         
         getLog().info("╔═══ JaCoCo Method Filter: Verify Rules Impact ═══");
         getLog().info("║ Classes:     " + inputDirectory.getAbsolutePath());
         logRulesConfig();
+        if (classesFrom != null) {
+            getLog().info("║ Only:        classes listed in " + classesFrom.getAbsolutePath());
+        }
+        if (baseline != null) {
+            getLog().info("║ Baseline:    " + baseline.getAbsolutePath());
+        }
         if (reportFile != null) {
             getLog().info("║ Report:      " + reportFile.getAbsolutePath() + " (" + reportFormat + ")");
         }
         getLog().info("╚══════════════════════════════════════════════════");
 
-        launchSubprocess(command);
+        if (daemon && runOnDaemon(javaCmd, classpath, command.subList(command.indexOf(MAIN_CLASS) + 1, command.size()))) {
+            return;
+        }
+        launchSubprocess(command, archive);
+    }
+
+    /** Run on the shared rewriter daemon; false when it cannot be reached, so the caller forks instead. */
+    private boolean runOnDaemon(String javaPath, String classpath, List<String> cliArgs) throws MojoExecutionException {
+        File stateDir = new File(System.getProperty("user.home"), ".cache/jacoco-method-filter/daemon");
+        int result;
+        try {
+            // Relative paths resolve against the directory a forked run would start in.
+            result = RewriterDaemon.submit(stateDir.toPath(), Arrays.asList(javaPath, "-cp", classpath),
+                daemonIdleTimeout, new File("").getAbsoluteFile().toPath(), cliArgs.toArray(new String[0]), this::routeLogLine);
+        } catch (IOException ex) {
+            getLog().warn("Rewriter daemon unavailable, forking instead: " + ex.getMessage());
+            return false;
+        }
+        if (result != 0) {
+            throw new MojoExecutionException("Tool terminated abnormally: code " + result);
+        }
+        getLog().info("Verification completed");
+        return true;
     }
 
-    private List<String> assembleCmdLine(String javaPath) throws MojoExecutionException {
+    private List<String> assembleCmdLine(String javaPath, String classpath, StartupArchive archive) {
         List<String> cmd = new ArrayList<>();
         cmd.add(javaPath);
+        if (archive != null) cmd.addAll(archive.jvmOptions());
         cmd.add("-cp");
-        cmd.add(buildCp());
-        cmd.add("io.moranaapps.jacocomethodfilter.CoverageRewriter");
+        cmd.add(classpath);
+        cmd.add(MAIN_CLASS);
         cmd.add("--verify");
         cmd.add("--in");
         cmd.add(inputDirectory.getAbsolutePath());
@@ -117,6 +180,26 @@ public class VerifyMojo extends AbstractMojo {
             cmd.add("--local-rules");
             cmd.add(localRules.getAbsolutePath());
         }
+        if (verifyCache != null) {
+            cmd.add("--verify-cache");
+            cmd.add(verifyCache.getAbsolutePath());
+        }
+        if (classesFrom != null) {
+            cmd.add("--classes-from");
+            cmd.add(classesFrom.getAbsolutePath());
+        }
+        if (jacocoIncludes != null && !jacocoIncludes.trim().isEmpty()) {
+            cmd.add("--includes");
+            cmd.add(jacocoIncludes);
+        }
+        if (jacocoExcludes != null && !jacocoExcludes.trim().isEmpty()) {
+            cmd.add("--excludes");
+            cmd.add(jacocoExcludes);
+        }
+        if (baseline != null) {
+            cmd.add("--baseline");
+            cmd.add(baseline.getAbsolutePath());
+        }
         if (reportFile != null) {
             cmd.add("--report-file");
             cmd.add(reportFile.getAbsolutePath());
@@ -162,7 +245,8 @@ public class VerifyMojo extends AbstractMojo {
         return execFile.exists() ? execFile.getAbsolutePath() : "java";
     }
 
-    private void launchSubprocess(List<String> cmdLine) throws MojoExecutionException {
+    private void launchSubprocess(List<String> cmdLine, StartupArchive archive) throws MojoExecutionException {
+        boolean succeeded = false;
         try {
             Process p = new ProcessBuilder(cmdLine).redirectErrorStream(true).start();
             
@@ -185,6 +269,7 @@ public class VerifyMojo extends AbstractMojo {
             if (result != 0) {
                 throw new MojoExecutionException("Tool terminated abnormally: code " + result);
             }
+            succeeded = true;
             
             getLog().info("Verification completed");
             
@@ -193,6 +278,8 @@ public class VerifyMojo extends AbstractMojo {
         } catch (InterruptedException ex) {
             Thread.currentThread().interrupt();
             throw new MojoExecutionException("Process interrupted", ex);
+        } finally {
+            if (archive != null) archive.finish(succeeded, getLog());
         }
     }
 
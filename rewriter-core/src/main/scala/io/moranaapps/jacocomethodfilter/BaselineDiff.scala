@@ -0,0 +1,134 @@
+package io.moranaapps.jacocomethodfilter
+
+import java.io.{BufferedReader, DataInputStream, IOException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import scala.collection.mutable
+
+/** Differences between a verify result and a baseline report.
+  *
+  * @param added Methods excluded or rescued now but not in the baseline
+  * @param removed Methods in the baseline that are no longer excluded or rescued
+  * @param newlyUnmatched Rules unmatched now that were matched (or absent) in the baseline
+  */
+final case class BaselineDiff(added: Int, removed: Int, newlyUnmatched: Int) {
+  def isEmpty: Boolean = added == 0 && removed == 0 && newlyUnmatched == 0
+}
+
+/** Compares a [[ScanResult]] with a stored `csv` or `bin` report (`--baseline`).
+  *
+  * Both report formats list methods sorted by outcome (excluded before rescued), class, method and
+  * descriptor, so the comparison is a merge join: the baseline is streamed once and never held in
+  * memory, and only differences are reported. A method whose outcome changed shows up as removed under
+  * the old outcome and added under the new one. Rule ids are not compared.
+  */
+object BaselineDiff {
+  private type Key = (Int, String, String, String)
+
+  private val keyOrdering: Ordering[Key] = Ordering.Tuple4[Int, String, String, String]
+
+  private def outcomeOrder(o: MethodOutcome): Int = if (o == Excluded) 0 else 1
+  private def outcomeName(order: Int): String     = if (order == 0) "EXCLUDED" else "RESCUED"
+
+  private def key(m: MatchedMethod): Key = (outcomeOrder(m.outcome), m.fqcn, m.methodName, m.descriptor)
+
+  /** Compare `result` with `baseline`, sending one line per difference to `out`.
+    *
+    * @throws java.io.IOException if the baseline cannot be read or is neither a csv nor a bin report
+    */
+  def compare(result: ScanResult, baseline: Path, out: String => Unit): BaselineDiff = {
+    // The table is already in key order.
+    val current = result.table.iterator.map(key).buffered
+    var added   = 0
+    var removed = 0
+    def line(sign: String, k: Key): Unit = out(s"[baseline] $sign ${outcomeName(k._1)} ${k._2}#${k._3}${k._4}")
+
+    val baselineUnmatched = withBaseline(baseline) { (methods, unmatched) =>
+      val old = methods.buffered
+      while (current.hasNext || old.hasNext) {
+        val c =
+          if (!current.hasNext) 1
+          else if (!old.hasNext) -1
+          else keyOrdering.compare(current.head, old.head)
+        if (c < 0) { line("+", current.next()); added += 1 }
+        else if (c > 0) { line("-", old.next()); removed += 1 }
+        else { current.next(); old.next() }
+      }
+      unmatched()
+    }
+
+    var newlyUnmatched = 0
+    result.unmatchedRules.foreach { r =>
+      if (!baselineUnmatched.contains((r.patternText, r.id.getOrElse("")))) {
+        out(s"[baseline] + UNMATCHED ${r.patternText}${r.id.map(i => s"  id:$i").getOrElse("")}")
+        newlyUnmatched += 1
+      }
+    }
+    BaselineDiff(added, removed, newlyUnmatched)
+  }
+
+  /** Open `baseline` and pass its sorted method keys and a reader for its unmatched rules to `f`.
+    * The unmatched rules may only be read after the method keys are consumed.
+    */
+  private def withBaseline[A](baseline: Path)(f: (Iterator[Key], () => Set[(String, String)]) => A): A =
+    if (isBinary(baseline)) {
+      val report = BinaryReport.open(baseline)
+      val methods = Iterator(Excluded, Rescued).flatMap { o =>
+        report.byOutcome(o).iterator.map { i =>
+          val m = report.method(i)
+          (outcomeOrder(o), m.fqcn, m.methodName, m.descriptor)
+        }
+      }
+      f(methods, () => report.unmatchedRules.map(u => (u.pattern, u.id.getOrElse(""))).toSet)
+    } else {
+      val reader = Files.newBufferedReader(baseline, StandardCharsets.UTF_8)
+      try {
+        if (reader.readLine() != CsvHeader)
+          throw new IOException(s"Baseline must be a csv or bin verify report: $baseline")
+        val unmatched = mutable.HashSet.empty[(String, String)]
+        val methods = csvRows(reader).flatMap { cells =>
+          cells.headOption match {
+            case Some("EXCLUDED") => Iterator((0, cells(1), cells(2), cells(3)))
+            case Some("RESCUED")  => Iterator((1, cells(1), cells(2), cells(3)))
+            case Some("UNMATCHED_RULE") =>
+              unmatched += ((cells(1), cells(4)))
+              Iterator.empty
+            case _ => Iterator.empty
+          }
+        }
+        f(methods, () => unmatched.toSet)
+      } finally reader.close()
+    }
+
+  private val CsvHeader = "outcome,class,method,descriptor,exclusionRuleIds,inclusionRuleIds"
+
+  private def isBinary(path: Path): Boolean = {
+    val in = new DataInputStream(Files.newInputStream(path))
+    try Files.size(path) >= 4 && in.readInt() == BinaryReport.Magic
+    finally in.close()
+  }
+
+  private def csvRows(reader: BufferedReader): Iterator[IndexedSeq[String]] =
+    Iterator.continually(reader.readLine()).takeWhile(_ != null).filter(_.nonEmpty).map(parseCsvLine)
+
+  /** Split one CSV line as written by [[ScanResult.formatReport]] (cells with `,` or `"` are quoted). */
+  private def parseCsvLine(line: String): IndexedSeq[String] = {
+    val cells   = mutable.ArrayBuffer.empty[String]
+    val cell    = new StringBuilder
+    var quoted  = false
+    var i       = 0
+    while (i < line.length) {
+      val ch = line.charAt(i)
+      if (quoted) {
+        if (ch == '"' && i + 1 < line.length && line.charAt(i + 1) == '"') { cell.append('"'); i += 1 }
+        else if (ch == '"') quoted = false
+        else cell.append(ch)
+      } else if (ch == '"') quoted = true
+      else if (ch == ',') { cells += cell.toString; cell.clear() }
+      else cell.append(ch)
+      i += 1
+    }
+    cells += cell.toString
+    cells.toVector
+  }
+}
@@ -0,0 +1,300 @@
+package io.moranaapps.jacocomethodfilter
+
+import java.io.{BufferedOutputStream, DataOutputStream, IOException}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardOpenOption}
+import scala.collection.mutable
+
+/** Unmatched rule as stored in a binary report. */
+final case class UnmatchedRuleEntry(pattern: String, id: Option[String], source: String)
+
+/** Read access to a binary verify report (`--report-format bin`).
+  *
+  * The file is memory-mapped and only the parts a lookup needs are decoded. Class names, method names,
+  * descriptors and rule ids are stored once in a string table. Method records have a fixed size and are
+  * sorted by class, method and descriptor, which makes a class a contiguous record range. Sorted indexes
+  * by class name and by rule id are binary searched, and outcome posting lists give the excluded and
+  * rescued records directly.
+  *
+  * Layout: magic and version, then the string data, string offset table, rule id lists, method records,
+  * class index, rule index, posting lists and unmatched rules, then a fixed-size footer with the position
+  * and count of every section.
+  */
+final class BinaryReport private (buf: ByteBuffer) {
+  import BinaryReport._
+
+  private val footer = buf.limit() - FooterSize
+  private def footerInt(field: Int): Int = buf.getInt(footer + field * 4)
+
+  /** Number of class files the verify run scanned. */
+  val classesScanned: Int = footerInt(0)
+
+  private val stringOffsets = footerInt(2)
+  private val recordsPos    = footerInt(3)
+  /** Number of method records. */
+  val size: Int             = footerInt(4)
+  private val classIndexPos = footerInt(5)
+  private val classCount    = footerInt(6)
+  private val ruleIndexPos  = footerInt(7)
+  private val ruleCount     = footerInt(8)
+  private val excludedPos   = footerInt(9)
+  private val excludedCount = footerInt(10)
+  private val rescuedPos    = footerInt(11)
+  private val rescuedCount  = footerInt(12)
+  private val unmatchedPos  = footerInt(13)
+  private val unmatchedCount = footerInt(14)
+
+  private val strings = mutable.HashMap.empty[Int, String]
+
+  private def string(i: Int): String =
+    strings.getOrElseUpdate(i, {
+      val pos   = buf.getInt(stringOffsets + i * 4)
+      val bytes = new Array[Byte](buf.getInt(pos))
+      val view  = buf.duplicate()
+      view.position(pos + 4)
+      view.get(bytes)
+      new String(bytes, StandardCharsets.UTF_8)
+    })
+
+  private def ints(pos: Int): IndexedSeq[Int] = (0 until buf.getInt(pos)).map(k => buf.getInt(pos + 4 + k * 4))
+
+  private def record(i: Int): Int = recordsPos + i * RecordSize
+
+  /** Decode method record `i`. */
+  def method(i: Int): MatchedMethod = {
+    val r = record(i)
+    MatchedMethod(
+      fqcn         = string(buf.getInt(r)),
+      methodName   = string(buf.getInt(r + 4)),
+      descriptor   = string(buf.getInt(r + 8)),
+      outcome      = if (buf.get(r + 16) == 0) Excluded else Rescued,
+      exclusionIds = ints(buf.getInt(r + 17)).map(string),
+      inclusionIds = ints(buf.getInt(r + 21)).map(string),
+      access       = buf.getInt(r + 12)
+    )
+  }
+
+  private def className(k: Int): String = string(buf.getInt(classIndexPos + k * 12))
+
+  /** First index in `[0, n)` whose key is not less than `target`. */
+  private def lowerBound(n: Int, key: Int => String, target: String): Int = {
+    var lo = 0
+    var hi = n
+    while (lo < hi) {
+      val mid = (lo + hi) >>> 1
+      if (key(mid).compareTo(target) < 0) lo = mid + 1 else hi = mid
+    }
+    lo
+  }
+
+  private def classRecords(k: Int): Range = {
+    val e = classIndexPos + k * 12
+    buf.getInt(e + 4) until buf.getInt(e + 4) + buf.getInt(e + 8)
+  }
+
+  /** Records of class `fqcn` (dot form). */
+  def byClass(fqcn: String): IndexedSeq[Int] = {
+    val k = lowerBound(classCount, className, fqcn)
+    if (k < classCount && className(k) == fqcn) classRecords(k) else Vector.empty
+  }
+
+  /** Records of classes in package `pkg` (dot form) and its subpackages. */
+  def byPackage(pkg: String): IndexedSeq[Int] = {
+    val prefix = if (pkg.isEmpty || pkg.endsWith(".")) pkg else pkg + "."
+    var k   = lowerBound(classCount, className, prefix)
+    val out = Vector.newBuilder[Int]
+    while (k < classCount && className(k).startsWith(prefix)) {
+      out ++= classRecords(k)
+      k += 1
+    }
+    out.result()
+  }
+
+  private def ruleEntry(id: String): Option[Int] = {
+    val key = (k: Int) => string(buf.getInt(ruleIndexPos + k * 12))
+    val k   = lowerBound(ruleCount, key, id)
+    if (k < ruleCount && key(k) == id) Some(ruleIndexPos + k * 12) else None
+  }
+
+  /** Records whose exclusion or inclusion rule ids contain `id`. */
+  def byRule(id: String): IndexedSeq[Int] =
+    ruleEntry(id).fold(IndexedSeq.empty[Int])(e => postings(buf.getInt(e + 4), buf.getInt(e + 8)))
+
+  /** Records with the given outcome. */
+  def byOutcome(outcome: MethodOutcome): IndexedSeq[Int] = outcome match {
+    case Excluded => postings(excludedPos, excludedCount)
+    case Rescued  => postings(rescuedPos, rescuedCount)
+  }
+
+  // A view over the mapped file, so large posting lists are not copied onto the heap.
+  private def postings(pos: Int, n: Int): IndexedSeq[Int] = new IndexedSeq[Int] {
+    def length: Int        = n
+    def apply(k: Int): Int = buf.getInt(pos + k * 4)
+  }
+
+  /** Rules that matched no method in the verify run. */
+  def unmatchedRules: Seq[UnmatchedRuleEntry] = {
+    (0 until unmatchedCount).map { k =>
+      val e  = unmatchedPos + k * 12
+      val id = buf.getInt(e + 4)
+      UnmatchedRuleEntry(string(buf.getInt(e)), if (id < 0) None else Some(string(id)), string(buf.getInt(e + 8)))
+    }
+  }
+
+  /** Methods satisfying every given filter, in record order.
+    *
+    * The most selective index provides the candidates; the other filters are checked on each candidate's
+    * record, so only matching records are decoded.
+    */
+  def query(
+    rule: Option[String] = None,
+    pkg: Option[String] = None,
+    cls: Option[String] = None,
+    outcome: Option[MethodOutcome] = None
+  ): Seq[MatchedMethod] = {
+    val sources = rule.map(byRule).toList ++ pkg.map(byPackage) ++ cls.map(byClass) ++ outcome.map(byOutcome)
+    val candidates = if (sources.isEmpty) 0 until size else sources.minBy(_.size)
+
+    val ruleStr = rule.flatMap(ruleEntry).map(e => buf.getInt(e))
+    val clsPrefix = pkg.map(p => if (p.isEmpty || p.endsWith(".")) p else p + ".")
+    def keep(i: Int): Boolean = {
+      val r = record(i)
+      ruleStr.forall(s => (ints(buf.getInt(r + 17)) ++ ints(buf.getInt(r + 21))).contains(s)) &&
+        clsPrefix.forall(p => string(buf.getInt(r)).startsWith(p)) &&
+        cls.forall(_ == string(buf.getInt(r))) &&
+        outcome.forall(o => (buf.get(r + 16) == 0) == (o == Excluded))
+    }
+    candidates.filter(keep).map(method)
+  }
+}
+
+object BinaryReport {
+  private[jacocomethodfilter] val Magic = 0x4a4d4652 // "JMFR"
+  private val FormatVersion = 1
+  // cls, name, desc, access (int each), outcome (byte), exclusion and inclusion id list positions (int each)
+  private val RecordSize    = 25
+  private val FooterFields  = 15
+  private val FooterSize    = FooterFields * 4 + 4
+
+  /** Map a binary report for reading.
+    *
+    * @throws java.io.IOException if the file cannot be read or is not a binary report
+    */
+  def open(path: Path): BinaryReport = {
+    val ch = FileChannel.open(path, StandardOpenOption.READ)
+    val buf =
+      try {
+        if (ch.size() > Int.MaxValue) throw new IOException(s"Binary report too large: $path")
+        ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size())
+      } finally ch.close()
+    if (buf.limit() < 8 + FooterSize || buf.getInt(0) != Magic || buf.getInt(buf.limit() - 4) != Magic)
+      throw new IOException(s"Not a binary verify report: $path")
+    if (buf.getInt(4) != FormatVersion)
+      throw new IOException(s"Unsupported binary report version ${buf.getInt(4)} in $path")
+    new BinaryReport(buf)
+  }
+
+  /** Write `result` as a binary report.
+    *
+    * @throws java.io.IOException on write failure or if the report would exceed 2 GiB
+    */
+  def write(result: ScanResult, path: Path): Unit = {
+    val records = result.matches.sortBy(m => (m.fqcn, m.methodName, m.descriptor)).toVector
+
+    val stringIds = mutable.LinkedHashMap.empty[String, Int]
+    def intern(s: String): Int = stringIds.getOrElseUpdate(s, stringIds.size)
+    val unmatched = result.unmatchedRules.map { r =>
+      val source = r.source match {
+        case GlobalSource(origin)               => s"global: $origin"
+        case LocalSource(p) if p.nonEmpty       => s"local: $p"
+        case _                                  => ""
+      }
+      (intern(r.patternText), r.id.map(intern).getOrElse(-1), intern(source))
+    }
+    val encoded = records.map { m =>
+      (intern(m.fqcn), intern(m.methodName), intern(m.descriptor), m.exclusionIds.map(intern), m.inclusionIds.map(intern))
+    }
+
+    Option(path.toAbsolutePath.getParent).foreach(Files.createDirectories(_))
+    val out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))
+    try {
+      def pos: Int = {
+        // DataOutputStream.size saturates at Int.MaxValue
+        if (out.size() == Int.MaxValue) throw new IOException(s"Binary report exceeds 2 GiB: $path")
+        out.size()
+      }
+      def writeInts(xs: Seq[Int]): Unit = xs.foreach(out.writeInt)
+
+      out.writeInt(Magic)
+      out.writeInt(FormatVersion)
+
+      val stringPos = stringIds.keys.toVector.map { s =>
+        val at    = pos
+        val bytes = s.getBytes(StandardCharsets.UTF_8)
+        out.writeInt(bytes.length)
+        out.write(bytes)
+        at
+      }
+      val stringOffsets = pos
+      writeInts(stringPos)
+
+      // Identical id lists (the common case: one rule excluding many methods) are written once.
+      val idLists = mutable.HashMap.empty[Seq[Int], Int]
+      def idList(ids: Seq[Int]): Int = idLists.getOrElseUpdate(ids, {
+        val at = pos
+        out.writeInt(ids.size)
+        writeInts(ids)
+        at
+      })
+      val listRefs = encoded.map { case (_, _, _, excl, incl) => (idList(excl), idList(incl)) }
+
+      val recordsPos = pos
+      encoded.zip(records).zip(listRefs).foreach { case (((cls, name, desc, _, _), m), (excl, incl)) =>
+        writeInts(Seq(cls, name, desc, m.access))
+        out.writeByte(if (m.outcome == Excluded) 0 else 1)
+        writeInts(Seq(excl, incl))
+      }
+
+      // Records are sorted by class, so each class is one contiguous range.
+      val classRanges = mutable.LinkedHashMap.empty[String, (Int, Int)]
+      records.zipWithIndex.foreach { case (m, i) =>
+        val (first, count) = classRanges.getOrElse(m.fqcn, (i, 0))
+        classRanges.put(m.fqcn, (first, count + 1))
+      }
+      val classIndexPos = pos
+      classRanges.foreach { case (cls, (first, count)) => writeInts(Seq(stringIds(cls), first, count)) }
+
+      val byRule = mutable.HashMap.empty[String, mutable.ArrayBuffer[Int]]
+      records.zipWithIndex.foreach { case (m, i) =>
+        (m.exclusionIds ++ m.inclusionIds).distinct.foreach(id => byRule.getOrElseUpdate(id, mutable.ArrayBuffer.empty) += i)
+      }
+      val ruleIds  = byRule.keys.toVector.sorted
+      val excluded = records.indices.filter(i => records(i).outcome == Excluded)
+      val rescued  = records.indices.filter(i => records(i).outcome == Rescued)
+
+      val ruleIndexPos = pos
+      var posting      = ruleIndexPos + ruleIds.size * 12
+      ruleIds.foreach { id =>
+        writeInts(Seq(stringIds(id), posting, byRule(id).size))
+        posting += byRule(id).size * 4
+      }
+      ruleIds.foreach(id => writeInts(byRule(id).toList))
+      val excludedPos = pos
+      writeInts(excluded)
+      val rescuedPos = pos
+      writeInts(rescued)
+
+      val unmatchedPos = pos
+      unmatched.foreach { case (pattern, id, source) => writeInts(Seq(pattern, id, source)) }
+
+      writeInts(Seq(
+        result.classesScanned, stringIds.size, stringOffsets, recordsPos, records.size,
+        classIndexPos, classRanges.size, ruleIndexPos, ruleIds.size,
+        excludedPos, excluded.size, rescuedPos, rescued.size, unmatchedPos, unmatched.size))
+      out.writeInt(Magic)
+      pos // fails if the footer pushed the file past the limit
+    } finally out.close()
+  }
+}
@@ -0,0 +1,131 @@
+package io.moranaapps.jacocomethodfilter
+
+import io.moranaapps.jacocomethodfilter.Compat._
+
+import java.io.{BufferedReader, IOException, InputStreamReader}
+import java.nio.charset.StandardCharsets
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.{FileVisitOption, FileVisitResult, Files, Path, Paths, SimpleFileVisitor}
+import java.util.concurrent.{ConcurrentHashMap, RecursiveTask}
+import java.util.function.{Function => JFunction}
+import scala.collection.mutable
+
+/** Work lists of class files for the rewrite and verify passes.
+  *
+  * Every entry is a path under the `--in` root, so callers can `relativize` it against that root.
+  */
+object ClassFiles {
+
+  /** All `.class` files under `root`, sorted by path.
+    *
+    * Directories are listed in parallel on the common fork-join pool, one task per directory. Each
+    * listing uses the attributes the directory walk already read, so every entry costs a single stat.
+    * The sorted order makes the work list, and everything derived from it, independent of file system
+    * listing order.
+    */
+  def discover(root: Path): Seq[Path] =
+    new ListDirectory(root).invoke().sortBy(_.toString)
+
+  /** Lists one directory and forks a task per subdirectory. */
+  private final class ListDirectory(dir: Path) extends RecursiveTask[Vector[Path]] {
+    def compute(): Vector[Path] = {
+      val files   = Vector.newBuilder[Path]
+      val subdirs = mutable.ArrayBuffer.empty[ListDirectory]
+      // With maxDepth 1, every entry (directories included) is reported to visitFile with its attributes.
+      Files.walkFileTree(dir, java.util.EnumSet.noneOf(classOf[FileVisitOption]), 1, new SimpleFileVisitor[Path] {
+        override def visitFile(p: Path, attrs: BasicFileAttributes): FileVisitResult = {
+          if (attrs.isDirectory) subdirs += new ListDirectory(p)
+          else if (p.getFileName.toString.endsWith(".class") &&
+            (attrs.isRegularFile || (attrs.isSymbolicLink && Files.isRegularFile(p)))) files += p
+          FileVisitResult.CONTINUE
+        }
+
+        override def visitFileFailed(p: Path, e: IOException): FileVisitResult =
+          if (p == dir) throw e else FileVisitResult.CONTINUE
+      })
+      subdirs.foreach(_.fork())
+      subdirs.foreach(t => files ++= t.join())
+      files.result()
+    }
+  }
+
+  /** Creates output directories at most once per run; safe for concurrent use. */
+  final class Directories {
+    private val created = new ConcurrentHashMap[Path, java.lang.Boolean]()
+
+    /** Create `dir` and its parents unless this instance already did.
+      *
+      * @throws java.io.IOException if the directory cannot be created
+      */
+    def ensure(dir: Path): Unit =
+      created.computeIfAbsent(dir, new JFunction[Path, java.lang.Boolean] {
+        def apply(d: Path): java.lang.Boolean = {
+          Files.createDirectories(d)
+          java.lang.Boolean.TRUE
+        }
+      })
+  }
+
+  /** Read an explicit class list from `source` (a file path, or `-` for stdin) and resolve it against `root`.
+    *
+    * @see [[resolve]] for the accepted entry forms
+    */
+  def fromList(source: String, root: Path, warn: String => Unit): Seq[Path] = {
+    val lines =
+      if (source == "-") {
+        val reader = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+        Iterator.continually(reader.readLine()).takeWhile(_ != null).toVector
+      } else {
+        Files.readAllLines(Paths.get(source), StandardCharsets.UTF_8).asScala.toVector
+      }
+    resolve(lines, root, warn)
+  }
+
+  /** Resolve class-list entries to class files under `root`.
+    *
+    * Blank lines and lines starting with `#` are ignored. An entry ending in `.class` is a path: absolute,
+    * relative to the working directory, or relative to `root`. Any other entry is a class name in dot or
+    * slash form; it selects `Name.class` together with its nested and companion classes (`Name$*.class`),
+    * since those come from the same source file. Entries outside `root` or without a matching file are
+    * reported through `warn` and skipped. The result has no duplicates and keeps first-seen order.
+    */
+  def resolve(entries: Seq[String], root: Path, warn: String => Unit): Seq[Path] = {
+    val rootAbs = root.toAbsolutePath.normalize()
+    val out     = mutable.LinkedHashSet.empty[Path]
+
+    def underRoot(p: Path): Option[Path] = {
+      val abs = p.toAbsolutePath.normalize()
+      if (abs.startsWith(rootAbs)) Some(root.resolve(rootAbs.relativize(abs))) else None
+    }
+
+    entries.map(_.trim).filter(e => e.nonEmpty && !e.startsWith("#")).foreach { entry =>
+      if (entry.endsWith(".class")) {
+        val p         = Paths.get(entry)
+        val inWorkDir = CoverageRewriterCli.path(entry)
+        val candidate = if (p.isAbsolute || Files.exists(inWorkDir)) inWorkDir else root.resolve(p)
+        underRoot(candidate) match {
+          case Some(rel) if Files.isRegularFile(rel) => out += rel
+          case Some(_)                               => warn(s"[warn] Class file not found, skipping: $entry")
+          case None                                  => warn(s"[warn] Class file is outside --in, skipping: $entry")
+        }
+      } else {
+        val internal = entry.replace('.', '/')
+        val primary  = root.resolve(internal + ".class")
+        val dir      = Option(primary.getParent).getOrElse(root)
+        val prefix   = internal.substring(internal.lastIndexOf('/') + 1) + "$"
+        val nested =
+          if (!Files.isDirectory(dir)) Vector.empty[Path]
+          else using(Files.list(dir)) { stream =>
+            stream.iterator().asScala.filter { f =>
+              val n = f.getFileName.toString
+              n.startsWith(prefix) && n.endsWith(".class")
+            }.toVector.sortBy(_.getFileName.toString)
+          }
+        val found = (if (Files.isRegularFile(primary)) Vector(primary) else Vector.empty) ++ nested
+        if (found.isEmpty) warn(s"[warn] No class files found for $entry, skipping")
+        out ++= found
+      }
+    }
+    out.toVector
+  }
+}
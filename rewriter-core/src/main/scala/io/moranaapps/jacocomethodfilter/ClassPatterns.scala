@@ -0,0 +1,44 @@
+package io.moranaapps.jacocomethodfilter
+
+import java.io.File
+import java.nio.file.Path
+import java.util.regex.Pattern
+
+/** JaCoCo agent `includes` / `excludes` class name patterns (`--includes`, `--excludes`).
+  *
+  * Uses the agent's syntax and semantics: colon-separated entries matched against the dotted class name,
+  * `*` for any characters (dots included) and `?` for one character. A class is accepted when an include
+  * pattern matches and no exclude pattern does, which is exactly the set of classes the agent records
+  * coverage for. The class name is derived from the class file's path under `--in`, so a class that is
+  * not accepted is skipped before its bytes are read.
+  *
+  * @param acceptsAll true when every class is accepted, so callers can skip filtering altogether
+  */
+final class ClassPatterns private (includes: Seq[Pattern], excludes: Seq[Pattern], val acceptsAll: Boolean) {
+
+  def accepts(className: String): Boolean =
+    acceptsAll || (includes.exists(_.matcher(className).matches()) && !excludes.exists(_.matcher(className).matches()))
+
+  /** Whether the class in `classFile`, a path under `root`, is accepted. */
+  def accepts(root: Path, classFile: Path): Boolean =
+    acceptsAll || accepts(ClassPatterns.className(root, classFile))
+}
+
+object ClassPatterns {
+  /** Accepts every class, like an agent without `includes` or `excludes`. */
+  val all: ClassPatterns = apply(None, None)
+
+  /** Patterns from the agent options; a missing `includes` means `*`, a missing `excludes` means none. */
+  def apply(includes: Option[String], excludes: Option[String]): ClassPatterns = {
+    val incl = entries(includes.getOrElse("*"))
+    val excl = entries(excludes.getOrElse(""))
+    new ClassPatterns(incl.map(Glob.toRegex), excl.map(Glob.toRegex), excl.isEmpty && incl.exists(_.forall(_ == '*')))
+  }
+
+  private def entries(patterns: String): Seq[String] =
+    patterns.split(':').toSeq.map(_.trim).filter(_.nonEmpty)
+
+  /** Dotted class name of `classFile` from its path relative to `root`. */
+  private def className(root: Path, classFile: Path): String =
+    root.relativize(classFile).toString.stripSuffix(".class").replace(File.separatorChar, '.')
+}
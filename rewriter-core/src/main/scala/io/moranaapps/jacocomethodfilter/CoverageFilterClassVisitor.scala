@@ -0,0 +1,190 @@
+package io.moranaapps.jacocomethodfilter
+
+import io.moranaapps.jacocomethodfilter.Compat._
+import org.objectweb.asm.{AnnotationVisitor, Attribute, ClassVisitor, FieldVisitor, MethodVisitor, Opcodes, RecordComponentVisitor, TypePath}
+import org.objectweb.asm.tree.{AnnotationNode, ClassNode}
+
+/** ASM class visitor that adds `@CoverageGenerated` to the methods excluded by `index`, for chaining into
+  * an existing visitor chain (shading, instrumentation, ...) so the marking needs no parse of its own.
+  *
+  * Marks exactly what the rewriter marks: excluded methods that do not carry the annotation yet, and the
+  * class when every method with code is excluded. Whether the class is marked is only known once all
+  * methods have been seen, while its annotations have to precede its members. The visitor therefore
+  * buffers the class in a [[org.objectweb.asm.tree.ClassNode]] and passes it on to `next` in
+  * [[visitEnd]], in the order ASM prescribes: the class annotation before any member, each method
+  * annotation before the method's code.
+  *
+  * For a class file in and out, use [[CoverageFilterTransformer]], which also leaves classes it does not
+  * change untouched. One instance visits one class.
+  *
+  * @param api ASM API version implemented by this visitor
+  * @param next visitor receiving the marked class
+  * @param index compiled rules deciding which methods are excluded
+  */
+final class CoverageFilterClassVisitor private (api: Int, next: ClassVisitor, index: RuleIndex, node: ClassNode)
+    extends ClassVisitor(api, node) {
+
+  def this(api: Int, next: ClassVisitor, index: RuleIndex) = this(api, next, index, new ClassNode(api))
+
+  def this(next: ClassVisitor, index: RuleIndex) = this(Opcodes.ASM9, next, index)
+
+  private var marked    = 0
+  private var markClass = false
+
+  /** Number of methods marked; known after [[visitEnd]]. */
+  def markedMethods: Int = marked
+
+  /** Whether the class was marked; known after [[visitEnd]]. */
+  def classMarked: Boolean = markClass
+
+  override def visitEnd(): Unit = {
+    super.visitEnd()
+    val classRules = index.forClass(node.name.replace('/', '.'))
+    val whole      = index.wholeClassExclusions(classRules).nonEmpty
+    val toMark     = scala.collection.mutable.HashSet.empty[String]
+    var withCode    = 0
+    var allExcluded = true
+    node.methods.asScala.foreach { m =>
+      val excluded = whole || index.shouldExclude(classRules, m.name, m.desc, m.access)
+      if ((m.access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0) {
+        withCode += 1
+        allExcluded &&= excluded
+      }
+      if (excluded && !CoverageMarker.annotated(m.visibleAnnotations, m.invisibleAnnotations)) toMark += m.name + m.desc
+    }
+    marked = toMark.size
+    markClass = !CoverageMarker.annotated(node.visibleAnnotations, node.invisibleAnnotations) && withCode > 0 && allExcluded
+    node.accept(new CoverageMarker(api, next, markClass, toMark))
+  }
+}
+
+/** Adds `@CoverageGenerated` to a class and its methods as they stream to `next`, once the marks are decided.
+  *
+  * The class annotation goes out with the class's own annotations, ahead of any member, and a method
+  * annotation with the method's own annotations, ahead of its code, so `next` sees events in the order
+  * ASM prescribes.
+  *
+  * @param markClass whether to annotate the class
+  * @param markMethod whether to annotate the method with the given name + descriptor
+  */
+private[jacocomethodfilter] final class CoverageMarker(api: Int, next: ClassVisitor, markClass: Boolean, markMethod: String => Boolean)
+    extends ClassVisitor(api, next) {
+  import CoverageMarker._
+
+  private var classPending = markClass
+
+  // The class's annotations and attributes follow its header; any of them, a member or the end closes the header.
+  private def markClassOnce(): Unit =
+    if (classPending) {
+      classPending = false
+      annotate(super.visitAnnotation(AnnotationDesc, false))
+    }
+
+  override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
+    markClassOnce()
+    super.visitAnnotation(descriptor, visible)
+  }
+
+  override def visitTypeAnnotation(typeRef: Int, typePath: TypePath, descriptor: String, visible: Boolean): AnnotationVisitor = {
+    markClassOnce()
+    super.visitTypeAnnotation(typeRef, typePath, descriptor, visible)
+  }
+
+  override def visitAttribute(attribute: Attribute): Unit = {
+    markClassOnce()
+    super.visitAttribute(attribute)
+  }
+
+  override def visitNestMember(nestMember: String): Unit = {
+    markClassOnce()
+    super.visitNestMember(nestMember)
+  }
+
+  override def visitPermittedSubclass(permittedSubclass: String): Unit = {
+    markClassOnce()
+    super.visitPermittedSubclass(permittedSubclass)
+  }
+
+  override def visitInnerClass(name: String, outerName: String, innerName: String, access: Int): Unit = {
+    markClassOnce()
+    super.visitInnerClass(name, outerName, innerName, access)
+  }
+
+  override def visitRecordComponent(name: String, descriptor: String, signature: String): RecordComponentVisitor = {
+    markClassOnce()
+    super.visitRecordComponent(name, descriptor, signature)
+  }
+
+  override def visitField(access: Int, name: String, descriptor: String, signature: String, value: AnyRef): FieldVisitor = {
+    markClassOnce()
+    super.visitField(access, name, descriptor, signature, value)
+  }
+
+  override def visitMethod(access: Int, name: String, desc: String, signature: String, exceptions: Array[String]): MethodVisitor = {
+    markClassOnce()
+    val mv = super.visitMethod(access, name, desc, signature, exceptions)
+    if (mv == null || !markMethod(name + desc)) mv
+    else new MethodVisitor(api, mv) {
+      private var pending = true
+
+      // Parameters and the annotation default come first; any later event closes the annotation section.
+      private def markOnce(): Unit =
+        if (pending) {
+          pending = false
+          annotate(super.visitAnnotation(AnnotationDesc, false))
+        }
+
+      override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
+        markOnce()
+        super.visitAnnotation(descriptor, visible)
+      }
+
+      override def visitAnnotableParameterCount(parameterCount: Int, visible: Boolean): Unit = {
+        markOnce()
+        super.visitAnnotableParameterCount(parameterCount, visible)
+      }
+
+      override def visitParameterAnnotation(parameter: Int, descriptor: String, visible: Boolean): AnnotationVisitor = {
+        markOnce()
+        super.visitParameterAnnotation(parameter, descriptor, visible)
+      }
+
+      override def visitTypeAnnotation(typeRef: Int, typePath: TypePath, descriptor: String, visible: Boolean): AnnotationVisitor = {
+        markOnce()
+        super.visitTypeAnnotation(typeRef, typePath, descriptor, visible)
+      }
+
+      override def visitAttribute(attribute: Attribute): Unit = {
+        markOnce()
+        super.visitAttribute(attribute)
+      }
+
+      override def visitCode(): Unit = {
+        markOnce()
+        super.visitCode()
+      }
+
+      override def visitEnd(): Unit = {
+        markOnce()
+        super.visitEnd()
+      }
+    }
+  }
+
+  override def visitEnd(): Unit = {
+    markClassOnce()
+    super.visitEnd()
+  }
+}
+
+private[jacocomethodfilter] object CoverageMarker {
+  private val AnnotationDesc = CoverageGenerated.AnnotationDescriptor
+
+  // Retention CLASS: the annotation is invisible at run time.
+  private def annotate(av: AnnotationVisitor): Unit =
+    if (av != null) av.visitEnd()
+
+  /** Whether either annotation list of a tree node already holds `@CoverageGenerated`. */
+  def annotated(visible: java.util.List[AnnotationNode], invisible: java.util.List[AnnotationNode]): Boolean =
+    Seq(visible, invisible).exists(l => l != null && l.asScala.exists(_.desc == AnnotationDesc))
+}
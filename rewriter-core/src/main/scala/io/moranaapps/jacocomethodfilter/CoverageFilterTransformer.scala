@@ -0,0 +1,20 @@
+package io.moranaapps.jacocomethodfilter
+
+/** Class file transformer applying the rewriter's `@CoverageGenerated` marking to one class at a time.
+  *
+  * [[transform]] is what the rewriter does per class file: a header-only pass resolves the methods, and
+  * only a class with something to mark is read again and rewritten, marked as [[CoverageFilterClassVisitor]]
+  * marks it. To mark classes inside an existing ASM visitor chain instead, use that visitor directly.
+  *
+  * Thread-safe; one instance can transform many classes concurrently.
+  *
+  * @param index compiled rules deciding which methods are excluded
+  */
+final class CoverageFilterTransformer(val index: RuleIndex) {
+
+  def this(rules: Seq[MethodRule]) = this(RuleIndex(rules))
+
+  /** The marked class file, or `classFile` itself (the same array) when the rules mark nothing in it. */
+  def transform(classFile: Array[Byte]): Array[Byte] =
+    CoverageRewriter.rewriteClass(classFile, index, dryRun = false).bytes
+}
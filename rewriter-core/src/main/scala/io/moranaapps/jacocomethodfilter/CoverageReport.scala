@@ -0,0 +1,288 @@
+package io.moranaapps.jacocomethodfilter
+
+import io.moranaapps.jacocomethodfilter.Compat._
+import org.jacoco.core.analysis.{Analyzer, CoverageBuilder, IBundleCoverage}
+import org.jacoco.core.data.{ExecutionDataStore, SessionInfoStore}
+import org.jacoco.core.tools.ExecFileLoader
+import org.jacoco.report.csv.CSVFormatter
+import org.jacoco.report.html.HTMLFormatter
+import org.jacoco.report.xml.XMLFormatter
+import org.jacoco.report.{DirectorySourceFileLocator, FileMultiReportOutput, IReportVisitor, MultiReportVisitor, MultiSourceFileLocator}
+
+import java.io.{FileOutputStream, IOException, OutputStream}
+import java.nio.file.{Files, Path}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{Callable, ExecutionException, Executors, Future}
+import scala.collection.mutable
+
+/** Configuration for the in-process JaCoCo report (`report` subcommand).
+  *
+  * @param execFiles JaCoCo execution data files
+  * @param classFiles Class directories or archives, all analysed
+  * @param overlays Sparse overlays paired with the class directory each was written from; an overlay's
+  *                 classes replace the same relative paths in its own directory only
+  * @param sourceFiles Source directories used to render annotated sources in the HTML report
+  * @param html Optional output directory for the HTML report
+  * @param xml Optional output file for the XML report
+  * @param csv Optional output file for the CSV report
+  * @param name Report title
+  * @param encoding Source file encoding
+  * @param tabWidth Tab width used when rendering sources
+  * @param threads Number of threads used for class analysis
+  * @param globalRules Global rules file path or URL; with `localRules`, methods they exclude are dropped
+  *                    during analysis, so original (not rewritten) classes can be reported directly
+  * @param localRules Local rules file path
+  */
+final case class ReportConfig(
+  execFiles: Seq[Path] = Seq.empty,
+  classFiles: Seq[Path] = Seq.empty,
+  overlays: Seq[(Path, Path)] = Seq.empty,
+  sourceFiles: Seq[Path] = Seq.empty,
+  html: Option[Path] = None,
+  xml: Option[Path] = None,
+  csv: Option[Path] = None,
+  name: String = "JaCoCo Coverage Report",
+  encoding: String = "UTF-8",
+  tabWidth: Int = 4,
+  threads: Int = Runtime.getRuntime.availableProcessors(),
+  globalRules: Option[String] = None,
+  localRules: Option[Path] = None
+)
+
+/** JaCoCo report generation without forking the JaCoCo CLI.
+  *
+  * Class files are analysed in parallel: every worker owns an [[Analyzer]] and a [[CoverageBuilder]]
+  * (neither is thread-safe), and the per-worker builders are merged once all workers finish. The
+  * execution data store is only read during analysis and is shared. All requested formats are
+  * written in a single pass over the merged bundle.
+  *
+  * Execution data files are loaded concurrently and merged in memory, so an aggregate report over
+  * several modules is a single call with every module's exec file and class directories.
+  *
+  * With rules configured, excluded methods are dropped while the classes are analysed (see
+  * [[RuleFilteringAnalyzer]]); no rewrite step or filtered class directory is needed.
+  *
+  * Requires `org.jacoco.core` and `org.jacoco.report` on the classpath; the plugins supply them.
+  */
+object CoverageReport {
+
+  /** CLI entry point for `jacoco-method-filter report ...`. */
+  def main(args: Array[String]): Unit = {
+    val code = run(args, new java.util.function.Consumer[String] {
+      def accept(line: String): Unit = println(line)
+    })
+    if (code != 0) sys.exit(code)
+  }
+
+  /** Parse `args` and generate the report, sending progress lines to `out`.
+    *
+    * Intended for in-process callers (e.g. the Maven plugin) that must not have the JVM exit.
+    *
+    * @return 0 on success, 1 if report generation failed, 2 if the arguments are invalid
+    */
+  def run(args: Array[String], out: java.util.function.Consumer[String]): Int =
+    CoverageRewriterCli.parseReport(args) match {
+      case None => 2
+      case Some(cfg) =>
+        try {
+          generate(cfg, line => out.accept(line))
+          0
+        } catch {
+          case e: IOException =>
+            // The analyzer's message names the class only; the cause says what is wrong with it.
+            val cause = Option(e.getCause).fold("")(c => s": ${c.getMessage}")
+            out.accept(s"[error] Report generation failed: ${e.getMessage}$cause")
+            1
+          case e: IllegalStateException =>
+            out.accept(s"[error] Report generation failed: ${e.getMessage}")
+            1
+          case e: IllegalArgumentException =>
+            out.accept(s"[error] Invalid rules: ${e.getMessage}")
+            1
+        }
+    }
+
+  /** Generate the configured reports.
+    *
+    * @throws java.io.IOException if execution data or class files cannot be read, or a report cannot be written
+    * @throws IllegalStateException if two different classes with the same name are analysed
+    * @throws IllegalArgumentException if a configured rules file contains an invalid rule
+    */
+  def generate(cfg: ReportConfig, log: String => Unit): Unit = {
+    val (sessions, store) = loadExecutionData(cfg.execFiles, cfg.threads, log)
+
+    val bundle = analyze(cfg, store, log)
+
+    val visitors = mutable.ArrayBuffer.empty[IReportVisitor]
+    val streams  = mutable.ArrayBuffer.empty[OutputStream]
+    try {
+      cfg.html.foreach { dir =>
+        visitors += new HTMLFormatter().createVisitor(new FileMultiReportOutput(dir.toFile))
+      }
+      cfg.xml.foreach { file =>
+        val os = openReportFile(file)
+        streams += os
+        visitors += new XMLFormatter().createVisitor(os)
+      }
+      cfg.csv.foreach { file =>
+        val os = openReportFile(file)
+        streams += os
+        visitors += new CSVFormatter().createVisitor(os)
+      }
+
+      val locator = new MultiSourceFileLocator(cfg.tabWidth)
+      cfg.sourceFiles.foreach(dir => locator.add(new DirectorySourceFileLocator(dir.toFile, cfg.encoding, cfg.tabWidth)))
+
+      val visitor = new MultiReportVisitor(java.util.Arrays.asList(visitors.toList: _*))
+      visitor.visitInfo(sessions.getInfos, store.getContents)
+      visitor.visitBundle(bundle, locator)
+      visitor.visitEnd()
+    } finally {
+      streams.foreach(_.close())
+    }
+
+    cfg.html.foreach(d => log(s"[info] Writing html report to $d"))
+    cfg.xml.foreach(f => log(s"[info] Writing xml report to $f"))
+    cfg.csv.foreach(f => log(s"[info] Writing csv report to $f"))
+  }
+
+  /** Load execution data files concurrently and merge them in memory.
+    *
+    * Each file is read into its own loader; the results are merged in argument order, so probes of the same
+    * class from several files (e.g. one per module) are OR-ed exactly as a JaCoCo `merge` would.
+    *
+    * @throws java.io.IOException if a file cannot be read
+    * @throws IllegalStateException if two files disagree on the probe layout of a class
+    */
+  private[jacocomethodfilter] def loadExecutionData(
+    files: Seq[Path],
+    threads: Int,
+    log: String => Unit
+  ): (SessionInfoStore, ExecutionDataStore) = {
+    val sessions = new SessionInfoStore()
+    val store    = new ExecutionDataStore()
+    if (files.nonEmpty) {
+      val pool = Executors.newFixedThreadPool(math.max(1, math.min(threads, files.size)))
+      val loaders =
+        try {
+          val futures: Seq[Future[ExecFileLoader]] = files.map { f =>
+            pool.submit(new Callable[ExecFileLoader] {
+              def call(): ExecFileLoader = {
+                val loader = new ExecFileLoader()
+                loader.load(f.toFile)
+                loader
+              }
+            })
+          }
+          files.zip(futures).map { case (f, future) =>
+            log(s"[info] Loading execution data file $f")
+            try future.get()
+            catch {
+              case e: ExecutionException => throw e.getCause
+            }
+          }
+        } finally {
+          pool.shutdownNow()
+        }
+      loaders.foreach { l =>
+        l.getSessionInfoStore.accept(sessions)
+        l.getExecutionDataStore.accept(store)
+      }
+    }
+    (sessions, store)
+  }
+
+  /** Analyse all configured class inputs in parallel and merge the results into one bundle. */
+  private[jacocomethodfilter] def analyze(cfg: ReportConfig, store: ExecutionDataStore, log: String => Unit): IBundleCoverage = {
+    val work    = collectClassInputs(cfg.classFiles, cfg.overlays)
+    val threads = math.max(1, math.min(cfg.threads, work.size))
+    val index   = loadRuleIndex(cfg, log)
+    val dropped = new AtomicInteger(0)
+    log(s"[info] Analyzing ${work.size} class input(s) with $threads thread(s)")
+
+    val next = new AtomicInteger(0)
+    val pool = Executors.newFixedThreadPool(threads)
+    val builders =
+      try {
+        val futures: Seq[Future[CoverageBuilder]] = (1 to threads).map { _ =>
+          pool.submit(new Callable[CoverageBuilder] {
+            def call(): CoverageBuilder = {
+              val builder  = new CoverageBuilder()
+              val analyzer = index match {
+                case Some(ix) => new RuleFilteringAnalyzer(store, builder, ix, dropped)
+                case None     => new Analyzer(store, builder)
+              }
+              var i = next.getAndIncrement()
+              while (i < work.size) {
+                val input = work(i)
+                if (input.toString.endsWith(".class")) analyzer.analyzeClass(Files.readAllBytes(input), input.toString)
+                else analyzer.analyzeAll(input.toFile)
+                i = next.getAndIncrement()
+              }
+              builder
+            }
+          })
+        }
+        futures.map { f =>
+          try f.get()
+          catch {
+            case e: ExecutionException => throw e.getCause
+          }
+        }
+      } finally {
+        pool.shutdownNow()
+      }
+
+    if (index.isDefined) log(s"[info] Excluded ${dropped.get} method(s) matched by rules from the report")
+
+    val merged = new CoverageBuilder()
+    builders.foreach(_.getClasses.iterator().asScala.foreach(merged.visitCoverage))
+
+    val noMatch = merged.getNoMatchClasses
+    if (!noMatch.isEmpty) {
+      log(s"[warn] ${noMatch.size} class(es) do not match with execution data.")
+      noMatch.iterator().asScala.foreach(c => log(s"[warn] Execution data for class ${c.getName} does not match."))
+    }
+
+    merged.getBundle(cfg.name)
+  }
+
+  /** Rules to apply during analysis, or None when no rules are configured. */
+  private def loadRuleIndex(cfg: ReportConfig, log: String => Unit): Option[RuleIndex] =
+    if (cfg.globalRules.isEmpty && cfg.localRules.isEmpty) None
+    else {
+      val rules = Rules.loadAll(cfg.globalRules, cfg.localRules)
+      log(s"[info] Filtering methods with ${rules.size} rule(s) during analysis")
+      Some(RuleIndex(rules))
+    }
+
+  /** Expand class inputs into individual work items.
+    *
+    * Directories are flattened to their `.class` files so work spreads evenly across threads; archives and
+    * single files are kept as-is. Only an overlay shadows anything: its classes replace the same relative
+    * paths in the directory it overlays. Separate `--classfiles` entries are all analysed, so two modules
+    * with different classes of the same name fail the report, as they do in the JaCoCo CLI.
+    */
+  private def collectClassInputs(roots: Seq[Path], overlays: Seq[(Path, Path)]): IndexedSeq[Path] = {
+    val classes = mutable.ArrayBuffer.empty[Path]
+    val others  = mutable.ArrayBuffer.empty[Path]
+    roots.foreach { root =>
+      if (Files.isDirectory(root)) classes ++= ClassFiles.discover(root)
+      else if (Files.exists(root)) others += root
+    }
+    overlays.foreach { case (overlay, base) =>
+      val replaced = mutable.HashSet.empty[String]
+      Seq(overlay, base).filter(Files.isDirectory(_)).foreach { root =>
+        ClassFiles.discover(root).foreach { p =>
+          if (replaced.add(root.relativize(p).toString)) classes += p
+        }
+      }
+    }
+    (classes ++ others).toIndexedSeq
+  }
+
+  private def openReportFile(file: Path): OutputStream = {
+    Option(file.toAbsolutePath.getParent).foreach(Files.createDirectories(_))
+    new FileOutputStream(file.toFile)
+  }
+}
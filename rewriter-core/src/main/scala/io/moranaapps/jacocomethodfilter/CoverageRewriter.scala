@@ -4,19 +4,30 @@ import io.moranaapps.jacocomethodfilter.Compat._
 import org.objectweb.asm._
 
 import java.nio.file.{Files, Path, Paths}
+import scala.collection.mutable
 
 /** Configuration for the jacoco-method-filter CLI.
   *
   * @param in Input classes directory to scan
-  * @param out Output classes directory (optional in verify mode)
+  * @param out Output classes directory (optional in verify and dry-run mode; never written in dry-run mode)
   * @param globalRules Global rules file path or URL (optional if localRules provided)
   * @param localRules Local rules file path (optional if globalRules provided)
   * @param dryRun If true, print matches without modifying classes
   * @param verify If true, run read-only scan mode
   * @param reportFile Optional path to write the filtered-methods report (txt/json/csv)
-  * @param reportFormat Report format: txt (default), json, or csv
+  * @param reportFormat Report format: txt (default), json, csv, or bin
   * @param errorOnUnmatched If true, exit non-zero when any rules matched zero methods (requires verify mode)
   * @param strict If true, exit non-zero when any rules have no id: label
+  * @param overlay If true, write only classes with newly marked methods to `out` (sparse overlay over `in`)
+  * @param classesFrom Optional class list (file path, or `-` for stdin); when set, only the listed classes are processed
+  * @param verifyCache Optional cache file for per-class verify results (verify mode only)
+  * @param baseline Optional csv or bin report to compare the verify result with (verify mode only)
+  * @param shard Optional partition of the work list; only its class files are processed
+  * @param shardResult File receiving the shard's mergeable verify result (verify mode with `shard` only)
+  * @param cacheDir Optional content-addressed store of rewritten classes, shared across workspaces (rewrite mode only)
+  * @param cacheMaxMb Size bound of `cacheDir` in MiB; least recently used entries are evicted beyond it
+  * @param includes Optional JaCoCo agent `includes` patterns; other classes are not processed
+  * @param excludes Optional JaCoCo agent `excludes` patterns; matching classes are not processed
   */
 private[jacocomethodfilter] final case class CliConfig(
   in: Path = Paths.get("."),
@@ -28,78 +39,276 @@ private[jacocomethodfilter] final case class CliConfig(
   reportFile: Option[Path] = None,
   reportFormat: String = "txt",
   errorOnUnmatched: Boolean = false,
-  strict: Boolean = false
+  strict: Boolean = false,
+  overlay: Boolean = false,
+  classesFrom: Option[String] = None,
+  verifyCache: Option[Path] = None,
+  baseline: Option[Path] = None,
+  shard: Option[Shard] = None,
+  shardResult: Option[Path] = None,
+  cacheDir: Option[Path] = None,
+  cacheMaxMb: Long = 1024,
+  includes: Option[String] = None,
+  excludes: Option[String] = None
+)
+
+/** Configuration for the `merge` subcommand.
+  *
+  * @param parts Shard results written with `--verify --shard i/n --shard-result <file>`, one per shard
+  * @param globalRules Global rules file path or URL the shards were scanned with
+  * @param localRules Local rules file path the shards were scanned with
+  * @param reportFile Optional path to write the merged report to
+  * @param reportFormat Report format: txt (default), json, csv, or bin
+  * @param errorOnUnmatched If true, exit non-zero when any rules matched zero methods in all shards
+  * @param baseline Optional csv or bin report to compare the merged result with
+  */
+private[jacocomethodfilter] final case class MergeConfig(
+  parts: Seq[Path] = Seq.empty,
+  globalRules: Option[String] = None,
+  localRules: Option[Path] = None,
+  reportFile: Option[Path] = None,
+  reportFormat: String = "txt",
+  errorOnUnmatched: Boolean = false,
+  baseline: Option[Path] = None
 )
 
 object CoverageRewriter {
   private val AnnotationDesc = CoverageGenerated.AnnotationDescriptor
 
-  def main(args: Array[String]): Unit = {
-    CoverageRewriterCli.parse(args) match {
+  def main(args: Array[String]): Unit =
+    args.headOption match {
+      case Some("report")   => CoverageReport.main(args.tail)
+      case Some("query")    => ReportQuery.main(args.tail)
+      case Some("--server") => RewriterDaemon.main(args.tail)
+      case _ =>
+        val code = run(args)
+        if (code != 0) sys.exit(code)
+    }
+
+  /** Run a rewrite, verify or `merge` command line, printing to [[Console.out]].
+    *
+    * Intended for callers that must not have the JVM exit (e.g. [[RewriterDaemon]]).
+    *
+    * @return 0 on success, 1 if the run failed a check (unlabelled or unmatched rules, baseline
+    *         difference), 2 if the arguments are invalid
+    */
+  def run(args: Array[String]): Int = run(args, RuleIndex(_))
+
+  /** [[run]] with the rule index supplied by `indexFor`, so a long-running caller can reuse it. */
+  private[jacocomethodfilter] def run(args: Array[String], indexFor: Seq[MethodRule] => RuleIndex): Int =
+    if (args.headOption.contains("merge")) CoverageRewriterCli.parseMerge(args.tail).fold(2)(merge)
+    else CoverageRewriterCli.parse(args) match {
       case Some(cfg) =>
-        if (cfg.verify) verify(cfg)
+        if (cfg.verify) verify(cfg, indexFor)
+        else if (cfg.dryRun) rewrite(cfg, None, indexFor)
         else {
           cfg.out match {
-            case Some(outPath) => run(cfg, outPath)
-            case None          => sys.exit(2)
+            case Some(outPath) => rewrite(cfg, Some(outPath), indexFor)
+            case None          => 2
           }
         }
       case None =>
-        sys.exit(2)
+        2
     }
-  }
 
-  private def run(cfg: CliConfig, outPath: Path): Unit = {
+  /** Rewrite (or, with `outPath` = None, dry-run) the work list. A dry run never touches `--out`. */
+  private def rewrite(cfg: CliConfig, outPath: Option[Path], indexFor: Seq[MethodRule] => RuleIndex): Int = {
     val rules = Rules.loadAll(cfg.globalRules, cfg.localRules)
     println(s"[info] Loaded ${rules.size} rule(s) from ${rulesSummary(cfg)}")
 
-    abortIfUnlabelled(rules, cfg)
+    if (!labelledOrLenient(rules, cfg)) return 1
 
-    Files.createDirectories(outPath)
+    outPath.foreach(Files.createDirectories(_))
     var files = 0
     var marked = 0
+    var classesMarked = 0
+    val written = mutable.HashSet.empty[Path]
 
-    walkClassFiles(cfg.in) { p =>
-      files += 1
-      val outFilePath = outPath.resolve(cfg.in.relativize(p))
-      Files.createDirectories(outFilePath.getParent)
-      marked += rewriteClassFile(p, outFilePath, rules, cfg.dryRun)
+    val index  = indexFor(rules)
+    val listed = workList(cfg)
+    val work   = withinPatterns(cfg, listed)
+    // Classes JaCoCo does not record are copied unchanged, unless the output is an overlay (or not written).
+    val passThrough =
+      if (cfg.overlay || outPath.isEmpty || work.size == listed.size) Set.empty[Path]
+      else listed.toSet -- work
+    val redundant = index.redundant
+    if (redundant.nonEmpty)
+      println(s"[info] ${redundant.size} redundant rule(s) are only checked where their covering rule matches (see --verify)")
+    // In overlay mode unchanged classes are served from the original directory and not written.
+    def keep(r: RewrittenClass): Boolean = !cfg.overlay || r.marked > 0 || r.classMarked
+    val dirs = new ClassFiles.Directories
+    // A dry run writes nothing, so it has nothing to store.
+    val cache = cfg.cacheDir.filter(_ => outPath.isDefined).map(RewriteCache.open(_, rules, cfg.cacheMaxMb * 1024 * 1024))
+    def transform(bytes: Array[Byte]): RewrittenClass = cache match {
+      case None => rewriteClass(bytes, index, cfg.dryRun)
+      case Some(c) =>
+        val e = c.getOrElseUpdate(bytes) { in =>
+          val r = rewriteClass(in, index, dryRun = false)
+          RewriteCache.Entry(r.marked, r.classMarked, if (r.bytes eq in) None else Some(r.bytes))
+        }
+        RewrittenClass(e.marked, e.classMarked, e.output.getOrElse(bytes), Nil)
+    }
+
+    using(RewritePipeline()) { pipeline =>
+      println(s"[info] Rewrite pipeline: ${pipeline.describe}")
+      pipeline.run[RewrittenClass](if (passThrough.isEmpty) work else listed)(
+        read = p => Files.readAllBytes(p),
+        transform = (p, bytes) => if (passThrough(p)) RewrittenClass(0, classMarked = false, bytes, Nil) else transform(bytes),
+        write = (p, r) =>
+          outPath.filter(_ => keep(r)).foreach { out =>
+            val target = out.resolve(cfg.in.relativize(p))
+            dirs.ensure(target.getParent)
+            Files.write(target, r.bytes)
+          }
+      ) { (p, r) =>
+        if (!passThrough(p)) files += 1
+        r.matchLines.foreach(println)
+        if (outPath.isDefined && keep(r)) written += cfg.in.relativize(p)
+        marked += r.marked
+        if (r.classMarked) classesMarked += 1
+      }
     }
 
-    println(s"[info] Processed $files class file(s), marked $marked method(s). dry-run=${cfg.dryRun}")
+    println(s"[info] Processed $files class file(s), marked $marked method(s) and $classesMarked whole class(es). dry-run=${cfg.dryRun}")
+    if (passThrough.nonEmpty) println(s"[info] Copied ${passThrough.size} class file(s) outside --includes/--excludes unchanged")
+
+    if (cfg.overlay) outPath.foreach { out =>
+      val stale = removeStaleOverlayClasses(out, written)
+      println(s"[info] Overlay: wrote ${written.size} of $files class file(s), removed $stale stale class file(s) from $out")
+    }
+    if (outPath.isEmpty) println("[info] Dry run: no class files written")
+    cache.foreach { c =>
+      val evicted =
+        try c.evict()
+        catch {
+          case e: java.io.IOException =>
+            println(s"[warn] Could not trim rewrite cache: ${e.getMessage}")
+            0
+        }
+      println(s"[info] Rewrite cache: ${c.hits} hit(s), ${c.misses} class file(s) rewritten, $evicted old entr${if (evicted == 1) "y" else "ies"} evicted")
+    }
 
     cfg.reportFile.foreach { path =>
       // TODO(perf): avoid second scan by collecting MatchedMethod data during the rewrite pass above
-      // (each rewriteClassFile call already invokes RuleResolver.resolve per method)
-      val result = VerifyScanner.scan(cfg.in, rules)
-      writeReportFile(path, result.formatReport(cfg.reportFormat))
+      // (rewriteClass already resolves every method against the rule index)
+      val result = VerifyScanner.scanFiles(work, index, scopeUnmatched = cfg.classesFrom.isDefined, None)
+      writeReportFile(path, result, cfg.reportFormat)
     }
+    0
   }
 
-  private def verify(cfg: CliConfig): Unit = {
+  private def verify(cfg: CliConfig, indexFor: Seq[MethodRule] => RuleIndex): Int = {
     val rules = Rules.loadAll(cfg.globalRules, cfg.localRules)
 
-    abortIfUnlabelled(rules, cfg)
+    if (!labelledOrLenient(rules, cfg)) return 1
 
     println(s"[verify] Active rules from ${rulesSummary(cfg)}:")
     printRulesListing(rules)
 
-    val result = VerifyScanner.scan(cfg.in, rules)
+    val index = indexFor(rules)
+    printRedundantRules(index.redundant)
+
+    val cache  = cfg.verifyCache.map(VerifyCache.open(_, rules, println))
+    val work   = withinPatterns(cfg, workList(cfg))
+    val scoped = cfg.classesFrom.isDefined
+    // A shard cannot tell which rules are unmatched; it records matched rules for `merge` instead.
+    val (result, part) = cfg.shard match {
+      case Some(shard) =>
+        val part = VerifyScanner.scanShard(work, index, scoped, cache, shard)
+        (ScanResult(part.classesScanned, part.matches.size, part.matches), Some(part))
+      case None =>
+        (VerifyScanner.scanFiles(work, index, scoped, cache), None)
+    }
     result.printReport(println)
 
+    cache.foreach { c =>
+      // A targeted or sharded run only saw part of the classes; keep the other entries for the next full run.
+      try c.save(pruneUnseen = cfg.classesFrom.isEmpty && cfg.shard.isEmpty)
+      catch {
+        case e: java.io.IOException => println(s"[warn] Could not write verify cache: ${e.getMessage}")
+      }
+      println(s"[info] Verify cache: ${c.hits} hit(s), ${c.misses} class file(s) scanned")
+    }
+
     println(s"[info] Verification complete: scanned ${result.classesScanned} class file(s), found ${result.totalMatched} method(s) matched by rules.")
 
-    if (result.unmatchedRules.nonEmpty && !cfg.errorOnUnmatched) {
+    if (scoped && part.isEmpty) {
+      println("[info] Unmatched-rule check limited to rules whose class selector matches a listed class.")
+    }
+
+    (part, cfg.shardResult) match {
+      case (Some(p), Some(path)) =>
+        ShardResult.write(p, path)
+        println(s"[info] Shard ${p.shard} result written to: $path (combine all shards with the merge subcommand)")
+        0
+      case _ =>
+        conclude(result, cfg.reportFile, cfg.reportFormat, cfg.errorOnUnmatched, cfg.baseline)
+    }
+  }
+
+  /** Combine shard results into the report of the whole class tree. */
+  private def merge(cfg: MergeConfig): Int = {
+    val rules = Rules.loadAll(cfg.globalRules, cfg.localRules)
+    println(s"[info] Loaded ${rules.size} rule(s) from ${rulesSummary(cfg.globalRules, cfg.localRules)}")
+    val parts =
+      try cfg.parts.map(ShardResult.read)
+      catch {
+        case e: java.io.IOException =>
+          println(s"[error] Cannot read shard result: ${e.getMessage}")
+          return 1
+      }
+    ShardResult.merge(parts, rules) match {
+      case Left(problem) =>
+        println(s"[error] Cannot merge shard results: $problem")
+        1
+      case Right(result) =>
+        result.printReport(println)
+        println(s"[info] Merged ${parts.size} shard(s): scanned ${result.classesScanned} class file(s), found ${result.totalMatched} method(s) matched by rules.")
+        if (parts.exists(_.scopedRules.isDefined)) {
+          println("[info] Unmatched-rule check limited to rules whose class selector matches a listed class.")
+        }
+        conclude(result, cfg.reportFile, cfg.reportFormat, cfg.errorOnUnmatched, cfg.baseline)
+    }
+  }
+
+  /** Unmatched-rule handling, report file and baseline comparison for the verify result of a whole run. */
+  private def conclude(
+    result: ScanResult,
+    reportFile: Option[Path],
+    reportFormat: String,
+    errorOnUnmatched: Boolean,
+    baseline: Option[Path]
+  ): Int = {
+    if (result.unmatchedRules.nonEmpty && !errorOnUnmatched) {
       println(s"[warn] ${result.unmatchedRules.size} rule(s) matched zero methods. Use --error-on-unmatched to enforce this as a build error.")
     }
 
-    cfg.reportFile.foreach { path =>
-      writeReportFile(path, result.formatReport(cfg.reportFormat))
+    reportFile.foreach { path =>
+      writeReportFile(path, result, reportFormat)
     }
 
-    if (cfg.errorOnUnmatched && result.unmatchedRules.nonEmpty) {
+    if (errorOnUnmatched && result.unmatchedRules.nonEmpty) {
       println(s"[error] Aborting: ${result.unmatchedRules.size} unmatched rule(s) found (--error-on-unmatched is set).")
-      sys.exit(1)
+      return 1
+    }
+
+    baseline match {
+      case None => 0
+      case Some(path) =>
+        try {
+          val diff = BaselineDiff.compare(result, path, println)
+          if (diff.isEmpty) {
+            println(s"[info] Verify result matches baseline $path")
+            0
+          } else {
+            println(s"[error] Verify result differs from baseline $path: ${diff.added} method(s) added, ${diff.removed} removed, ${diff.newlyUnmatched} newly unmatched rule(s).")
+            1
+          }
+        } catch {
+          case e: java.io.IOException =>
+            println(s"[error] Cannot read baseline $path: ${e.getMessage}")
+            1
+        }
     }
   }
 
@@ -107,89 +316,174 @@ object CoverageRewriter {
   // Private helpers
   // ---------------------------------------------------------------------------
 
-  private def abortIfUnlabelled(rules: Seq[MethodRule], cfg: CliConfig): Unit = {
-    if (cfg.strict) {
-      val unlabelledCount = rules.count(_.id.isEmpty)
-      if (unlabelledCount > 0) {
-        println(s"[error] Aborting: $unlabelledCount rule(s) have no id: label (--strict is set).")
-        sys.exit(1)
-      }
-    }
+  /** False (after printing why) when `--strict` is set and some rule has no `id:` label. */
+  private def labelledOrLenient(rules: Seq[MethodRule], cfg: CliConfig): Boolean = {
+    val unlabelledCount = if (cfg.strict) rules.count(_.id.isEmpty) else 0
+    if (unlabelledCount > 0) println(s"[error] Aborting: $unlabelledCount rule(s) have no id: label (--strict is set).")
+    unlabelledCount == 0
   }
 
-  private def writeReportFile(path: Path, content: String): Unit = {
-    Option(path.getParent).foreach(Files.createDirectories(_))
-    Files.write(path, content.getBytes(java.nio.charset.StandardCharsets.UTF_8))
+  private def writeReportFile(path: Path, result: ScanResult, format: String): Unit = {
+    if (format == "bin") BinaryReport.write(result, path)
+    else {
+      Option(path.getParent).foreach(Files.createDirectories(_))
+      Files.write(path, result.formatReport(format).getBytes(java.nio.charset.StandardCharsets.UTF_8))
+    }
     println(s"[info] Report written to: $path")
   }
 
   /** Human-readable description of the configured rule sources. */
-  private def rulesSummary(cfg: CliConfig): String =
-    (cfg.globalRules, cfg.localRules) match {
+  private def rulesSummary(cfg: CliConfig): String = rulesSummary(cfg.globalRules, cfg.localRules)
+
+  private def rulesSummary(globalRules: Option[String], localRules: Option[Path]): String =
+    (globalRules, localRules) match {
       case (Some(g), Some(l)) => s"global: $g, local: $l"
       case (Some(g), None)    => s"global: $g"
       case (None, Some(l))    => s"local: $l"
       case _                  => "none"
     }
 
-  /** Walk `root` for `.class` files and invoke `f` on each. */
-  private def walkClassFiles(root: Path)(f: Path => Unit): Unit =
-    using(Files.walk(root)) { stream =>
-      val it = stream.iterator().asScala
-      for {
-        p <- it
-        if Files.isRegularFile(p) && p.toString.endsWith(".class")
-      } f(p)
+  /** Class files to process: the `--classes-from` list when given, otherwise everything under `--in`;
+    * with `--shard`, only those in the shard.
+    */
+  private def workList(cfg: CliConfig): Seq[Path] = {
+    val listed = cfg.classesFrom match {
+      case Some(source) =>
+        val files = ClassFiles.fromList(source, cfg.in, println)
+        println(s"[info] Processing ${files.size} class file(s) listed in ${if (source == "-") "stdin" else source}")
+        files
+      case None =>
+        ClassFiles.discover(cfg.in)
+    }
+    cfg.shard match {
+      case Some(shard) =>
+        val own = listed.filter(shard.contains(cfg.in, _))
+        println(s"[info] Shard $shard: ${own.size} of ${listed.size} class file(s)")
+        own
+      case None => listed
+    }
+  }
+
+  /** The class files of `files` that the JaCoCo agent patterns (`--includes`/`--excludes`) select. */
+  private def withinPatterns(cfg: CliConfig, files: Seq[Path]): Seq[Path] = {
+    val patterns = ClassPatterns(cfg.includes, cfg.excludes)
+    if (patterns.acceptsAll) files
+    else {
+      val selected = files.filter(patterns.accepts(cfg.in, _))
+      println(s"[info] Skipping ${files.size - selected.size} of ${files.size} class file(s) outside --includes/--excludes")
+      selected
+    }
+  }
+
+  /** Delete `.class` files under an overlay directory that were not written by the current run.
+    *
+    * A leftover overlay class would shadow the freshly compiled original on the classpath,
+    * so anything the current rules no longer mark has to go.
+    *
+    * @return the number of files removed
+    */
+  private def removeStaleOverlayClasses(outRoot: Path, written: scala.collection.Set[Path]): Int = {
+    var removed = 0
+    ClassFiles.discover(outRoot).foreach { p =>
+      if (!written.contains(outRoot.relativize(p))) {
+        Files.delete(p)
+        removed += 1
+      }
     }
+    removed
+  }
 
-  /** Rewrite a single class file: inject `@CoverageGenerated` on matched methods.
+  /** Result of rewriting one class.
     *
-    * @return the number of methods marked in this file
+    * @param marked number of methods marked in this class
+    * @param classMarked whether the class itself was marked (every method with code is excluded)
+    * @param bytes class file to write: the input unchanged when nothing was marked (and always in dry-run mode)
+    * @param matchLines dry-run `[match]` lines, printed when the class is collected
     */
-  private def rewriteClassFile(inPath: Path, outPath: Path, rules: Seq[MethodRule], dryRun: Boolean): Int = {
-    val inBytes = Files.readAllBytes(inPath)
+  private[jacocomethodfilter] final case class RewrittenClass(marked: Int, classMarked: Boolean, bytes: Array[Byte], matchLines: Seq[String])
+
+  /** Rewrite a single class: inject `@CoverageGenerated` on matched methods, and on the class when every
+    * method with code is excluded, so JaCoCo drops the class as a whole.
+    *
+    * A first pass reads only the class header, method headers and annotations (no code, debug info or
+    * frames) and resolves every method. Whole-class rules (`cls#<class>`) decide all methods there
+    * without per-method matching. Only classes with something to mark are read a second time and
+    * rewritten by [[CoverageMarker]], which [[CoverageFilterClassVisitor]] uses as well; in dry-run mode
+    * the first pass is all there is, like [[VerifyScanner]].
+    *
+    * Pure function of its input, so classes can be rewritten concurrently.
+    */
+  private[jacocomethodfilter] def rewriteClass(inBytes: Array[Byte], index: RuleIndex, dryRun: Boolean): RewrittenClass = {
     val cr = new ClassReader(inBytes)
-    val cw = new ClassWriter(0)
-    var marked = 0
+    val fqcnDots   = cr.getClassName.replace('/', '.')
+    val classRules = index.forClass(fqcnDots)
+    val whole      = index.wholeClassExclusions(classRules)
 
-    var fqcnDots = ""
-    val cv = new ClassVisitor(Opcodes.ASM9, cw) {
-      override def visit(version: Int, access: Int, name: String, signature: String, superName: String, interfaces: Array[String]): Unit = {
-        fqcnDots = name.replace('/', '.')
-        super.visit(version, access, name, signature, superName, interfaces)
+    // Methods to annotate, as name + descriptor.
+    val toMark = mutable.HashSet.empty[String]
+    val matchLines = mutable.ListBuffer.empty[String]
+    var classAnnotated = false
+    var allExcluded    = true
+    var withCode       = 0
+
+    cr.accept(new ClassVisitor(Opcodes.ASM9) {
+      override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
+        if (descriptor == AnnotationDesc) classAnnotated = true
+        null
       }
 
       override def visitMethod(access: Int, name: String, desc: String, signature: String, exceptions: Array[String]): MethodVisitor = {
-        val base = super.visitMethod(access, name, desc, signature, exceptions)
-        new MethodVisitor(Opcodes.ASM9, base) {
+        val excluded = whole.nonEmpty || index.shouldExclude(classRules, name, desc, access)
+        if ((access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) == 0) {
+          withCode += 1
+          allExcluded &&= excluded
+        }
+        if (!excluded) null
+        else new MethodVisitor(Opcodes.ASM9) {
           private var alreadyAnnotated = false
 
           override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
             if (descriptor == AnnotationDesc) alreadyAnnotated = true
-            super.visitAnnotation(descriptor, visible)
+            null
           }
 
-          override def visitEnd(): Unit = {
-            val resolution = RuleResolver.resolve(rules, fqcnDots, name, desc, access)
-            if (resolution.shouldExclude && !alreadyAnnotated) {
-              if (dryRun) {
-                println(s"[match] $fqcnDots#$name$desc")
-              } else {
-                val av = super.visitAnnotation(AnnotationDesc, false) // Retention CLASS
-                if (av != null) av.visitEnd()
-              }
-              marked += 1
+          override def visitEnd(): Unit =
+            if (!alreadyAnnotated) {
+              toMark += name + desc
+              if (dryRun) matchLines += s"[match] $fqcnDots#$name$desc"
             }
-            super.visitEnd()
-          }
         }
       }
+    }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES)
+
+    val markClass = !classAnnotated && withCode > 0 && allExcluded
+    if (dryRun && markClass) matchLines += s"[match] $fqcnDots (class)"
+
+    if (dryRun || (toMark.isEmpty && !markClass)) RewrittenClass(toMark.size, markClass, inBytes, matchLines.toList)
+    else {
+      val cw = new ClassWriter(0)
+      cr.accept(new CoverageMarker(Opcodes.ASM9, cw, markClass, toMark.contains), 0)
+      RewrittenClass(toMark.size, markClass, cw.toByteArray, Nil)
+    }
+  }
+
+  /** Print duplicate and subsumed rules so they can be removed from the rule files. */
+  private def printRedundantRules(redundant: Seq[RedundantRule]): Unit =
+    if (redundant.nonEmpty) {
+      println(s"[verify] Redundant rules (${redundant.size}); they never change an outcome and can be removed:")
+      redundant.foreach { r =>
+        val relation = if (r.duplicate) "duplicate of" else "covered by"
+        println(s"[verify]   ${describeRule(r.rule)} $relation ${describeRule(r.coveredBy)}")
+      }
     }
 
-    cr.accept(cv, 0)
-    val outBytes = if (dryRun) inBytes else cw.toByteArray
-    Files.write(outPath, outBytes)
-    marked
+  private def describeRule(rule: MethodRule): String = {
+    val idStr = rule.id.map(id => s" id:$id").getOrElse("")
+    val sourceStr = rule.source match {
+      case GlobalSource(origin) => s" [global: $origin]"
+      case LocalSource(path)    => s" [local: $path]"
+    }
+    s"${if (rule.patternText.nonEmpty) rule.patternText else rule.rawText}$idStr$sourceStr"
   }
 
   /** Print a numbered listing of rules for verify output. */
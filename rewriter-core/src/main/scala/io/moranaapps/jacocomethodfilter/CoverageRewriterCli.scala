@@ -2,11 +2,31 @@ package io.moranaapps.jacocomethodfilter
 
 import scopt.OptionParser
 
-import java.nio.file.{Files, Paths}
+import java.io.File
+import java.nio.file.{Files, Path, Paths}
 
 /** CLI argument parser for CoverageRewriter. */
 private[jacocomethodfilter] object CoverageRewriterCli {
 
+  // Not inheritable: threads a request starts must not carry its directory into later requests.
+  private val workingDir = new ThreadLocal[Path]
+
+  /** Run `body` with relative path arguments resolved against `dir` instead of the JVM's working directory,
+    * as the rewriter daemon does for each client.
+    */
+  def withWorkingDir[A](dir: Path)(body: => A): A = {
+    val previous = workingDir.get
+    workingDir.set(dir)
+    try body
+    finally workingDir.set(previous)
+  }
+
+  /** `v` as a path, resolved against the working directory set by [[withWorkingDir]] if any. */
+  def path(v: String): Path = Option(workingDir.get).fold(Paths.get(v))(_.resolve(v))
+
+  /** A rules source: URLs as they are, file paths resolved like [[path]]. */
+  private def rulesSource(v: String): String = if (Rules.isUrl(v)) v else path(v).toString
+
   /** Parses command-line arguments into a validated CliConfig.
     *
     * @param args Command-line arguments.
@@ -15,36 +35,299 @@ private[jacocomethodfilter] object CoverageRewriterCli {
   def parse(args: Array[String]): Option[CliConfig] =
     parser.parse(args, CliConfig())
 
+  /** Parses `report` subcommand arguments (everything after the `report` token).
+    *
+    * Mirrors the JaCoCo CLI `report` command so the plugins can switch between the two.
+    *
+    * @return Some(config) if parsing succeeds, None if parsing fails or --help is used.
+    */
+  def parseReport(args: Array[String]): Option[ReportConfig] =
+    reportParser.parse(args, ReportConfig())
+
+  /** Parses `query` subcommand arguments (everything after the `query` token).
+    *
+    * @return Some(config) if parsing succeeds, None if parsing fails or --help is used.
+    */
+  def parseQuery(args: Array[String]): Option[QueryConfig] =
+    queryParser.parse(args, QueryConfig())
+
+  /** Parses `merge` subcommand arguments (everything after the `merge` token).
+    *
+    * @return Some(config) if parsing succeeds, None if parsing fails or --help is used.
+    */
+  def parseMerge(args: Array[String]): Option[MergeConfig] =
+    mergeParser.parse(args, MergeConfig())
+
+  /** Parses `--server` arguments (everything after the `--server` token).
+    *
+    * @return Some(config) if parsing succeeds, None if parsing fails or --help is used.
+    */
+  def parseServer(args: Array[String]): Option[ServerConfig] =
+    serverParser.parse(args, ServerConfig())
+
+  private lazy val mergeParser: OptionParser[MergeConfig] =
+    new OptionParser[MergeConfig]("jacoco-method-filter merge") {
+      arg[String]("<shard-results>")
+        .unbounded()
+        .required()
+        .action((v, c) => c.copy(parts = c.parts :+ path(v)))
+        .validate(v => if (Files.isRegularFile(path(v))) success else failure(s"shard result does not exist: $v"))
+        .text("Shard results written with --verify --shard i/n --shard-result <file>, one per shard")
+
+      opt[String]("global-rules")
+        .action((v, c) => c.copy(globalRules = Some(rulesSource(v))))
+        .text("Global rules file path or URL the shards were scanned with")
+
+      opt[String]("local-rules")
+        .action((v, c) => c.copy(localRules = Some(path(v))))
+        .text("Local rules file path the shards were scanned with")
+
+      opt[String]("report-file")
+        .action((v, c) => c.copy(reportFile = Some(path(v))))
+        .text("Write the merged filtered-methods report to this file")
+
+      opt[String]("report-format")
+        .action((v, c) => c.copy(reportFormat = v.toLowerCase))
+        .validate(v =>
+          if (Set("txt", "json", "csv", "bin").contains(v.toLowerCase)) success
+          else failure("--report-format must be one of: txt, json, csv, bin")
+        )
+        .text("Report format: txt (default), json, csv, or bin")
+
+      opt[Unit]("error-on-unmatched")
+        .action((_, c) => c.copy(errorOnUnmatched = true))
+        .text("Exit non-zero if any rules matched zero methods in all shards together")
+
+      opt[String]("baseline")
+        .action((v, c) => c.copy(baseline = Some(path(v))))
+        .text("Compare with this csv or bin verify report and exit non-zero on any difference")
+
+      checkConfig { cfg =>
+        if (cfg.globalRules.isEmpty && cfg.localRules.isEmpty) {
+          failure("At least one of --global-rules or --local-rules must be specified")
+        } else if (cfg.reportFile.exists(Files.isDirectory(_))) {
+          failure("--report-file must be a file path, not an existing directory")
+        } else if (cfg.reportFile.isEmpty && cfg.reportFormat != "txt") {
+          failure("--report-format requires --report-file to be set")
+        } else if (cfg.baseline.exists(p => !Files.isRegularFile(p))) {
+          failure("--baseline must be an existing report file")
+        } else {
+          success
+        }
+      }
+    }
+
+  private lazy val serverParser: OptionParser[ServerConfig] =
+    new OptionParser[ServerConfig]("jacoco-method-filter --server") {
+      opt[String]("port-file")
+        .required()
+        .action((v, c) => c.copy(portFile = path(v)))
+        .text("File to write the listening port and access token to; removed on shutdown")
+
+      opt[Int]("idle-timeout")
+        .action((v, c) => c.copy(idleTimeoutSeconds = v))
+        .validate(v => if (v > 0) success else failure("--idle-timeout must be positive"))
+        .text("Shut down after this many seconds without requests (default: 900)")
+    }
+
+  private lazy val queryParser: OptionParser[QueryConfig] =
+    new OptionParser[QueryConfig]("jacoco-method-filter query") {
+      arg[String]("<report>")
+        .required()
+        .action((v, c) => c.copy(report = path(v)))
+        .validate(v => if (Files.isRegularFile(path(v))) success else failure(s"report file does not exist: $v"))
+        .text("Binary verify report written with --report-format bin")
+
+      opt[String]("rule")
+        .action((v, c) => c.copy(rule = Some(v)))
+        .text("Only methods matched by the rule with this id")
+
+      opt[String]("package")
+        .action((v, c) => c.copy(pkg = Some(v.replace('/', '.'))))
+        .text("Only methods of classes in this package or its subpackages")
+
+      opt[String]("class")
+        .action((v, c) => c.copy(cls = Some(v.replace('/', '.'))))
+        .text("Only methods of this class (FQCN)")
+
+      opt[String]("outcome")
+        .action((v, c) => c.copy(outcome = Some(if (v.equalsIgnoreCase("excluded")) Excluded else Rescued)))
+        .validate(v =>
+          if (Set("excluded", "rescued").contains(v.toLowerCase)) success
+          else failure("--outcome must be one of: excluded, rescued")
+        )
+        .text("Only excluded or only rescued methods")
+
+      opt[Unit]("unmatched")
+        .action((_, c) => c.copy(unmatched = true))
+        .text("List rules that matched no method")
+
+      opt[Unit]("count")
+        .action((_, c) => c.copy(countOnly = true))
+        .text("Print only the number of results")
+
+      checkConfig { cfg =>
+        if (cfg.unmatched && (cfg.rule.isDefined || cfg.pkg.isDefined || cfg.cls.isDefined || cfg.outcome.isDefined))
+          failure("--unmatched cannot be combined with method filters")
+        else success
+      }
+    }
+
+  private lazy val reportParser: OptionParser[ReportConfig] =
+    new OptionParser[ReportConfig]("jacoco-method-filter report") {
+      arg[String]("<execfiles>")
+        .unbounded()
+        .optional()
+        .action((v, c) => c.copy(execFiles = c.execFiles :+ path(v)))
+        .text("JaCoCo execution data files")
+
+      opt[String]("classfiles")
+        .unbounded()
+        .action((v, c) => c.copy(classFiles = c.classFiles :+ path(v)))
+        .text("Class directory or archive")
+
+      opt[String]("overlay")
+        .unbounded()
+        .valueName(s"<overlay>${File.pathSeparator}<classes>")
+        .validate(v => if (overlayPair(v).isDefined) success else failure(s"--overlay must be <overlay>${File.pathSeparator}<classes>"))
+        .action((v, c) => c.copy(overlays = c.overlays ++ overlayPair(v)))
+        .text("Sparse overlay and the class directory it was written from; its classes replace theirs in that directory only")
+
+      opt[String]("sourcefiles")
+        .unbounded()
+        .action((v, c) => c.copy(sourceFiles = c.sourceFiles :+ path(v)))
+        .text("Source directory")
+
+      opt[String]("html")
+        .action((v, c) => c.copy(html = Some(path(v))))
+        .text("Output directory for the HTML report")
+
+      opt[String]("xml")
+        .action((v, c) => c.copy(xml = Some(path(v))))
+        .text("Output file for the XML report")
+
+      opt[String]("csv")
+        .action((v, c) => c.copy(csv = Some(path(v))))
+        .text("Output file for the CSV report")
+
+      opt[String]("name")
+        .action((v, c) => c.copy(name = v))
+        .text("Report title")
+
+      opt[String]("encoding")
+        .action((v, c) => c.copy(encoding = v))
+        .text("Source file encoding (default: UTF-8)")
+
+      opt[Int]("tabwith")
+        .action((v, c) => c.copy(tabWidth = v))
+        .text("Tab stop width for the source pages (default: 4)")
+
+      opt[Int]("threads")
+        .action((v, c) => c.copy(threads = v))
+        .validate(v => if (v > 0) success else failure("--threads must be positive"))
+        .text("Threads used for class analysis (default: available processors)")
+
+      opt[String]("global-rules")
+        .action((v, c) => c.copy(globalRules = Some(rulesSource(v))))
+        .text("Global rules file path or URL; excluded methods are dropped during analysis (no rewrite needed)")
+
+      opt[String]("local-rules")
+        .action((v, c) => c.copy(localRules = Some(path(v))))
+        .text("Local rules file path; excluded methods are dropped during analysis (no rewrite needed)")
+
+      checkConfig { cfg =>
+        if (cfg.classFiles.isEmpty && cfg.overlays.isEmpty) failure("--classfiles or --overlay is required")
+        else success
+      }
+    }
+
+  private def overlayPair(v: String): Option[(Path, Path)] =
+    v.split(java.util.regex.Pattern.quote(File.pathSeparator), -1) match {
+      case Array(overlay, classes) if overlay.nonEmpty && classes.nonEmpty => Some((path(overlay), path(classes)))
+      case _                                                                => None
+    }
+
   private lazy val parser: OptionParser[CliConfig] =
     new OptionParser[CliConfig]("jacoco-method-filter") {
       opt[String]("in")
         .required()
-        .action((v, c) => c.copy(in = Paths.get(v)))
+        .action((v, c) => c.copy(in = path(v)))
         .text("Input classes directory")
 
       opt[String]("out")
         .optional()
-        .action((v, c) => c.copy(out = Some(Paths.get(v))))
-        .text("Output classes directory (required unless --verify is used)")
+        .action((v, c) => c.copy(out = Some(path(v))))
+        .text("Output classes directory (required unless --verify or --dry-run is used; never written by --dry-run)")
 
       opt[String]("global-rules")
         .optional()
-        .action((v, c) => c.copy(globalRules = Some(v)))
+        .action((v, c) => c.copy(globalRules = Some(rulesSource(v))))
         .text("Global rules file path or URL")
 
       opt[String]("local-rules")
         .optional()
-        .action((v, c) => c.copy(localRules = Some(Paths.get(v))))
+        .action((v, c) => c.copy(localRules = Some(path(v))))
         .text("Local rules file path")
 
       opt[Unit]("dry-run")
         .action((_, c) => c.copy(dryRun = true))
-        .text("Only print matches; do not modify classes")
+        .text("Only print matches; reads class headers only and writes nothing")
+
+      opt[Unit]("overlay")
+        .action((_, c) => c.copy(overlay = true))
+        .text("Write only classes with newly marked methods to --out (sparse overlay placed ahead of --in)")
+
+      opt[String]("classes-from")
+        .optional()
+        .action((v, c) => c.copy(classesFrom = Some(if (v == "-") v else path(v).toString)))
+        .text("Process only the class files or class names listed in this file (one per line; - reads stdin)")
+
+      opt[String]("includes")
+        .optional()
+        .action((v, c) => c.copy(includes = Some(v)))
+        .text("JaCoCo agent includes (colon-separated class name patterns with * and ?); other classes are skipped")
+
+      opt[String]("excludes")
+        .optional()
+        .action((v, c) => c.copy(excludes = Some(v)))
+        .text("JaCoCo agent excludes (colon-separated class name patterns with * and ?); matching classes are skipped")
+
+      opt[String]("cache-dir")
+        .optional()
+        .action((v, c) => c.copy(cacheDir = Some(path(v))))
+        .text("Content-addressed store of rewritten classes, shared across workspaces (rewrite mode only)")
+
+      opt[Long]("cache-max-mb")
+        .optional()
+        .action((v, c) => c.copy(cacheMaxMb = v))
+        .validate(v => if (v > 0) success else failure("--cache-max-mb must be positive"))
+        .text("Size bound of --cache-dir in MiB; least recently used entries are evicted beyond it (default: 1024)")
+
+      opt[String]("shard")
+        .optional()
+        .action((v, c) => c.copy(shard = Shard.parse(v).fold(_ => None, Some(_))))
+        .validate(v => Shard.parse(v).fold(failure, _ => success))
+        .text("Process only shard i of n (1-based) of the class files, partitioned by path hash")
+
+      opt[String]("shard-result")
+        .optional()
+        .action((v, c) => c.copy(shardResult = Some(path(v))))
+        .text("Write the shard's mergeable verify result to this file (requires --verify and --shard)")
 
       opt[Unit]("verify")
         .action((_, c) => c.copy(verify = true))
         .text("Read-only scan: list all methods that would be excluded by rules")
 
+      opt[String]("verify-cache")
+        .optional()
+        .action((v, c) => c.copy(verifyCache = Some(path(v))))
+        .text("Reuse per-class verify results from this cache file for unchanged classes (requires --verify)")
+
+      opt[String]("baseline")
+        .optional()
+        .action((v, c) => c.copy(baseline = Some(path(v))))
+        .text("Compare with this csv or bin verify report and exit non-zero on any difference (requires --verify)")
+
       opt[Unit]("error-on-unmatched")
         .action((_, c) => c.copy(errorOnUnmatched = true))
         .text("Exit non-zero if any rules matched zero methods (requires --verify)")
@@ -55,23 +338,23 @@ private[jacocomethodfilter] object CoverageRewriterCli {
 
       opt[String]("report-file")
         .optional()
-        .action((v, c) => c.copy(reportFile = Some(Paths.get(v))))
+        .action((v, c) => c.copy(reportFile = Some(path(v))))
         .text("Write filtered-methods report to this file (works with --verify, --dry-run, and rewrite)")
 
       opt[String]("report-format")
         .optional()
         .action((v, c) => c.copy(reportFormat = v.toLowerCase))
         .validate(v =>
-          if (Set("txt", "json", "csv").contains(v.toLowerCase)) success
-          else failure("--report-format must be one of: txt, json, csv")
+          if (Set("txt", "json", "csv", "bin").contains(v.toLowerCase)) success
+          else failure("--report-format must be one of: txt, json, csv, bin")
         )
-        .text("Report format: txt (default), json, or csv")
+        .text("Report format: txt (default), json, csv, or bin (indexed binary, read with the query subcommand)")
 
       checkConfig { cfg =>
         if (!Files.isDirectory(cfg.in)) {
           failure("--in must exist and be a directory")
-        } else if (!cfg.verify && cfg.out.isEmpty) {
-          failure("--out is required when not in verify mode")
+        } else if (!cfg.verify && !cfg.dryRun && cfg.out.isEmpty) {
+          failure("--out is required unless --verify or --dry-run is set")
         } else if (cfg.globalRules.isEmpty && cfg.localRules.isEmpty) {
           failure("At least one of --global-rules or --local-rules must be specified")
         } else if (cfg.reportFile.exists(Files.isDirectory(_))) {
@@ -80,6 +363,36 @@ private[jacocomethodfilter] object CoverageRewriterCli {
           failure("--report-format requires --report-file to be set")
         } else if (cfg.errorOnUnmatched && !cfg.verify) {
           failure("--error-on-unmatched requires --verify")
+        } else if (cfg.overlay && cfg.verify) {
+          failure("--overlay cannot be combined with --verify")
+        } else if (cfg.verifyCache.isDefined && !cfg.verify) {
+          failure("--verify-cache requires --verify")
+        } else if (cfg.verifyCache.exists(Files.isDirectory(_))) {
+          failure("--verify-cache must be a file path, not an existing directory")
+        } else if (cfg.baseline.isDefined && !cfg.verify) {
+          failure("--baseline requires --verify")
+        } else if (cfg.baseline.exists(p => !Files.isRegularFile(p))) {
+          failure("--baseline must be an existing report file")
+        } else if (cfg.baseline.isDefined && cfg.classesFrom.isDefined) {
+          failure("--baseline cannot be combined with --classes-from (the baseline covers every class)")
+        } else if (cfg.overlay && cfg.classesFrom.isDefined) {
+          failure("--overlay cannot be combined with --classes-from (the overlay must cover every class)")
+        } else if (cfg.cacheDir.isDefined && cfg.verify) {
+          failure("--cache-dir applies to rewrite mode; use --verify-cache with --verify")
+        } else if (cfg.cacheDir.exists(p => Files.exists(p) && !Files.isDirectory(p))) {
+          failure("--cache-dir must be a directory")
+        } else if (cfg.overlay && cfg.shard.isDefined) {
+          failure("--overlay cannot be combined with --shard (the overlay must cover every class)")
+        } else if (cfg.shardResult.isDefined && !(cfg.verify && cfg.shard.isDefined)) {
+          failure("--shard-result requires --verify and --shard")
+        } else if (cfg.verify && cfg.shard.isDefined && cfg.shardResult.isEmpty) {
+          failure("--verify with --shard requires --shard-result")
+        } else if (cfg.shardResult.exists(Files.isDirectory(_))) {
+          failure("--shard-result must be a file path, not an existing directory")
+        } else if (cfg.shard.isDefined && (cfg.reportFile.isDefined || cfg.baseline.isDefined || cfg.errorOnUnmatched)) {
+          failure("--report-file, --baseline and --error-on-unmatched need every shard; pass them to merge instead of --shard")
+        } else if (cfg.classesFrom.exists(s => s != "-" && !Files.isRegularFile(Paths.get(s)))) {
+          failure("--classes-from must be an existing file or -")
         } else {
           success
         }
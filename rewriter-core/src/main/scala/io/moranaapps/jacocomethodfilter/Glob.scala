@@ -1,18 +1,140 @@
 package io.moranaapps.jacocomethodfilter
 
+import java.util.concurrent.ConcurrentHashMap
 import java.util.regex.Pattern
+import scala.collection.mutable
 
 object Glob {
-  /** Minimal glob -> regex conversion: supports '*' and '?' only. Escapes regex metachars. */
+  private val RegexMeta = "\\.^$+{}[]()|"
+
+  // Compiled patterns by glob; rule files repeat the same globs (`*`, `(*)*`, `copy`) many times.
+  private val compiled    = new ConcurrentHashMap[String, Pattern]()
+  private val MaxCompiled = 4096
+
+  /** Minimal glob -> regex conversion: supports '*' and '?' only. Escapes regex metachars.
+    *
+    * Identical globs share one compiled [[Pattern]] (patterns are immutable and thread-safe), so rules
+    * with the same selector text share a matcher.
+    */
   def toRegex(glob: String): Pattern = {
+    val cached = compiled.get(glob)
+    if (cached != null) cached
+    else {
+      val p = compile(glob)
+      if (compiled.size < MaxCompiled) {
+        val prev = compiled.putIfAbsent(glob, p)
+        if (prev != null) prev else p
+      } else p
+    }
+  }
+
+  private def compile(glob: String): Pattern = {
     val sb = new StringBuilder("^")
     glob.foreach {
       case '*' => sb.append(".*")
       case '?' => sb.append(".")
-      case c if "\\.^$+{}[]()|".contains(c) => sb.append("\\").append(c)
+      case c if RegexMeta.contains(c) => sb.append("\\").append(c)
       case c => sb.append(c)
     }
     sb.append("$")
     Pattern.compile(sb.toString)
   }
+
+  /** Literal runs of a pattern produced by [[toRegex]], i.e. the text between its wildcards.
+    *
+    * Every input the pattern matches contains each run. Returns `None` for a pattern that was not
+    * produced by [[toRegex]].
+    */
+  def literals(p: Pattern): Option[Seq[String]] = {
+    val re = p.pattern
+    if (p.flags != 0 || re.length < 2 || re.charAt(0) != '^' || re.charAt(re.length - 1) != '$') return None
+    val runs = mutable.ListBuffer.empty[String]
+    val cur  = new StringBuilder
+    def flush(): Unit = if (cur.nonEmpty) { runs += cur.toString; cur.clear() }
+    var i   = 1
+    val end = re.length - 1
+    while (i < end) {
+      re.charAt(i) match {
+        case '\\' if i + 1 < end && RegexMeta.contains(re.charAt(i + 1)) =>
+          cur.append(re.charAt(i + 1)); i += 2
+        case '.' if i + 1 < end && re.charAt(i + 1) == '*' =>
+          flush(); i += 2
+        case '.' =>
+          flush(); i += 1
+        case c if RegexMeta.contains(c) || c == '*' || c == '?' =>
+          return None
+        case c =>
+          cur.append(c); i += 1
+      }
+    }
+    flush()
+    Some(runs.toList)
+  }
+
+  /** The glob a pattern produced by [[toRegex]] was compiled from; `None` for any other pattern. */
+  def source(p: Pattern): Option[String] = {
+    val re = p.pattern
+    if (p.flags != 0 || re.length < 2 || re.charAt(0) != '^' || re.charAt(re.length - 1) != '$') return None
+    val sb  = new StringBuilder
+    var i   = 1
+    val end = re.length - 1
+    while (i < end) {
+      re.charAt(i) match {
+        case '\\' if i + 1 < end && RegexMeta.contains(re.charAt(i + 1)) =>
+          sb.append(re.charAt(i + 1)); i += 2
+        case '.' if i + 1 < end && re.charAt(i + 1) == '*' =>
+          sb.append('*'); i += 2
+        case '.' =>
+          sb.append('?'); i += 1
+        case c if RegexMeta.contains(c) || c == '*' || c == '?' =>
+          return None
+        case c =>
+          sb.append(c); i += 1
+      }
+    }
+    Some(sb.toString)
+  }
+
+  /** True if every string matched by glob `inner` is also matched by glob `outer`.
+    *
+    * Decided on the glob text: an `outer` `*` may absorb any run of `inner` characters and wildcards, an
+    * `outer` `?` any single character or `?`, and literals must line up. A containment is never claimed
+    * where it does not hold; the usual shapes (prefix and suffix wildcards, `*` segments) are all found.
+    */
+  def covers(outer: String, inner: String): Boolean = {
+    if (outer == inner || outer == "*") return true
+    val n = outer.length
+    val m = inner.length
+    // Literal ends of `outer` must be literal ends of `inner`; this rejects most pairs without the table.
+    var k = 0
+    while (k < n && !isWildcard(outer.charAt(k))) {
+      if (k >= m || inner.charAt(k) != outer.charAt(k)) return false
+      k += 1
+    }
+    k = 1
+    while (k <= n && !isWildcard(outer.charAt(n - k))) {
+      if (k > m || inner.charAt(m - k) != outer.charAt(n - k)) return false
+      k += 1
+    }
+    // can(i)(j): outer from i covers inner from j; filled from the end.
+    val can = Array.ofDim[Boolean](n + 1, m + 1)
+    can(n)(m) = true
+    var i = n - 1
+    while (i >= 0) {
+      val a = outer.charAt(i)
+      var j = m
+      while (j >= 0) {
+        can(i)(j) =
+          if (a == '*') can(i + 1)(j) || (j < m && can(i)(j + 1))
+          else if (j == m) false
+          else if (a == '?') inner.charAt(j) != '*' && can(i + 1)(j + 1)
+          else inner.charAt(j) == a && can(i + 1)(j + 1)
+        j -= 1
+      }
+      i -= 1
+    }
+    can(0)(0)
+  }
+
+  private def isWildcard(c: Char): Boolean = c == '*' || c == '?'
 }
@@ -0,0 +1,72 @@
+package io.moranaapps.jacocomethodfilter
+
+import java.io.{BufferedOutputStream, DataInputStream, DataOutputStream, IOException}
+import java.nio.file.{Files, Path, StandardCopyOption}
+
+/** Binary layout shared by the files that store verify matches: the verify cache and shard results.
+  *
+  * Both embed the same [[MatchedMethod]] record, so it is written and read here only, together with the
+  * length-prefixed lists the two formats use around it.
+  */
+private[jacocomethodfilter] object MatchedMethodCodec {
+
+  def write(out: DataOutputStream, m: MatchedMethod): Unit = {
+    out.writeUTF(m.fqcn)
+    out.writeUTF(m.methodName)
+    out.writeUTF(m.descriptor)
+    out.writeBoolean(m.outcome == Excluded)
+    writeStrings(out, m.exclusionIds)
+    writeStrings(out, m.inclusionIds)
+    out.writeInt(m.access)
+  }
+
+  def read(in: DataInputStream): MatchedMethod =
+    MatchedMethod(
+      fqcn         = in.readUTF(),
+      methodName   = in.readUTF(),
+      descriptor   = in.readUTF(),
+      outcome      = if (in.readBoolean()) Excluded else Rescued,
+      exclusionIds = readStrings(in),
+      inclusionIds = readStrings(in),
+      access       = in.readInt()
+    )
+
+  def writeAll(out: DataOutputStream, ms: Seq[MatchedMethod]): Unit = {
+    out.writeInt(ms.size)
+    ms.foreach(write(out, _))
+  }
+
+  def readAll(in: DataInputStream): Vector[MatchedMethod] = Vector.fill(in.readInt())(read(in))
+
+  def writeInts(out: DataOutputStream, xs: Seq[Int]): Unit = {
+    out.writeInt(xs.size)
+    xs.foreach(out.writeInt)
+  }
+
+  def readInts(in: DataInputStream): Vector[Int] = Vector.fill(in.readInt())(in.readInt())
+
+  def writeStrings(out: DataOutputStream, xs: Seq[String]): Unit = {
+    out.writeInt(xs.size)
+    xs.foreach(out.writeUTF)
+  }
+
+  def readStrings(in: DataInputStream): Vector[String] = Vector.fill(in.readInt())(in.readUTF())
+
+  /** Write `file` through a temporary sibling that replaces it in one move, so a killed process leaves
+    * the previous file or none, never a truncated one.
+    */
+  def writeAtomically(file: Path)(body: DataOutputStream => Unit): Unit = {
+    val dir = file.toAbsolutePath.getParent
+    Files.createDirectories(dir)
+    val tmp = Files.createTempFile(dir, file.getFileName.toString, ".tmp")
+    try {
+      val out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))
+      try body(out)
+      finally out.close()
+      try Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+      catch {
+        case _: IOException => Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING)
+      }
+    } finally Files.deleteIfExists(tmp)
+  }
+}
@@ -0,0 +1,173 @@
+package io.moranaapps.jacocomethodfilter
+
+import java.util.Comparator
+import scala.collection.mutable
+
+/** Matched methods in a compact, class-grouped layout.
+  *
+  * Class names, method names, descriptors and rule ids are interned once into a shared string pool;
+  * each method is a row of ints (pool indexes and access flags) held in primitive arrays, and its rule
+  * ids are slices of one flat int array. No [[MatchedMethod]] is kept: rows are decoded on access.
+  *
+  * Rows are sorted by outcome (excluded before rescued), class, method name and descriptor, so each
+  * outcome is a contiguous partition and each class within it a contiguous group. Reports, which list
+  * methods in exactly that order, iterate without filtering, grouping or sorting.
+  */
+final class MethodTable private (
+  strings: Array[String],
+  cls: Array[Int],
+  name: Array[Int],
+  desc: Array[Int],
+  access: Array[Int],
+  exclStart: Array[Int],
+  exclIds: Array[Int],
+  inclStart: Array[Int],
+  inclIds: Array[Int],
+  excludedCount: Int,
+  groupStart: Array[Int]
+) extends IndexedSeq[MatchedMethod] {
+
+  def length: Int = cls.length
+
+  def apply(i: Int): MatchedMethod =
+    MatchedMethod(
+      fqcn         = strings(cls(i)),
+      methodName   = strings(name(i)),
+      descriptor   = strings(desc(i)),
+      outcome      = if (i < excludedCount) Excluded else Rescued,
+      exclusionIds = ids(exclStart, exclIds, i),
+      inclusionIds = ids(inclStart, inclIds, i),
+      access       = access(i)
+    )
+
+  private def ids(start: Array[Int], flat: Array[Int], i: Int): Seq[String] =
+    (start(i) until start(i + 1)).map(k => strings(flat(k)))
+
+  /** Excluded methods, sorted by class, method name and descriptor. */
+  def excluded: IndexedSeq[MatchedMethod] = rows(0, excludedCount)
+
+  /** Rescued methods, sorted by class, method name and descriptor. */
+  def rescued: IndexedSeq[MatchedMethod] = rows(excludedCount, length)
+
+  /** Methods with `outcome` as (class, methods of that class) groups, in class order. */
+  def byClass(outcome: MethodOutcome): Iterator[(String, IndexedSeq[MatchedMethod])] = {
+    val (from, until) = if (outcome == Excluded) (0, excludedCount) else (excludedCount, length)
+    (0 until groupStart.length - 1).iterator
+      .filter(g => groupStart(g) >= from && groupStart(g) < until)
+      .map(g => (strings(cls(groupStart(g))), rows(groupStart(g), groupStart(g + 1))))
+  }
+
+  private def rows(from: Int, until: Int): IndexedSeq[MatchedMethod] = new IndexedSeq[MatchedMethod] {
+    def length: Int                 = until - from
+    def apply(k: Int): MatchedMethod = MethodTable.this.apply(from + k)
+  }
+}
+
+object MethodTable {
+  val empty: MethodTable = newBuilder.result()
+
+  /** `matches` as a table; a table is returned as is. */
+  def apply(matches: Seq[MatchedMethod]): MethodTable = matches match {
+    case t: MethodTable => t
+    case _              => (newBuilder ++= matches).result()
+  }
+
+  def newBuilder: Builder = new Builder
+
+  /** Accumulates methods into the pooled layout; only ints grow per method. Not thread-safe. */
+  final class Builder {
+    private val poolIds = new java.util.HashMap[String, Integer]
+    private val pool    = mutable.ArrayBuffer.empty[String]
+
+    private val cls      = new mutable.ArrayBuilder.ofInt
+    private val name     = new mutable.ArrayBuilder.ofInt
+    private val desc     = new mutable.ArrayBuilder.ofInt
+    private val access   = new mutable.ArrayBuilder.ofInt
+    private val excluded = new mutable.ArrayBuilder.ofBoolean
+    private val exclIds  = new mutable.ArrayBuilder.ofInt
+    private val inclIds  = new mutable.ArrayBuilder.ofInt
+    private val exclEnd  = new mutable.ArrayBuilder.ofInt
+    private val inclEnd  = new mutable.ArrayBuilder.ofInt
+    private var exclSize = 0
+    private var inclSize = 0
+
+    private def intern(s: String): Int = {
+      val known = poolIds.get(s)
+      if (known != null) known.intValue
+      else {
+        val id = pool.size
+        pool += s
+        poolIds.put(s, Integer.valueOf(id))
+        id
+      }
+    }
+
+    def +=(m: MatchedMethod): this.type = {
+      cls += intern(m.fqcn)
+      name += intern(m.methodName)
+      desc += intern(m.descriptor)
+      access += m.access
+      excluded += (m.outcome == Excluded)
+      m.exclusionIds.foreach(id => exclIds += intern(id))
+      m.inclusionIds.foreach(id => inclIds += intern(id))
+      exclSize += m.exclusionIds.size
+      inclSize += m.inclusionIds.size
+      exclEnd += exclSize
+      inclEnd += inclSize
+      this
+    }
+
+    def ++=(ms: Seq[MatchedMethod]): this.type = {
+      ms.foreach(m => this += m)
+      this
+    }
+
+    def result(): MethodTable = {
+      val strings = pool.toArray
+      val c = cls.result(); val n = name.result(); val d = desc.result(); val a = access.result()
+      val ex = excluded.result()
+      val ei = exclIds.result(); val ii = inclIds.result()
+      val ee = exclEnd.result(); val ie = inclEnd.result()
+
+      // Compare pool entries by rank so the sort does no string comparisons.
+      val rank = new Array[Int](strings.length)
+      strings.indices.sortBy(strings(_)).zipWithIndex.foreach { case (s, r) => rank(s) = r }
+
+      val order: Array[Integer] = Array.tabulate(c.length)(i => Integer.valueOf(i))
+      java.util.Arrays.sort(order, new Comparator[Integer] {
+        def compare(x: Integer, y: Integer): Int = {
+          val i = x.intValue; val j = y.intValue
+          if (ex(i) != ex(j)) (if (ex(i)) -1 else 1)
+          else if (c(i) != c(j)) Integer.compare(rank(c(i)), rank(c(j)))
+          else if (n(i) != n(j)) Integer.compare(rank(n(i)), rank(n(j)))
+          else Integer.compare(rank(d(i)), rank(d(j)))
+        }
+      })
+
+      def permute(xs: Array[Int]): Array[Int] = order.map(i => xs(i.intValue))
+      def start(end: Array[Int], i: Int): Int = if (i == 0) 0 else end(i - 1)
+      def regroup(end: Array[Int], flat: Array[Int]): (Array[Int], Array[Int]) = {
+        val starts = new Array[Int](order.length + 1)
+        val out    = new mutable.ArrayBuilder.ofInt
+        order.zipWithIndex.foreach { case (i, row) =>
+          var k = start(end, i.intValue)
+          while (k < end(i.intValue)) { out += flat(k); k += 1 }
+          starts(row + 1) = starts(row) + end(i.intValue) - start(end, i.intValue)
+        }
+        (starts, out.result())
+      }
+
+      val sortedCls     = permute(c)
+      val excludedCount = ex.count(identity)
+      val (es, eFlat)   = regroup(ee, ei)
+      val (is, iFlat)   = regroup(ie, ii)
+      val groups        = new mutable.ArrayBuilder.ofInt
+      sortedCls.indices.foreach { row =>
+        if (row == 0 || row == excludedCount || sortedCls(row) != sortedCls(row - 1)) groups += row
+      }
+      groups += sortedCls.length
+
+      new MethodTable(strings, sortedCls, permute(n), permute(d), permute(a), es, eFlat, is, iFlat, excludedCount, groups.result())
+    }
+  }
+}
@@ -0,0 +1,85 @@
+package io.moranaapps.jacocomethodfilter
+
+import java.io.IOException
+import java.nio.file.Path
+
+/** Configuration for the `query` subcommand.
+  *
+  * @param report Binary verify report written with `--report-format bin`
+  * @param rule Only methods matched by the rule with this id
+  * @param pkg Only methods of classes in this package or its subpackages
+  * @param cls Only methods of this class
+  * @param outcome Only excluded or only rescued methods
+  * @param unmatched List unmatched rules instead of methods
+  * @param countOnly Print only the number of matching methods
+  */
+final case class QueryConfig(
+  report: Path = null,
+  rule: Option[String] = None,
+  pkg: Option[String] = None,
+  cls: Option[String] = None,
+  outcome: Option[MethodOutcome] = None,
+  unmatched: Boolean = false,
+  countOnly: Boolean = false
+)
+
+/** Answers questions about a binary verify report without loading all of it (`query` subcommand). */
+object ReportQuery {
+
+  /** CLI entry point for `jacoco-method-filter query ...`. */
+  def main(args: Array[String]): Unit = {
+    val code = run(args, new java.util.function.Consumer[String] {
+      def accept(line: String): Unit = println(line)
+    })
+    if (code != 0) sys.exit(code)
+  }
+
+  /** Parse `args` and run the query, sending result lines to `out`.
+    *
+    * @return 0 on success, 1 if the report cannot be read, 2 if the arguments are invalid
+    */
+  def run(args: Array[String], out: java.util.function.Consumer[String]): Int =
+    CoverageRewriterCli.parseQuery(args) match {
+      case None => 2
+      case Some(cfg) =>
+        try {
+          query(cfg, line => out.accept(line))
+          0
+        } catch {
+          case e: IOException =>
+            out.accept(s"[error] Cannot read report ${cfg.report}: ${e.getMessage}")
+            1
+        }
+    }
+
+  /** Run the query described by `cfg`.
+    *
+    * @throws java.io.IOException if the report cannot be read
+    */
+  def query(cfg: QueryConfig, log: String => Unit): Unit = {
+    val report = BinaryReport.open(cfg.report)
+    if (cfg.unmatched) {
+      val rules = report.unmatchedRules
+      if (!cfg.countOnly) rules.foreach { r =>
+        val id     = r.id.map(i => s"  id:$i").getOrElse("  (no id)")
+        val source = if (r.source.nonEmpty) s"  [${r.source}]" else ""
+        log(s"UNMATCHED ${r.pattern}$id$source")
+      }
+      log(s"[info] ${rules.size} unmatched rule(s)")
+    } else {
+      val methods = report.query(cfg.rule, cfg.pkg, cfg.cls, cfg.outcome)
+      if (!cfg.countOnly) methods.foreach { m =>
+        m.outcome match {
+          case Excluded =>
+            val ids = if (m.exclusionIds.nonEmpty) s"  rule-id:${m.exclusionIds.mkString(",")}" else ""
+            log(s"EXCLUDED ${m.fqcn}#${m.methodName}${m.descriptor}$ids")
+          case Rescued =>
+            val excl = if (m.exclusionIds.nonEmpty) m.exclusionIds.mkString(",") else "(no-id)"
+            val incl = if (m.inclusionIds.nonEmpty) m.inclusionIds.mkString(",") else "(no-id)"
+            log(s"RESCUED ${m.fqcn}#${m.methodName}${m.descriptor}  excl:$excl → incl:$incl")
+        }
+      }
+      log(s"[info] ${methods.size} method(s) matched of ${report.size} in report (${report.classesScanned} class file(s) scanned)")
+    }
+  }
+}
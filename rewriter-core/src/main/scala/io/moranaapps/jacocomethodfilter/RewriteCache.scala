@@ -0,0 +1,196 @@
+package io.moranaapps.jacocomethodfilter
+
+import io.moranaapps.jacocomethodfilter.Compat._
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream, IOException}
+import java.nio.channels.{FileChannel, OverlappingFileLockException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.attribute.{BasicFileAttributes, FileTime}
+import java.nio.file.{FileVisitResult, Files, NoSuchFileException, Path, SimpleFileVisitor, StandardCopyOption, StandardOpenOption}
+import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicInteger
+import scala.collection.mutable
+
+/** Content-addressed store of rewritten classes, shared by every workspace that points at it (`--cache-dir`).
+  *
+  * An entry is keyed by a SHA-256 of the input class bytes, the rules fingerprint (see
+  * [[VerifyCache.fingerprint]]) and the rewriter version, so the same library class rewritten with the
+  * same rules in another checkout is served from the store instead of being parsed again. Classes the
+  * rules leave unchanged are stored without their bytes.
+  *
+  * Entries are written to a temporary file and moved into place, so concurrent runs, including runs in
+  * other processes, never see a partial entry; two runs storing the same key write identical content.
+  * A hit refreshes the entry's modification time, and [[evict]] removes the least recently used entries
+  * once the store exceeds its size bound. Any I/O problem with the store turns into a miss; the rewrite
+  * itself never fails because of the cache.
+  *
+  * Thread-safe.
+  */
+final class RewriteCache private (root: Path, maxBytes: Long, salt: Array[Byte]) {
+  import RewriteCache._
+
+  private val hitCount  = new AtomicInteger
+  private val missCount = new AtomicInteger
+
+  def hits: Int   = hitCount.get
+  def misses: Int = missCount.get
+
+  /** Stored rewrite of `input`, or `rewrite` of it (stored for later runs). */
+  def getOrElseUpdate(input: Array[Byte])(rewrite: Array[Byte] => Entry): Entry = {
+    val file = entryFile(key(input))
+    read(file) match {
+      case Some(e) =>
+        hitCount.incrementAndGet()
+        e
+      case None =>
+        missCount.incrementAndGet()
+        val e = rewrite(input)
+        write(file, e)
+        e
+    }
+  }
+
+  /** Remove least recently used entries until the store is below its size bound.
+    *
+    * Runs in one process at a time; a run that finds another one evicting skips eviction.
+    *
+    * @return the number of entries removed
+    */
+  def evict(): Int = {
+    Files.createDirectories(root)
+    using(FileChannel.open(root.resolve(".lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) { channel =>
+      val lock =
+        try channel.tryLock()
+        catch { case _: OverlappingFileLockException => null }
+      if (lock == null) 0
+      else
+        try evictLocked()
+        finally lock.release()
+    }
+  }
+
+  private def evictLocked(): Int = {
+    val entries = mutable.ArrayBuffer.empty[(Path, Long, Long)]
+    val staleTemp = System.currentTimeMillis() - StaleTempMillis
+    Files.walkFileTree(root, new SimpleFileVisitor[Path] {
+      override def visitFile(p: Path, attrs: BasicFileAttributes): FileVisitResult = {
+        val name = p.getFileName.toString
+        // Leftovers of runs that died while storing an entry.
+        if (name.endsWith(".tmp") && attrs.lastModifiedTime.toMillis < staleTemp) Files.deleteIfExists(p)
+        else if (name.endsWith(EntrySuffix)) entries += ((p, attrs.size, attrs.lastModifiedTime.toMillis))
+        FileVisitResult.CONTINUE
+      }
+
+      override def visitFileFailed(p: Path, e: IOException): FileVisitResult = FileVisitResult.CONTINUE
+    })
+    var total = entries.map(_._2).sum
+    if (total <= maxBytes) 0
+    else {
+      // Shrink below the bound with some headroom, so the next runs do not evict again right away.
+      val target  = maxBytes / 10 * 9
+      var removed = 0
+      entries.sortBy(_._3).iterator.takeWhile(_ => total > target).foreach { case (p, size, _) =>
+        if (Files.deleteIfExists(p)) removed += 1
+        total -= size
+      }
+      removed
+    }
+  }
+
+  private def key(input: Array[Byte]): String = {
+    val md = MessageDigest.getInstance("SHA-256")
+    md.update(salt)
+    md.update(input)
+    hex(md.digest())
+  }
+
+  private def entryFile(key: String): Path = root.resolve(key.substring(0, 2)).resolve(key + EntrySuffix)
+
+  private def read(file: Path): Option[Entry] =
+    try {
+      val in          = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file)))
+      val valid       = in.readInt() == Magic
+      val marked      = in.readInt()
+      val classMarked = in.readBoolean()
+      val output      = if (in.readBoolean()) Some(new Array[Byte](math.max(0, in.readInt()))) else None
+      output.foreach(in.readFully)
+      if (!valid || in.available() != 0) throw new IOException(s"Corrupt rewrite cache entry $file")
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()))
+      Some(Entry(marked, classMarked, output))
+    } catch {
+      // No entry is the common miss; an entry evicted while being read is one too.
+      case _: NoSuchFileException => None
+      case _: IOException =>
+        try Files.deleteIfExists(file)
+        catch { case _: IOException => }
+        None
+    }
+
+  private def write(file: Path, entry: Entry): Unit =
+    try {
+      val buf = new ByteArrayOutputStream(entry.output.fold(16)(_.length + 16))
+      val out = new DataOutputStream(buf)
+      out.writeInt(Magic)
+      out.writeInt(entry.marked)
+      out.writeBoolean(entry.classMarked)
+      out.writeBoolean(entry.output.isDefined)
+      entry.output.foreach { bytes =>
+        out.writeInt(bytes.length)
+        out.write(bytes)
+      }
+      out.flush()
+      Files.createDirectories(file.getParent)
+      val tmp = Files.createTempFile(file.getParent, file.getFileName.toString, ".tmp")
+      try {
+        Files.write(tmp, buf.toByteArray)
+        try Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+        catch {
+          // Another run stored the same entry first (some file systems refuse to replace atomically).
+          case _: IOException if Files.exists(file) =>
+        }
+      } finally Files.deleteIfExists(tmp)
+    } catch {
+      case _: IOException =>
+    }
+}
+
+object RewriteCache {
+  private val Magic           = 0x4a4d4643 // "JMFC"; "JMFR" is BinaryReport's
+  private val FormatVersion   = 1
+  private val EntrySuffix     = ".jmfc"
+  private val StaleTempMillis = 60L * 60 * 1000
+
+  /** Outcome of rewriting one class.
+    *
+    * @param marked number of methods marked in the class
+    * @param classMarked whether the class itself was marked
+    * @param output rewritten class bytes; `None` when the rules leave the class unchanged
+    */
+  final case class Entry(marked: Int, classMarked: Boolean, output: Option[Array[Byte]])
+
+  /** The store at `dir` for rewrites with `rules`, bounded to `maxBytes` by [[RewriteCache#evict]]. */
+  def open(dir: Path, rules: Seq[MethodRule], maxBytes: Long): RewriteCache = {
+    val salt = s"$FormatVersion\n$toolVersion\n${VerifyCache.fingerprint(rules)}\n".getBytes(StandardCharsets.UTF_8)
+    new RewriteCache(dir.resolve(s"v$FormatVersion"), maxBytes, salt)
+  }
+
+  /** Rewriter version from the jar manifest; a hash of the rewriter class when running from class directories. */
+  private lazy val toolVersion: String =
+    Option(classOf[RewriteCache].getPackage).flatMap(p => Option(p.getImplementationVersion)).getOrElse {
+      val name = CoverageRewriter.getClass.getName.replace('.', '/') + ".class"
+      Option(CoverageRewriter.getClass.getClassLoader.getResourceAsStream(name)).fold("unknown") { in =>
+        try {
+          val md  = MessageDigest.getInstance("SHA-256")
+          val buf = new Array[Byte](8192)
+          Iterator.continually(in.read(buf)).takeWhile(_ >= 0).foreach(md.update(buf, 0, _))
+          "dev-" + hex(md.digest())
+        } finally in.close()
+      }
+    }
+
+  private def hex(bytes: Array[Byte]): String = {
+    val sb = new StringBuilder(bytes.length * 2)
+    bytes.foreach(b => sb.append(f"${b & 0xff}%02x"))
+    sb.toString
+  }
+}
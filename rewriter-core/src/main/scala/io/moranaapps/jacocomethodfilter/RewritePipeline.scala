@@ -0,0 +1,98 @@
+package io.moranaapps.jacocomethodfilter
+
+import java.lang.reflect.Method
+import java.nio.file.Path
+import java.util.concurrent.{CompletableFuture, CompletionException, ExecutorService, Executors, ThreadFactory}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.{Supplier, Function => JFunction}
+
+/** Runs read → transform → write over class files as three overlapping stages.
+  *
+  * Reads and writes run on an I/O executor: virtual threads on JDK 21+, a small pool of platform threads
+  * elsewhere. Transforms run on a pool sized to the CPU count. At most `maxInFlight` files are between
+  * reading and collection at any time; when the window is full the caller waits for the oldest file, so
+  * memory stays bounded and a slow disk throttles reading rather than piling up buffers.
+  *
+  * Results are collected on the calling thread in input order, so log output and counters are the same
+  * as in a sequential run. The stage functions must be thread-safe.
+  */
+private[jacocomethodfilter] final class RewritePipeline(cpuThreads: Int, ioThreads: Int, maxInFlight: Int) extends AutoCloseable {
+  import RewritePipeline._
+
+  private val (io, virtualIo) = ioExecutor(ioThreads, classOf[Executors].getMethod("newVirtualThreadPerTaskExecutor"))
+  private val cpu             = Executors.newFixedThreadPool(cpuThreads, daemonThreads("jmf-rewrite-cpu"))
+
+  /** Short description of the stage sizes, for logging. */
+  def describe: String =
+    s"$cpuThreads transform thread(s), ${if (virtualIo) "virtual-thread" else s"$ioThreads-thread"} I/O, $maxInFlight file(s) in flight"
+
+  /** Process `files`, calling `collect` for each result in input order.
+    *
+    * An exception thrown by any stage is rethrown here when its file is collected.
+    */
+  def run[T](files: Seq[Path])(
+    read: Path => Array[Byte],
+    transform: (Path, Array[Byte]) => T,
+    write: (Path, T) => Unit
+  )(collect: (Path, T) => Unit): Unit = {
+    val window = new java.util.ArrayDeque[(Path, CompletableFuture[T])](maxInFlight)
+
+    def collectOldest(): Unit = {
+      val (p, f) = window.removeFirst()
+      val result =
+        try f.join()
+        catch {
+          case e: CompletionException if e.getCause != null => throw e.getCause
+        }
+      collect(p, result)
+    }
+
+    files.foreach { p =>
+      if (window.size >= maxInFlight) collectOldest()
+      val f = CompletableFuture
+        .supplyAsync(new Supplier[Array[Byte]] { def get(): Array[Byte] = read(p) }, io)
+        .thenApplyAsync[T](new JFunction[Array[Byte], T] { def apply(bytes: Array[Byte]): T = transform(p, bytes) }, cpu)
+        .thenApplyAsync[T](new JFunction[T, T] { def apply(t: T): T = { write(p, t); t } }, io)
+      window.addLast((p, f))
+    }
+    while (!window.isEmpty) collectOldest()
+  }
+
+  def close(): Unit = {
+    cpu.shutdownNow()
+    io.shutdownNow()
+  }
+}
+
+private[jacocomethodfilter] object RewritePipeline {
+
+  /** A pipeline sized for this machine. */
+  def apply(): RewritePipeline = {
+    val cores = Runtime.getRuntime.availableProcessors()
+    new RewritePipeline(cpuThreads = cores, ioThreads = math.max(4, cores), maxInFlight = cores * 8)
+  }
+
+  /** Virtual-thread-per-task executor when the JDK has one (21+), else a fixed pool; also reports which.
+    *
+    * On JDK 19 and 20 the method exists as a preview API and, without `--enable-preview`, throws
+    * `UnsupportedOperationException` (wrapped in an `InvocationTargetException`); that falls back too.
+    *
+    * @param factory the JDK's `Executors.newVirtualThreadPerTaskExecutor`, looked up inside the fallback
+    */
+  private[jacocomethodfilter] def ioExecutor(fallbackThreads: Int, factory: => Method): (ExecutorService, Boolean) =
+    try {
+      (factory.invoke(null).asInstanceOf[ExecutorService], true)
+    } catch {
+      case _: ReflectiveOperationException | _: UnsupportedOperationException =>
+        (Executors.newFixedThreadPool(fallbackThreads, daemonThreads("jmf-rewrite-io")), false)
+    }
+
+  private def daemonThreads(prefix: String): ThreadFactory = new ThreadFactory {
+    private val n = new AtomicInteger(0)
+    def newThread(r: Runnable): Thread = {
+      val t = new Thread(r, s"$prefix-${n.incrementAndGet()}")
+      t.setDaemon(true)
+      t
+    }
+  }
+}
@@ -0,0 +1,358 @@
+package io.moranaapps.jacocomethodfilter
+
+import io.moranaapps.jacocomethodfilter.Compat._
+
+import java.io._
+import java.net.{InetAddress, InetSocketAddress, ServerSocket, Socket, SocketTimeoutException}
+import java.nio.channels.{FileChannel, OverlappingFileLockException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, Paths, StandardCopyOption, StandardOpenOption}
+import java.nio.file.attribute.PosixFilePermissions
+import java.security.{MessageDigest, SecureRandom}
+import java.util.concurrent.{ExecutorService, Executors, ThreadFactory}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import scala.util.control.NonFatal
+
+/** Configuration for `--server` mode.
+  *
+  * @param portFile file the server writes its port and access token to; removed on shutdown
+  * @param idleTimeoutSeconds shut down after this many seconds without a running or new request
+  */
+private[jacocomethodfilter] final case class ServerConfig(
+  portFile: Path = Paths.get("."),
+  idleTimeoutSeconds: Int = 900
+)
+
+/** A long-running rewriter that serves rewrite, verify, `merge`, `report` and `query` command lines
+  * over a loopback socket.
+  *
+  * The daemon keeps the JIT-compiled code and the rule indexes of recent rule sets resident, so a
+  * request costs only the work itself. Rules are still loaded per request, which picks up edited rule
+  * files; the index is reused while the rules are unchanged. Requests run concurrently, one thread each,
+  * with their console output sent back to the client. The daemon exits after an idle timeout.
+  *
+  * Only clients that know the token in the port file can use the daemon. The port file is readable by
+  * its owner only where the file system supports it. Relative paths in a request resolve against the
+  * working directory the client sends, as they would in a forked run; the daemon is shared by every
+  * checkout and build, so its own working directory means nothing to a request. `--classes-from -` is
+  * not supported.
+  *
+  * Protocol (`DataOutputStream` encoding): the client sends the protocol tag, the token, its working
+  * directory, the argument count and the arguments. The server answers with `'O'` + line frames and ends with `'E'` + exit code.
+  */
+object RewriterDaemon {
+
+  private val Protocol          = "jmf-daemon/2"
+  private val CachedRuleSets    = 8
+  private val ConnectTimeoutMs  = 1000
+  private val StartupTimeoutMs  = 30000
+
+  /** How long an accepted connection may take to send its handshake and arguments. */
+  private[jacocomethodfilter] val HandshakeTimeoutMs = 5000
+
+  /** CLI entry point for `jacoco-method-filter --server ...`. */
+  def main(args: Array[String]): Unit =
+    CoverageRewriterCli.parseServer(args) match {
+      case Some(cfg) => serve(cfg)
+      case None      => sys.exit(2)
+    }
+
+  // ---------------------------------------------------------------------------
+  // Server
+  // ---------------------------------------------------------------------------
+
+  /** Serve requests until no request has been received or running for `idleTimeoutSeconds`. */
+  def serve(cfg: ServerConfig): Unit = {
+    val token  = newToken()
+    val server = new ServerSocket()
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress, 0))
+    server.setSoTimeout(1000)
+
+    val active       = new AtomicInteger(0)
+    val lastActivity = new AtomicLong(System.nanoTime())
+    val indexes      = new RuleIndexCache(CachedRuleSets)
+    val workers      = Executors.newCachedThreadPool(daemonThreads("jmf-daemon-request"))
+    val idleNanos    = cfg.idleTimeoutSeconds * 1000000000L
+
+    writePortFile(cfg.portFile, server.getLocalPort, token)
+    println(s"[info] Rewriter daemon listening on ${server.getLocalSocketAddress}; idle timeout ${cfg.idleTimeoutSeconds} s")
+    try {
+      var idle = false
+      while (!idle) {
+        try {
+          val socket = server.accept()
+          active.incrementAndGet()
+          lastActivity.set(System.nanoTime())
+          workers.execute(new Runnable {
+            def run(): Unit =
+              try handle(socket, token, indexes)
+              finally {
+                lastActivity.set(System.nanoTime())
+                active.decrementAndGet()
+              }
+          })
+        } catch {
+          case _: SocketTimeoutException =>
+            idle = active.get == 0 && System.nanoTime() - lastActivity.get > idleNanos
+        }
+      }
+      println("[info] Rewriter daemon idle; shutting down")
+    } finally {
+      server.close()
+      shutdown(workers)
+      // Leave a newer daemon's port file alone.
+      if (readPortFile(cfg.portFile).exists(_._1 == server.getLocalPort)) Files.deleteIfExists(cfg.portFile)
+    }
+  }
+
+  private def handle(socket: Socket, token: String, indexes: RuleIndexCache): Unit =
+    using(socket) { s =>
+      // A client that connects but never sends its handshake must not hold a worker, or the daemon, forever.
+      s.setSoTimeout(HandshakeTimeoutMs)
+      val in  = new DataInputStream(new BufferedInputStream(s.getInputStream))
+      val out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream))
+      val request =
+        try {
+          if (in.readUTF() == Protocol && in.readUTF() == token) {
+            val workingDir = Paths.get(in.readUTF())
+            Some((workingDir, Array.fill(in.readInt())(in.readUTF())))
+          } else None
+        } catch {
+          case _: SocketTimeoutException => None
+        }
+      request.foreach { case (workingDir, args) =>
+        val lines = new FrameStream(out)
+        val code  = execute(workingDir, args, new PrintStream(lines, true, "UTF-8"), indexes)
+        lines.flushLine()
+        out.writeByte('E')
+        out.writeInt(code)
+        out.flush()
+      }
+    }
+
+  /** Run one command line for a client in `workingDir`, with its console output sent to `console`. */
+  private def execute(workingDir: Path, args: Array[String], console: PrintStream, indexes: RuleIndexCache): Int = {
+    val sink = new java.util.function.Consumer[String] {
+      def accept(line: String): Unit = console.println(line)
+    }
+    scala.Console.withOut(console) {
+      scala.Console.withErr(console) {
+        try CoverageRewriterCli.withWorkingDir(workingDir) {
+          if (args.sliding(2).exists(_.toSeq == Seq("--classes-from", "-"))) {
+            println("[error] --classes-from - (stdin) is not supported by the rewriter daemon")
+            2
+          } else
+            args.headOption match {
+              case Some("report") => CoverageReport.run(args.tail, sink)
+              case Some("query")  => ReportQuery.run(args.tail, sink)
+              case _              => CoverageRewriter.run(args, indexes.apply)
+            }
+        } catch {
+          case NonFatal(e) =>
+            println(s"[error] ${e.getClass.getName}: ${e.getMessage}")
+            1
+        }
+      }
+    }
+  }
+
+  /** Rule indexes of the most recently used rule sets, keyed by rule text and source. */
+  private final class RuleIndexCache(capacity: Int) {
+    private val entries = new java.util.LinkedHashMap[Seq[(String, RuleSource)], RuleIndex](16, 0.75f, true) {
+      override def removeEldestEntry(e: java.util.Map.Entry[Seq[(String, RuleSource)], RuleIndex]): Boolean =
+        size > capacity
+    }
+
+    def apply(rules: Seq[MethodRule]): RuleIndex = {
+      val key    = rules.map(r => (r.rawText, r.source))
+      val cached = entries.synchronized(entries.get(key))
+      if (cached != null) cached
+      else {
+        val index = RuleIndex(rules)
+        entries.synchronized(entries.put(key, index))
+        index
+      }
+    }
+  }
+
+  /** Sends each complete UTF-8 line written to it as an `'O'` frame. */
+  private final class FrameStream(out: DataOutputStream) extends OutputStream {
+    private val line = new ByteArrayOutputStream()
+
+    override def write(b: Int): Unit = synchronized {
+      if (b == '\n') emit() else line.write(b)
+    }
+
+    /** Send a last line that did not end with a newline. */
+    def flushLine(): Unit = synchronized {
+      if (line.size > 0) emit()
+    }
+
+    private def emit(): Unit = {
+      val text = new String(line.toByteArray, StandardCharsets.UTF_8).stripSuffix("\r")
+      line.reset()
+      out.writeByte('O')
+      out.writeUTF(text)
+    }
+
+    override def flush(): Unit = synchronized(out.flush())
+  }
+
+  private def newToken(): String = {
+    val bytes = new Array[Byte](24)
+    new SecureRandom().nextBytes(bytes)
+    hex(bytes)
+  }
+
+  private def writePortFile(portFile: Path, port: Int, token: String): Unit = {
+    Option(portFile.toAbsolutePath.getParent).foreach(Files.createDirectories(_))
+    val tmp = portFile.resolveSibling(s"${portFile.getFileName}.${System.nanoTime()}.tmp")
+    // Owner-only from creation: the token is never readable by others, not even before a chmod.
+    if (tmp.getFileSystem.supportedFileAttributeViews.contains("posix"))
+      Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")))
+    else Files.createFile(tmp)
+    Files.write(tmp, Seq(port.toString, token).mkString("\n").getBytes(StandardCharsets.UTF_8))
+    Files.move(tmp, portFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+  }
+
+  private def readPortFile(portFile: Path): Option[(Int, String)] =
+    try {
+      Files.readAllLines(portFile, StandardCharsets.UTF_8).asScala.toList match {
+        case port :: token :: _ => Some((port.trim.toInt, token.trim))
+        case _                  => None
+      }
+    } catch {
+      case _: IOException | _: NumberFormatException => None
+    }
+
+  // ---------------------------------------------------------------------------
+  // Client
+  // ---------------------------------------------------------------------------
+
+  /** Run `args` on the daemon for `jvmCommand`, starting it if none is reachable.
+    *
+    * The daemon is identified by its JVM command line (`java`, JVM options, `-cp`, classpath), so a
+    * new plugin version or JDK gets its own daemon. Its port file and log are kept in `stateDir`.
+    *
+    * @param jvmCommand command line up to and excluding the main class
+    * @param workingDir directory relative paths in `args` resolve against, as for a JVM forked there
+    * @param out receives every output line of the run
+    * @return the exit code of the run, as [[CoverageRewriter.run]] returns it
+    * @throws java.io.IOException if the daemon cannot be started or reached, or the connection is lost;
+    *                             callers fall back to forking a JVM
+    */
+  @throws[IOException]
+  def submit(
+    stateDir: Path,
+    jvmCommand: java.util.List[String],
+    idleTimeoutSeconds: Int,
+    workingDir: Path,
+    args: Array[String],
+    out: java.util.function.Consumer[String]
+  ): Int = {
+    val portFile = portFileFor(stateDir, jvmCommand)
+    val socket   = connect(portFile).getOrElse(startAndConnect(stateDir, portFile, jvmCommand, idleTimeoutSeconds))
+    using(socket) { s =>
+      val (_, token) = readPortFile(portFile).getOrElse(throw new IOException(s"Daemon port file vanished: $portFile"))
+      val dout = new DataOutputStream(new BufferedOutputStream(s.getOutputStream))
+      dout.writeUTF(Protocol)
+      dout.writeUTF(token)
+      dout.writeUTF(workingDir.toAbsolutePath.toString)
+      dout.writeInt(args.length)
+      args.foreach(dout.writeUTF)
+      dout.flush()
+
+      val din = new DataInputStream(new BufferedInputStream(s.getInputStream))
+      var code: Option[Int] = None
+      while (code.isEmpty) {
+        din.read() match {
+          case 'O' => out.accept(din.readUTF())
+          case 'E' => code = Some(din.readInt())
+          case _   => throw new IOException("Rewriter daemon closed the connection before the run finished")
+        }
+      }
+      code.get
+    }
+  }
+
+  /** Port file of the daemon started with `jvmCommand`. */
+  private[jacocomethodfilter] def portFileFor(stateDir: Path, jvmCommand: java.util.List[String]): Path = {
+    val digest = MessageDigest.getInstance("SHA-256").digest(jvmCommand.asScala.mkString("\u0000").getBytes(StandardCharsets.UTF_8))
+    stateDir.resolve(s"jmf-daemon-${hex(digest.take(12))}.port")
+  }
+
+  private def connect(portFile: Path): Option[Socket] =
+    readPortFile(portFile).flatMap { case (port, _) =>
+      val s = new Socket()
+      try {
+        s.connect(new InetSocketAddress(InetAddress.getLoopbackAddress, port), ConnectTimeoutMs)
+        Some(s)
+      } catch {
+        case _: IOException =>
+          s.close()
+          None
+      }
+    }
+
+  /** Start a daemon unless another client started one meanwhile, then connect to it. */
+  private def startAndConnect(stateDir: Path, portFile: Path, jvmCommand: java.util.List[String], idleTimeoutSeconds: Int): Socket = {
+    Files.createDirectories(stateDir)
+    val lockFile = portFile.resolveSibling(s"${portFile.getFileName}.lock")
+    using(FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) { channel =>
+      val lock = acquire(channel)
+      try connect(portFile).getOrElse {
+        Files.deleteIfExists(portFile)
+        val cmd = new java.util.ArrayList[String](jvmCommand)
+        cmd.add(CoverageRewriter.getClass.getName.stripSuffix("$"))
+        cmd.add("--server")
+        cmd.add("--port-file")
+        cmd.add(portFile.toAbsolutePath.toString)
+        cmd.add("--idle-timeout")
+        cmd.add(idleTimeoutSeconds.toString)
+        val log = portFile.resolveSibling(s"${portFile.getFileName}.log").toFile
+        new ProcessBuilder(cmd)
+          .redirectErrorStream(true)
+          .redirectOutput(ProcessBuilder.Redirect.to(log))
+          .redirectInput(ProcessBuilder.Redirect.from(new File(if (File.separatorChar == '\\') "NUL" else "/dev/null")))
+          .start()
+        val deadline = System.nanoTime() + StartupTimeoutMs * 1000000L
+        var socket   = Option.empty[Socket]
+        while (socket.isEmpty && System.nanoTime() < deadline) {
+          Thread.sleep(50)
+          socket = connect(portFile)
+        }
+        socket.getOrElse(throw new IOException(s"Rewriter daemon did not start within ${StartupTimeoutMs / 1000} s; see $log"))
+      } finally lock.release()
+    }
+  }
+
+  /** Exclusive lock on `channel`, waiting for other processes and class loaders holding it. */
+  private def acquire(channel: FileChannel): java.nio.channels.FileLock = {
+    var lock: java.nio.channels.FileLock = null
+    while (lock == null) {
+      lock =
+        try channel.tryLock()
+        catch {
+          case _: OverlappingFileLockException => null
+        }
+      if (lock == null) Thread.sleep(50)
+    }
+    lock
+  }
+
+  private def hex(bytes: Array[Byte]): String = bytes.map("%02x".format(_)).mkString
+
+  private def shutdown(pool: ExecutorService): Unit = {
+    pool.shutdown()
+    pool.awaitTermination(10, java.util.concurrent.TimeUnit.SECONDS)
+  }
+
+  private def daemonThreads(prefix: String): ThreadFactory = new ThreadFactory {
+    private val n = new AtomicInteger(0)
+    def newThread(r: Runnable): Thread = {
+      val t = new Thread(r, s"$prefix-${n.incrementAndGet()}")
+      t.setDaemon(true)
+      t
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package io.moranaapps.jacocomethodfilter
+
+import io.moranaapps.jacocomethodfilter.Compat._
+import org.jacoco.core.analysis.{Analyzer, IClassCoverage, ICoverageVisitor}
+import org.jacoco.core.data.ExecutionDataStore
+import org.jacoco.core.internal.analysis.ClassCoverageImpl
+import org.objectweb.asm.{ClassReader, ClassVisitor, MethodVisitor, Opcodes}
+
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicInteger
+import scala.collection.mutable
+
+/** A JaCoCo [[Analyzer]] that drops rule-excluded methods from the coverage model.
+  *
+  * Before JaCoCo analyses a class, its header and method signatures are read (no code) and every method
+  * is resolved against the rule index, exactly like the rewriter does. JaCoCo then analyses the
+  * unmodified bytes, so class ids match the execution data recorded for the original classes, and the
+  * resulting class coverage is rebuilt without the excluded methods. The report therefore equals the
+  * one produced from rewritten classes, without writing a filtered class directory.
+  *
+  * JaCoCo routes every class — single files and archive entries alike — through
+  * `analyzeClass(byte[], String)`, which is the one hook used here. A class whose methods are all
+  * excluded is reported without methods or counters, as a fully annotated class would be.
+  *
+  * Like [[Analyzer]], an instance is not thread-safe.
+  */
+private[jacocomethodfilter] final class RuleFilteringAnalyzer private (
+  store: ExecutionDataStore,
+  filter: RuleFilteringAnalyzer.Filter
+) extends Analyzer(store, filter) {
+
+  /** @param excluded incremented for every method removed from the coverage model; may be shared between instances */
+  def this(store: ExecutionDataStore, target: ICoverageVisitor, index: RuleIndex, excluded: AtomicInteger) =
+    this(store, new RuleFilteringAnalyzer.Filter(target, index, excluded))
+
+  @throws[IOException]
+  override def analyzeClass(buffer: Array[Byte], location: String): Unit = {
+    try filter.prepare(buffer)
+    catch {
+      case e: RuntimeException => throw new IOException(s"Error while filtering $location", e)
+    }
+    super.analyzeClass(buffer, location)
+  }
+}
+
+private[jacocomethodfilter] object RuleFilteringAnalyzer {
+
+  /** Coverage visitor that removes the methods [[prepare]] found excluded from the next class it receives. */
+  private[jacocomethodfilter] final class Filter(target: ICoverageVisitor, index: RuleIndex, excluded: AtomicInteger) extends ICoverageVisitor {
+
+    // Excluded methods of the class being analysed, as name + descriptor.
+    private val pending = mutable.HashSet.empty[String]
+
+    def prepare(bytes: Array[Byte]): Unit = {
+      pending.clear()
+      val cr         = new ClassReader(bytes)
+      val classRules = index.forClass(cr.getClassName.replace('/', '.'))
+      if (classRules.nonEmpty) {
+        val whole = index.wholeClassExclusions(classRules).nonEmpty
+        cr.accept(new ClassVisitor(Opcodes.ASM9) {
+          override def visitMethod(access: Int, name: String, desc: String, signature: String, exceptions: Array[String]): MethodVisitor = {
+            if (whole || index.shouldExclude(classRules, name, desc, access)) pending += name + desc
+            null
+          }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES)
+      }
+    }
+
+    override def visitCoverage(coverage: IClassCoverage): Unit =
+      if (pending.isEmpty) target.visitCoverage(coverage)
+      else target.visitCoverage(withoutExcluded(coverage))
+
+    /** The class coverage JaCoCo would have built had the excluded methods been annotated. */
+    private def withoutExcluded(coverage: IClassCoverage): IClassCoverage = {
+      val kept = new ClassCoverageImpl(coverage.getName, coverage.getId, coverage.isNoMatch)
+      kept.setSignature(coverage.getSignature)
+      kept.setSuperName(coverage.getSuperName)
+      kept.setInterfaces(coverage.getInterfaceNames)
+      kept.setSourceFileName(coverage.getSourceFileName)
+      coverage match {
+        case impl: ClassCoverageImpl => kept.setFragments(impl.getFragments)
+        case _                       =>
+      }
+      coverage.getMethods.iterator().asScala.foreach { m =>
+        if (pending.contains(m.getName + m.getDesc)) excluded.incrementAndGet()
+        else kept.addMethod(m)
+      }
+      kept
+    }
+  }
+}
@@ -0,0 +1,343 @@
+package io.moranaapps.jacocomethodfilter
+
+import java.util.concurrent.ConcurrentHashMap
+import scala.collection.mutable
+
+/** A rule list compiled for matching many classes and methods.
+  *
+  * Each selector glob must contain its longest literal run (see [[Glob.literals]]). All class selectors'
+  * literals are compiled into one Aho-Corasick automaton, and all method selectors' literals into a second
+  * one. A single pass over a class or method name then yields the candidate rules; only those are checked
+  * with the exact [[Rules]] matchers. Rules without a literal (e.g. `*`) are always candidates. The cost
+  * per name therefore grows with the length of the name and the number of candidates, not with the size
+  * of the rule list.
+  *
+  * Duplicate and subsumed rules (see [[RuleSubsumption]]) are left out of both automata. Such a rule is
+  * only checked for methods its covering rule matched, so results still name every matching rule.
+  *
+  * Method names and descriptors repeat across a code base (`apply`, `copy`, `()Ljava/lang/String;`).
+  * Which rules' method selectors and name predicates match a name, and which rules' descriptor and
+  * `ret:` globs match a descriptor, is computed once per distinct string and selector text and kept in
+  * bounded caches, so per method only the access flags and the class-specific rule list are left.
+  *
+  * Fully literal rules (`com.acme.Foo#bar(I)V`: no wildcards and no `ret:` or name predicates), as
+  * generated in bulk by tools, bypass all of that. They are kept in a hash map by class name, and their
+  * method name and descriptor are compared as plain strings, so tens of thousands of them cost a lookup
+  * per class rather than a scan of their selectors.
+  *
+  * Rules are identified by their ordinal in `rules`. Immutable and thread-safe once built.
+  */
+final class RuleIndex private (val rules: IndexedSeq[MethodRule]) {
+  import RuleIndex._
+
+  /** For each rule, the ordinal of the kept rule that covers it, or -1 for a kept rule. */
+  private val coveredBy: Array[Int] = RuleSubsumption.coveredBy(rules)
+
+  // Redundant rules per kept rule.
+  private val covering: Array[Array[Int]] = {
+    val b = Array.fill(rules.size)(new mutable.ArrayBuilder.ofInt)
+    coveredBy.indices.foreach(j => if (coveredBy(j) >= 0) b(coveredBy(j)) += j)
+    b.map(_.result())
+  }
+
+  private val hasRedundant = coveredBy.exists(_ >= 0)
+
+  private def kept(i: Int): Boolean = coveredBy(i) < 0
+
+  // For each fully literal rule its signature, null for every other rule.
+  private val exact: Array[Signature] = rules.map(Signature.of).toArray
+
+  // Kept literal rules by class name (dot form).
+  private val exactByClass: collection.Map[String, Array[Int]] = {
+    val b = mutable.HashMap.empty[String, mutable.ArrayBuilder.ofInt]
+    exact.indices.foreach(i => if (kept(i) && exact(i) != null) b.getOrElseUpdate(exact(i).cls, new mutable.ArrayBuilder.ofInt) += i)
+    b.map { case (cls, is) => cls -> is.result() }
+  }
+
+  // Kept rules matched through selectors: everything but the literal rules.
+  private def selected(i: Int): Boolean = kept(i) && exact(i) == null
+
+  // Class selectors are tried against both dot and slash forms of the name; a literal from either form,
+  // normalised to dots, occurs in the dot form.
+  private val classFilter = new LiteralFilter(rules.map(r => longestLiteral(Glob.literals(r.cls)).map(_.replace('/', '.'))), selected)
+
+  // The name-* predicates also constrain the method name, so they serve when the glob has no literal.
+  private val methodFilter = new LiteralFilter(rules.map { r =>
+    longestLiteral(Glob.literals(r.method).map(_ ++ r.nameStarts ++ r.nameContains ++ r.nameEnds))
+  }, selected)
+
+  // Kept rules grouped by identical name and descriptor selectors; each group is matched once per string.
+  private val nameGroups = new SelectorGroups(rules, rules.indices.filter(selected), { r: MethodRule =>
+    (r.method.pattern, r.nameStarts, r.nameEnds, r.nameContains)
+  })
+  private val descGroups = new SelectorGroups(rules, rules.indices.filter(selected), { r: MethodRule =>
+    (r.desc.pattern, r.retGlob.map(_.pattern))
+  })
+
+  private val nameMatches = new BoundedCache[collection.BitSet](MaxCachedStrings, { name =>
+    nameGroups.matching(methodCandidates(name), r =>
+      r.nameStarts.forall(name.startsWith) &&
+        r.nameEnds.forall(name.endsWith) &&
+        r.nameContains.forall(name.contains) &&
+        r.method.matcher(name).matches())
+  })
+
+  private val descMatches = new BoundedCache[collection.BitSet](MaxCachedStrings, { desc =>
+    val ret = Rules.returnType(desc)
+    descGroups.matching(r => r.desc.matcher(desc).matches() && r.retGlob.forall(_.matcher(ret).matches()))
+  })
+
+  /** [[Rules.matchesMember]] for a kept rule: a literal rule by its signature, any other from the name and descriptor caches. */
+  private def memberMatches(i: Int, methods: MethodMatches, access: Int): Boolean = {
+    val required = rules(i).requiredAccess
+    (access & required) == required && {
+      val sig = exact(i)
+      if (sig != null) sig.name == methods.name && sig.desc == methods.desc
+      else methods.names(i) && methods.descs(i)
+    }
+  }
+
+  /** Selector matches for one method, looked up only when a rule matched through selectors asks for them. */
+  private final class MethodMatches(val name: String, val desc: String) {
+    lazy val names: collection.BitSet = nameMatches(name)
+    lazy val descs: collection.BitSet = descMatches(desc)
+  }
+
+  /** Rules that only repeat or narrow another rule of the same mode, in rule order. */
+  def redundant: Seq[RedundantRule] = RuleSubsumption.redundant(rules, coveredBy)
+
+  /** Ordinals of kept rules whose class selector may match `fqcn` (dot form); a superset of the exact result.
+    * Literal rules are not included; [[forClass]] finds those by class name.
+    */
+  def classCandidates(fqcn: String): collection.BitSet = classFilter.candidates(fqcn)
+
+  /** Ordinals of kept non-literal rules whose method selector may match `methodName`; a superset of the exact result. */
+  def methodCandidates(methodName: String): collection.BitSet = methodFilter.candidates(methodName)
+
+  /** Ordinals, in rule order, of rules whose class selector matches `fqcn` (dot form). */
+  def forClass(fqcn: String): IndexedSeq[Int] = {
+    val selectedHits = classCandidates(fqcn).iterator.filter(i => Rules.matchesClass(rules(i), fqcn))
+    val direct = exactByClass.get(fqcn) match {
+      case Some(literal) => (mutable.BitSet.empty ++= selectedHits ++= literal).toVector
+      case None          => selectedHits.toVector
+    }
+    if (!hasRedundant) direct
+    else {
+      // A redundant rule's class selector lies within its covering rule's, so only those need a look.
+      val all = mutable.BitSet.empty
+      direct.foreach { i =>
+        all += i
+        covering(i).foreach(j => if (Rules.matchesClass(rules(j), fqcn)) all += j)
+      }
+      all.toVector
+    }
+  }
+
+  /** Ordinals, in rule order, of rules that match the method.
+    *
+    * @param classRules result of [[forClass]] for the method's class
+    */
+  def matching(classRules: IndexedSeq[Int], methodName: String, desc: String, access: Int): IndexedSeq[Int] =
+    if (classRules.isEmpty) classRules
+    else {
+      val methods = new MethodMatches(methodName, desc)
+      val hits    = classRules.filter(i => kept(i) && memberMatches(i, methods, access))
+      if (!hasRedundant || hits.isEmpty) hits
+      else {
+        val hit = mutable.BitSet.empty ++= hits
+        classRules.filter(i => hit(i) || (!kept(i) && hit(coveredBy(i)) && Rules.matchesMember(rules(i), methodName, desc, access)))
+      }
+    }
+
+  /** Whole-class exclusion rules among `classRules` when they decide every method of the class on their own.
+    *
+    * That is the case when no include rule's class selector matches the class: nothing can rescue a
+    * method, so every method is excluded and per-method matching can be skipped. Empty otherwise, in
+    * which case whole-class rules take part in per-method matching like `cls#*`.
+    */
+  def wholeClassExclusions(classRules: IndexedSeq[Int]): IndexedSeq[Int] = {
+    val whole = classRules.filter(i => rules(i).wholeClass && rules(i).mode == Exclude)
+    if (whole.isEmpty || classRules.exists(i => rules(i).mode == Include)) Vector.empty else whole
+  }
+
+  /** Same as `resolve(...).shouldExclude`, without collecting the matching rules.
+    *
+    * Only kept rules are evaluated: a redundant rule matches only where its covering rule of the same
+    * mode matches, so it cannot change the decision. Evaluation stops at the first matching exclusion
+    * rule, and include rules are only tried for a method some exclusion rule matched.
+    */
+  def shouldExclude(classRules: IndexedSeq[Int], methodName: String, desc: String, access: Int): Boolean =
+    classRules.nonEmpty && {
+      val methods = new MethodMatches(methodName, desc)
+      def hit(i: Int, mode: RuleMode): Boolean = rules(i).mode == mode && kept(i) && memberMatches(i, methods, access)
+      classRules.exists(hit(_, Exclude)) && !classRules.exists(hit(_, Include))
+    }
+
+  /** Same as [[RuleResolver.resolve]] for a method of the class `classRules` was computed for. */
+  def resolve(classRules: IndexedSeq[Int], methodName: String, desc: String, access: Int): Resolution = {
+    val hits = matching(classRules, methodName, desc, access).map(rules)
+    Resolution(hits.filter(_.mode == Exclude), hits.filter(_.mode == Include))
+  }
+}
+
+object RuleIndex {
+  def apply(rules: Seq[MethodRule]): RuleIndex = new RuleIndex(rules.toIndexedSeq)
+
+  /** Distinct method names, and separately descriptors, whose matching rules are cached per index. */
+  private val MaxCachedStrings = 16384
+
+  /** Class, method name and descriptor of a fully literal rule. */
+  private final case class Signature(cls: String, name: String, desc: String)
+
+  private object Signature {
+    /** The signature of `r` if every selector is a literal and no predicate constrains it further; else null. */
+    def of(r: MethodRule): Signature =
+      if (r.wholeClass || r.retGlob.isDefined || r.nameStarts.isDefined || r.nameEnds.isDefined || r.nameContains.isDefined) null
+      else
+        (Glob.source(r.cls).filter(isLiteral), Glob.source(r.method).filter(isLiteral), Glob.source(r.desc).filter(isLiteral)) match {
+          // The class selector is tried in dot and slash form; a name mixing both separators matches neither.
+          case (Some(cls), Some(name), Some(desc)) if !(cls.contains('.') && cls.contains('/')) =>
+            Signature(cls.replace('/', '.'), name, desc)
+          case _ => null
+        }
+
+    private def isLiteral(glob: String): Boolean = glob.indexOf('*') < 0 && glob.indexOf('?') < 0
+  }
+
+  /** Rules grouped by a key over their selectors; rules with equal keys match the same strings. */
+  private final class SelectorGroups(rules: IndexedSeq[MethodRule], ordinals: IndexedSeq[Int], key: MethodRule => Any) {
+    private val groupOf = Array.fill(rules.size)(-1)
+    private val members = {
+      val byKey = mutable.LinkedHashMap.empty[Any, Int]
+      val ms    = mutable.ArrayBuffer.empty[mutable.BitSet]
+      ordinals.foreach { i =>
+        val g = byKey.getOrElseUpdate(key(rules(i)), { ms += mutable.BitSet.empty; ms.size - 1 })
+        groupOf(i) = g
+        ms(g) += i
+      }
+      ms.toArray
+    }
+
+    /** Grouped rules whose group satisfies `test`, evaluated once per group. */
+    def matching(test: MethodRule => Boolean): collection.BitSet = {
+      val out = mutable.BitSet.empty
+      members.foreach(ms => if (test(rules(ms.head))) out |= ms)
+      out
+    }
+
+    /** Grouped rules among `candidates` whose group satisfies `test`, evaluated once per group. */
+    def matching(candidates: collection.BitSet, test: MethodRule => Boolean): collection.BitSet = {
+      val out  = mutable.BitSet.empty
+      val seen = mutable.BitSet.empty
+      candidates.foreach { i =>
+        val g = groupOf(i)
+        if (g >= 0 && !seen(g)) {
+          seen += g
+          if (test(rules(members(g).head))) out |= members(g)
+        }
+      }
+      out & candidates
+    }
+  }
+
+  /** A concurrent memo of `compute` that stops storing new keys once it holds `max` entries. */
+  private final class BoundedCache[V <: AnyRef](max: Int, compute: String => V) {
+    private val entries = new ConcurrentHashMap[String, V]()
+
+    def apply(key: String): V = {
+      val cached = entries.get(key)
+      if (cached != null) cached
+      else {
+        val v = compute(key)
+        if (entries.size < max) entries.putIfAbsent(key, v)
+        v
+      }
+    }
+  }
+
+  private def longestLiteral(runs: Option[Seq[String]]): Option[String] =
+    runs.flatMap(rs => if (rs.isEmpty) None else Some(rs.maxBy(_.length)))
+
+  /** Maps a name to the `include`d rules whose required literal occurs in it. */
+  private final class LiteralFilter(keys: IndexedSeq[Option[String]], include: Int => Boolean) {
+    private val always = mutable.BitSet.empty
+    private val literals = mutable.LinkedHashMap.empty[String, mutable.BitSet]
+    keys.zipWithIndex.foreach {
+      case (_, i) if !include(i) => ()
+      case (Some(lit), i)        => literals.getOrElseUpdate(lit, mutable.BitSet.empty) += i
+      case (None, i)             => always += i
+    }
+    private val owners    = literals.values.toArray
+    private val automaton = new AhoCorasick(literals.keys.toIndexedSeq)
+
+    def candidates(text: String): collection.BitSet = {
+      val out = always.clone()
+      automaton.search(text, id => out |= owners(id))
+      out
+    }
+  }
+
+  /** Aho-Corasick automaton over non-empty string keys; reports the index of every key found in a text. */
+  private[jacocomethodfilter] final class AhoCorasick(keys: IndexedSeq[String]) {
+    // Goto edges keyed by (state << 16 | char).
+    private val edges    = mutable.LongMap.empty[Int]
+    private val children = mutable.ArrayBuffer(mutable.ArrayBuffer.empty[(Char, Int)])
+    private val outputs  = mutable.ArrayBuffer(List.empty[Int])
+
+    private def edge(state: Int, c: Char): Int = edges.getOrElse((state.toLong << 16) | c, -1)
+
+    keys.zipWithIndex.foreach { case (key, id) =>
+      var state = 0
+      key.foreach { c =>
+        val next = edge(state, c)
+        state =
+          if (next >= 0) next
+          else {
+            val created = children.size
+            children += mutable.ArrayBuffer.empty[(Char, Int)]
+            outputs += Nil
+            children(state) += ((c, created))
+            edges.update((state.toLong << 16) | c, created)
+            created
+          }
+      }
+      outputs(state) = id :: outputs(state)
+    }
+
+    private val fail = new Array[Int](children.size)
+    // Nearest state on the failure chain that ends a key (0 if none).
+    private val dict = new Array[Int](children.size)
+
+    locally {
+      val queue = mutable.Queue.empty[Int]
+      children(0).foreach { case (_, s) => queue.enqueue(s) }
+      while (queue.nonEmpty) {
+        val u = queue.dequeue()
+        children(u).foreach { case (c, v) =>
+          var f = fail(u)
+          while (f != 0 && edge(f, c) < 0) f = fail(f)
+          fail(v) = math.max(edge(f, c), 0)
+          dict(v) = if (outputs(fail(v)).nonEmpty) fail(v) else dict(fail(v))
+          queue.enqueue(v)
+        }
+      }
+    }
+
+    /** Call `found` with the index of every key occurring in `text` (once per occurrence). */
+    def search(text: String, found: Int => Unit): Unit = {
+      var state = 0
+      var i     = 0
+      while (i < text.length) {
+        val c = text.charAt(i)
+        while (state != 0 && edge(state, c) < 0) state = fail(state)
+        state = math.max(edge(state, c), 0)
+        var o = if (outputs(state).nonEmpty) state else dict(state)
+        while (o != 0) {
+          outputs(o).foreach(found)
+          o = dict(o)
+        }
+        i += 1
+      }
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package io.moranaapps.jacocomethodfilter
+
+import scala.collection.mutable
+
+/** A rule that never decides an outcome on its own: another rule of the same mode matches every method it matches.
+  *
+  * @param rule the redundant rule
+  * @param coveredBy the rule that is evaluated in its place
+  * @param duplicate whether the two rules match exactly the same methods
+  */
+final case class RedundantRule(rule: MethodRule, coveredBy: MethodRule, duplicate: Boolean)
+
+/** Finds duplicate and subsumed rules in a merged rule list.
+  *
+  * Rule `a` covers rule `b` when both have the same mode and every method `b` matches is matched by `a`:
+  * each selector glob of `a` contains `b`'s (see [[Glob.covers]]), `a` requires a subset of `b`'s flags, and
+  * each of `a`'s predicates is implied by one of `b`'s. A whole-class rule is only covered by another
+  * whole-class rule, so the whole-class shortcut is kept. The analysis works on rule text and never
+  * reports a rule as covered when it is not.
+  *
+  * Of several equivalent rules the first is kept. Every other redundant rule is assigned a kept rule
+  * covering it, so a redundant rule can only match where its kept rule matched.
+  */
+object RuleSubsumption {
+
+  /** For each rule, the ordinal of a kept rule that covers it, or -1 if the rule is kept. */
+  def coveredBy(rules: IndexedSeq[MethodRule]): Array[Int] = {
+    val n     = rules.size
+    val shape = rules.map(Shape(_))
+    val out   = Array.fill(n)(-1)
+    // A covering rule has the same mode, a subset of the flags, and literal prefixes that are prefixes of
+    // the covered rule's. Candidates are narrowed on these first, which rules out most pairs.
+    val methodPrefixes = new PrefixIndex(shape.map(_.method.fold("")(literalPrefix)))
+    val classPrefixes  = new PrefixIndex(shape.map(_.cls.fold("")(literalPrefix)))
+    val byConstraints  = mutable.LinkedHashMap.empty[(RuleMode, Int), mutable.BitSet]
+    shape.zipWithIndex.foreach { case (a, i) => byConstraints.getOrElseUpdate((a.mode, a.flags), mutable.BitSet.empty) += i }
+    def constrained(b: Shape): collection.BitSet = {
+      val out = mutable.BitSet.empty
+      byConstraints.foreach { case ((mode, flags), rs) => if (mode == b.mode && (flags & ~b.flags) == 0) out |= rs }
+      out
+    }
+    // A rule is redundant if a rule ranking higher covers it: one strictly broader, or an equivalent earlier one.
+    def redundantTo(i: Int, j: Int): Boolean =
+      i != j && shape(i).covers(shape(j)) && (i < j || !shape(j).covers(shape(i)))
+    var j = 0
+    while (j < n) {
+      val b = shape(j)
+      if (b.comparable) {
+        val candidates = constrained(b) &
+          methodPrefixes.within(literalPrefix(b.method.get)) &
+          classPrefixes.within(literalPrefix(b.cls.get))
+        val it = candidates.iterator
+        while (it.hasNext && out(j) < 0) {
+          val i = it.next()
+          if (redundantTo(i, j)) out(j) = i
+        }
+      }
+      j += 1
+    }
+    // Coverage is transitive, so the top of each chain is a kept rule covering everything below it.
+    var k = 0
+    while (k < n) {
+      var p = out(k)
+      while (p >= 0 && out(p) >= 0) p = out(p)
+      out(k) = p
+      k += 1
+    }
+    out
+  }
+
+  /** Redundant rules of `rules`, in rule order. */
+  def redundant(rules: IndexedSeq[MethodRule]): Seq[RedundantRule] =
+    redundant(rules, coveredBy(rules))
+
+  private[jacocomethodfilter] def redundant(rules: IndexedSeq[MethodRule], coveredBy: Array[Int]): Seq[RedundantRule] =
+    rules.indices.filter(coveredBy(_) >= 0).map { j =>
+      val i = coveredBy(j)
+      RedundantRule(rules(j), rules(i), Shape(rules(j)).covers(Shape(rules(i))))
+    }
+
+  private def literalPrefix(glob: String): String = {
+    val end = glob.indexWhere(c => c == '*' || c == '?')
+    if (end < 0) glob else glob.substring(0, end)
+  }
+
+  /** Rules by the literal prefix of one of their globs. */
+  private final class PrefixIndex(prefixes: IndexedSeq[String]) {
+    private val byPrefix = mutable.HashMap.empty[String, mutable.BitSet]
+    prefixes.zipWithIndex.foreach { case (p, i) => byPrefix.getOrElseUpdate(p, mutable.BitSet.empty) += i }
+
+    /** Rules whose prefix is a prefix of `text`. */
+    def within(text: String): collection.BitSet = {
+      val out = mutable.BitSet.empty
+      var k = 0
+      while (k <= text.length) {
+        byPrefix.get(text.substring(0, k)).foreach(out |= _)
+        k += 1
+      }
+      out
+    }
+  }
+
+  /** Selector globs and constraints of a rule in comparable form. */
+  private final case class Shape(
+    mode: RuleMode,
+    wholeClass: Boolean,
+    cls: Option[String],
+    method: Option[String],
+    desc: Option[String],
+    ret: Option[Option[String]],
+    flags: Int,
+    nameContains: Option[String],
+    nameStarts: Option[String],
+    nameEnds: Option[String]
+  ) {
+    /** Selectors compiled by something other than [[Glob.toRegex]] are never compared. */
+    def comparable: Boolean = cls.isDefined && method.isDefined && desc.isDefined && ret.forall(_.isDefined)
+
+    def covers(b: Shape): Boolean =
+      comparable && b.comparable &&
+        mode == b.mode &&
+        (!b.wholeClass || wholeClass) &&
+        (flags & ~b.flags) == 0 &&
+        nameStarts.forall(s => b.nameStarts.exists(_.startsWith(s))) &&
+        nameEnds.forall(s => b.nameEnds.exists(_.endsWith(s))) &&
+        nameContains.forall(s => b.nameContains.exists(_.contains(s)) || b.nameStarts.exists(_.contains(s)) || b.nameEnds.exists(_.contains(s))) &&
+        ret.forall(r => b.ret.exists(br => Glob.covers(r.get, br.get))) &&
+        Glob.covers(method.get, b.method.get) &&
+        Glob.covers(desc.get, b.desc.get) &&
+        Glob.covers(cls.get, b.cls.get)
+  }
+
+  private object Shape {
+    def apply(r: MethodRule): Shape =
+      Shape(
+        r.mode,
+        r.wholeClass,
+        Glob.source(r.cls),
+        Glob.source(r.method),
+        Glob.source(r.desc),
+        r.retGlob.map(Glob.source),
+        r.requiredAccess,
+        r.nameContains,
+        r.nameStarts,
+        r.nameEnds
+      )
+  }
+}
@@ -8,6 +8,7 @@ import java.net.{HttpURLConnection, URL}
 import java.nio.charset.StandardCharsets
 import java.nio.file.{Files, Path, Paths}
 import java.util.regex.Pattern
+import scala.collection.mutable
 
 // --- Rule mode and source ---------------------------------------------------
 
@@ -43,11 +44,32 @@ final case class MethodRule(
                              source: RuleSource = LocalSource(""), // where this rule came from
                              forwardCompat: Boolean = false, // exempt from unmatched-rule warnings
                              rawText: String = "",          // original rule line (for debugging/logging)
-                             patternText: String = ""       // selector-only (cls#method(desc), no tokens) for display
-                           )
+                             patternText: String = "",      // selector-only (cls#method(desc), no tokens) for display
+                             wholeClass: Boolean = false    // cls#<class>: every method of the class
+                           ) {
+  /** Access bits `flags` requires, so a flag check is one mask test. */
+  private[jacocomethodfilter] lazy val requiredAccess: Int = flags.foldLeft(0)((acc, f) => acc | Rules.FlagBits.getOrElse(f, 0))
+}
 
 object Rules {
 
+  /** Access bit of each flag token; unknown flags require nothing. */
+  private[jacocomethodfilter] val FlagBits: Map[String, Int] = Map(
+    "public"    -> Opcodes.ACC_PUBLIC,
+    "protected" -> Opcodes.ACC_PROTECTED,
+    "private"   -> Opcodes.ACC_PRIVATE,
+    "synthetic" -> Opcodes.ACC_SYNTHETIC,
+    "bridge"    -> Opcodes.ACC_BRIDGE,
+    "static"    -> Opcodes.ACC_STATIC,
+    "abstract"  -> Opcodes.ACC_ABSTRACT
+  )
+
+  /** Method selector of a whole-class rule (`com.example.gen.*#<class>`). */
+  val WholeClassSelector = "<class>"
+
+  /** First line of a signature list: a rules file of literal `cls#name(desc)` entries (see [[parseSignatureList]]). */
+  val SignatureListHeader = "# [jmf-signatures]"
+
   // HTTP timeout settings for loading rules from URLs
   private val UrlConnectTimeoutMs = 10000
   private val UrlReadTimeoutMs = 10000
@@ -70,8 +92,73 @@ object Rules {
     if (!Files.exists(path))
       throw new java.nio.file.NoSuchFileException(path.toString, null, "Rules file not found")
     val lines = Files.readAllLines(path).asScala.toVector
-    val source = LocalSource(path.toString)
-    lines.zipWithIndex.flatMap { case (line, idx) => parseLine(line, source, idx + 1) }
+    parseLines(lines, LocalSource(path.toString))
+  }
+
+  /** Rules of a whole file: a signature list when it starts with [[SignatureListHeader]], else one rule per line. */
+  private def parseLines(lines: IndexedSeq[String], source: RuleSource): Seq[MethodRule] =
+    if (lines.headOption.exists(_.trim.startsWith(SignatureListHeader))) parseSignatureList(lines, source)
+    else lines.zipWithIndex.flatMap { case (line, idx) => parseLine(line, source, idx + 1) }
+
+  /** Rules of a signature list, the bulk format for generated rule files.
+    *
+    * After the header line, each line is one fully literal method signature, `cls#name(desc)` with a JVM
+    * descriptor, optionally prefixed with `+` for an include rule. Blank lines and `#` comments are
+    * skipped. The header may carry `id:<label>` and `forward-compat`, which apply to every entry; entries
+    * take no tokens of their own. Entries are split at their separators without the rule grammar, and an
+    * unlabelled list warns once rather than once per entry.
+    *
+    * @throws IllegalArgumentException if an entry is not a literal signature
+    */
+  private[jacocomethodfilter] def parseSignatureList(lines: IndexedSeq[String], source: RuleSource): Seq[MethodRule] = {
+    val header        = lines.head.trim.stripPrefix(SignatureListHeader).trim.split("\\s+").filter(_.nonEmpty)
+    val id            = header.collectFirst { case t if t.startsWith("id:") => t.stripPrefix("id:") }.filter(_.nonEmpty)
+    val forwardCompat = header.contains("forward-compat")
+    val sourceStr = source match {
+      case LocalSource(p)  => if (p.nonEmpty) p else "<unknown>"
+      case GlobalSource(o) => o
+    }
+    if (id.isEmpty)
+      println(s"[warn] $sourceStr: signature list has no id: label. Add id:<label> to its header for traceability.")
+
+    // Entries of one class share its compiled selector; names and descriptors repeat across classes.
+    val classes = mutable.HashMap.empty[String, Pattern]
+    val out     = Vector.newBuilder[MethodRule]
+    var lineNum = 1
+    while (lineNum < lines.size) {
+      val line = lines(lineNum).trim
+      lineNum += 1
+      if (line.nonEmpty && !line.startsWith("#")) {
+        val include = line.charAt(0) == '+'
+        val entry   = if (include) line.substring(1) else line
+        val hash    = entry.indexOf('#')
+        val paren   = entry.indexOf('(', hash + 1)
+        val close   = entry.indexOf(')', paren + 1)
+        def where   = s"$sourceStr line $lineNum"
+        require(hash > 0 && paren > hash + 1 && close > paren && close < entry.length - 1,
+          s"$where: expected a signature cls#name(desc): $line")
+        require(entry.indexWhere(c => c == '*' || c == '?' || c.isWhitespace) < 0,
+          s"$where: signature lists take literal signatures only, without wildcards or tokens: $line")
+        val cls = entry.substring(0, hash)
+        out += MethodRule(
+          cls           = classes.getOrElseUpdate(cls, Selectors.globToRegex(cls)),
+          method        = Selectors.globToRegex(entry.substring(hash + 1, paren)),
+          desc          = Selectors.globToRegex(entry.substring(paren)),
+          flags         = Set.empty,
+          retGlob       = None,
+          id            = id,
+          nameContains  = None,
+          nameStarts    = None,
+          nameEnds      = None,
+          mode          = if (include) Include else Exclude,
+          source        = source,
+          forwardCompat = forwardCompat,
+          rawText       = line,
+          patternText   = line
+        )
+      }
+    }
+    out.result()
   }
 
   private[jacocomethodfilter] def parseLine(raw: String, source: RuleSource = LocalSource(""), lineNum: Int = -1): Option[MethodRule] = {
@@ -100,12 +187,20 @@ object Rules {
     val rest   = parts(1)
     require(rest.nonEmpty, s"Missing method name after '#': $raw")
 
-    val idx = rest.indexOf('(')
+    // cls#<class> selects the whole class. "<class>" is not a legal JVM method name, so it cannot clash
+    // with a method selector.
+    val wholeClass = rest == WholeClassSelector
+    require(wholeClass || !rest.startsWith(WholeClassSelector),
+      s"Whole-class rules take no descriptor: $raw")
+
+    val idx = if (wholeClass) -1 else rest.indexOf('(')
 
     val (methodSel, descSel0) =
       if (idx >= 0) {
         // has explicit descriptor
         (rest.substring(0, idx), rest.substring(idx)) // includes '('
+      } else if (wholeClass) {
+        ("*", "(*)")
       } else {
         // no descriptor provided -> treat as wildcard
         (rest, "(*)")
@@ -142,6 +237,9 @@ object Rules {
       )
     }
 
+    require(!wholeClass || (flags.isEmpty && retGlob.isEmpty && nameContains.isEmpty && nameStarts.isEmpty && nameEnds.isEmpty),
+      s"Whole-class rules take no flags or name/ret predicates: $raw")
+
     ensureNoRegex(clsSel,    "class")
     ensureNoRegex(methodSel, "method")
     ensureNoRegex(descSel,   "descriptor")
@@ -169,7 +267,8 @@ object Rules {
       source        = source,
       forwardCompat = forwardCompat,
       rawText       = line,
-      patternText   = patternText
+      patternText   = patternText,
+      wholeClass    = wholeClass
     ))
   }
 
@@ -183,50 +282,38 @@ object Rules {
     require(!fqcn.contains('/'),
       s"Pass FQCN in dot form (e.g., com.example.Foo). Got: $fqcn")
 
-    val fqcnSlashes = fqcn.replace('.', '/')
-
-    // Class match: allow both dot and slash forms
-    val clsOk =
-      r.cls.matcher(fqcn).matches() ||
-        r.cls.matcher(fqcnSlashes).matches()
+    matchesClass(r, fqcn) && matchesMember(r, methodName, desc, access)
+  }
 
-    // Method name match + helpers
-    val nameHelpersOk =
+  /** Everything but the class selector: method name, descriptor, flags and predicates.
+    *
+    * Checks run from cheapest to most expensive and stop at the first mismatch: access flags, then the
+    * name-* predicates, then the method, descriptor and return type globs.
+    */
+  private[jacocomethodfilter] def matchesMember(r: MethodRule, methodName: String, desc: String, access: Int): Boolean =
+    (access & r.requiredAccess) == r.requiredAccess &&
+      r.nameStarts.forall(methodName.startsWith) &&
+      r.nameEnds.forall(methodName.endsWith) &&
       r.nameContains.forall(methodName.contains) &&
-        r.nameStarts.forall(methodName.startsWith) &&
-        r.nameEnds.forall(methodName.endsWith)
-
-    val methodOk = r.method.matcher(methodName).matches() && nameHelpersOk
-
-    // Descriptor match (whole "(args)ret")
-    val descOk = r.desc.matcher(desc).matches()
-
-    // Flags
-    val isPublic    = (access & Opcodes.ACC_PUBLIC)    != 0
-    val isProtected = (access & Opcodes.ACC_PROTECTED) != 0
-    val isPrivate   = (access & Opcodes.ACC_PRIVATE)   != 0
-    val isSynthetic = (access & Opcodes.ACC_SYNTHETIC) != 0
-    val isBridge    = (access & Opcodes.ACC_BRIDGE)    != 0
-    val isStatic    = (access & Opcodes.ACC_STATIC)    != 0
-    val isAbstract  = (access & Opcodes.ACC_ABSTRACT)  != 0
-
-    val flagsOk =
-      (!r.flags.contains("public")    || isPublic)    &&
-        (!r.flags.contains("protected") || isProtected) &&
-        (!r.flags.contains("private")   || isPrivate)   &&
-        (!r.flags.contains("synthetic") || isSynthetic) &&
-        (!r.flags.contains("bridge")    || isBridge)    &&
-        (!r.flags.contains("static")    || isStatic)    &&
-        (!r.flags.contains("abstract")  || isAbstract)
-
-    // Return predicate: ret:<glob> matches only the return part
-    val parenEnd = desc.indexOf(')')
-    val retType  = if (parenEnd >= 0 && parenEnd + 1 < desc.length) desc.substring(parenEnd + 1) else ""
-    val retOk    = r.retGlob.forall(_.matcher(retType).matches())
+      r.method.matcher(methodName).matches() &&
+      r.desc.matcher(desc).matches() &&
+      r.retGlob.forall(_.matcher(returnType(desc)).matches())
 
-    clsOk && methodOk && descOk && flagsOk && retOk
+  /** Return part of a method descriptor (`ret:<glob>` matches only this part). */
+  private[jacocomethodfilter] def returnType(desc: String): String = {
+    val parenEnd = desc.indexOf(')')
+    if (parenEnd >= 0 && parenEnd + 1 < desc.length) desc.substring(parenEnd + 1) else ""
   }
 
+  /** Class selector only: true if `r` can match some method of class `fqcn` (dot form).
+    * Both dot and slash forms of the name are tried.
+    */
+  def matchesClass(r: MethodRule, fqcn: String): Boolean =
+    r.cls.matcher(fqcn).matches() || r.cls.matcher(fqcn.replace('.', '/')).matches()
+
+  /** Whether a rules source is an HTTP/HTTPS URL rather than a file path. */
+  def isUrl(source: String): Boolean = source.startsWith("http://") || source.startsWith("https://")
+
   /**
    * Load rules from a source that can be either a local path or an HTTP/HTTPS URL.
    * @param source path or URL
@@ -234,7 +321,7 @@ object Rules {
    * @return sequence of method rules
    */
   def loadFromSource(source: String, ruleSource: RuleSource): Seq[MethodRule] = {
-    if (source.startsWith("http://") || source.startsWith("https://")) {
+    if (isUrl(source)) {
       loadFromUrl(source, ruleSource)
     } else {
       loadFromPath(Paths.get(source), ruleSource)
@@ -262,7 +349,7 @@ object Rules {
           lines += line
           line = reader.readLine()
         }
-        lines.toVector.zipWithIndex.flatMap { case (rawLine, idx) => parseLine(rawLine, ruleSource, idx + 1) }
+        parseLines(lines.toVector, ruleSource)
       } finally {
         reader.close()
       }
@@ -275,7 +362,7 @@ object Rules {
     if (!Files.exists(path))
       throw new java.nio.file.NoSuchFileException(path.toString, null, "Rules file not found")
     val lines = Files.readAllLines(path).asScala.toVector
-    lines.zipWithIndex.flatMap { case (line, idx) => parseLine(line, ruleSource, idx + 1) }
+    parseLines(lines, ruleSource)
   }
 
   /**
@@ -313,4 +400,13 @@ object RuleResolver {
     val inclusions = matchingRules.filter(_.mode == Include)
     Resolution(exclusions, inclusions)
   }
+
+  /** Same as `resolve(...).shouldExclude`, without collecting the matching rules.
+    *
+    * Stops at the first matching exclusion rule and only then looks for an include rule, so methods no
+    * exclusion rule matches never evaluate include rules.
+    */
+  def shouldExclude(rules: Seq[MethodRule], fqcn: String, methodName: String, desc: String, access: Int): Boolean =
+    rules.exists(r => r.mode == Exclude && Rules.matches(r, fqcn, methodName, desc, access)) &&
+      !rules.exists(r => r.mode == Include && Rules.matches(r, fqcn, methodName, desc, access))
 }
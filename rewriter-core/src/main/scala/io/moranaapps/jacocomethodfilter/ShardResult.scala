@@ -0,0 +1,149 @@
+package io.moranaapps.jacocomethodfilter
+
+import io.moranaapps.jacocomethodfilter.MatchedMethodCodec.{readAll, writeAll, writeAtomically, writeInts}
+
+import java.io.{BufferedInputStream, DataInputStream, File, IOException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import java.util.zip.CRC32
+import scala.collection.mutable
+
+/** One of `count` partitions of a class tree (`--shard index/count`, 1-based).
+  *
+  * A class file belongs to the shard selected by a CRC-32 of its path relative to `--in`, with `/` as
+  * separator. The partition depends only on the class tree, so every CI node computes the same one and
+  * each class file lands in exactly one shard.
+  */
+final case class Shard(index: Int, count: Int) {
+  require(count > 0 && index >= 1 && index <= count, s"invalid shard $index/$count")
+
+  /** Whether `classFile`, a path under `root`, belongs to this shard. */
+  def contains(root: Path, classFile: Path): Boolean = {
+    val crc = new CRC32
+    crc.update(root.relativize(classFile).toString.replace(File.separatorChar, '/').getBytes(StandardCharsets.UTF_8))
+    (crc.getValue % count).toInt == index - 1
+  }
+
+  override def toString: String = s"$index/$count"
+}
+
+object Shard {
+  /** Parse `i/n` with `1 <= i <= n`. */
+  def parse(text: String): Either[String, Shard] =
+    text.split('/') match {
+      case Array(i, n) if i.nonEmpty && n.nonEmpty && (i + n).forall(Character.isDigit) =>
+        val (index, count) = (BigInt(i), BigInt(n))
+        if (count >= 1 && index >= 1 && index <= count && count <= Int.MaxValue) Right(Shard(index.toInt, count.toInt))
+        else Left(s"shard index must be between 1 and the shard count: $text")
+      case _ => Left(s"shard must have the form i/n: $text")
+    }
+}
+
+/** Verify result of one shard, to be combined with the other shards by the `merge` subcommand.
+  *
+  * Unmatched rules cannot be decided per shard: a rule may match only in another shard. A shard result
+  * therefore carries the ordinals of the rules that matched (and, for `--classes-from` runs, of the rules
+  * in scope) rather than a list of unmatched rules. Ordinals refer to the rule list identified by
+  * `rulesFingerprint` (see [[VerifyCache.fingerprint]]).
+  *
+  * @param matches Excluded and rescued methods of the shard's classes
+  * @param matchedRules Ordinals of rules that matched at least one method in the shard
+  * @param scopedRules For `--classes-from` runs, ordinals of rules whose class selector matches a
+  *                    scanned class; `None` for full scans
+  */
+final case class ShardResult(
+  shard: Shard,
+  rulesFingerprint: String,
+  classesScanned: Int,
+  matches: Seq[MatchedMethod],
+  matchedRules: collection.BitSet,
+  scopedRules: Option[collection.BitSet]
+)
+
+object ShardResult {
+  private val Magic         = 0x4a4d4653 // "JMFS"
+  private val FormatVersion = 1
+
+  /** Write `result` to `path`, replacing any existing file atomically. */
+  def write(result: ShardResult, path: Path): Unit =
+    writeAtomically(path) { out =>
+      out.writeInt(Magic)
+      out.writeInt(FormatVersion)
+      out.writeUTF(result.rulesFingerprint)
+      out.writeInt(result.shard.index)
+      out.writeInt(result.shard.count)
+      out.writeInt(result.classesScanned)
+      writeInts(out, result.matchedRules.toSeq)
+      out.writeBoolean(result.scopedRules.isDefined)
+      result.scopedRules.foreach(s => writeInts(out, s.toSeq))
+      writeAll(out, result.matches)
+    }
+
+  /** Read a shard result written by [[write]].
+    *
+    * @throws java.io.IOException if the file cannot be read or is not a shard result
+    */
+  def read(path: Path): ShardResult = {
+    val in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))
+    try {
+      if (in.readInt() != Magic) throw new IOException(s"Not a shard result: $path")
+      val version = in.readInt()
+      if (version != FormatVersion) throw new IOException(s"Unsupported shard result version $version in $path")
+      val fingerprint = in.readUTF()
+      val index       = in.readInt()
+      val count       = in.readInt()
+      if (count < 1 || index < 1 || index > count) throw new IOException(s"Invalid shard $index/$count in $path")
+      val classes = in.readInt()
+      val matched = readBits(in)
+      val scoped  = if (in.readBoolean()) Some(readBits(in)) else None
+      val matches = readAll(in)
+      ShardResult(Shard(index, count), fingerprint, classes, matches, matched, scoped)
+    } finally in.close()
+  }
+
+  /** Combine the results of all shards of one run into the result a single verify run would have produced.
+    *
+    * @return the merged result, or a message if the shards are incomplete, overlap, or were scanned
+    *         with rules other than `rules`
+    */
+  def merge(parts: Seq[ShardResult], rules: Seq[MethodRule]): Either[String, ScanResult] = {
+    val fingerprint = VerifyCache.fingerprint(rules)
+    val counts      = parts.map(_.shard.count).distinct
+    val indexes     = parts.map(_.shard.index)
+    if (parts.isEmpty) Left("no shard results to merge")
+    else if (counts.size > 1) Left(s"shard results are from runs with different shard counts: ${counts.sorted.mkString(", ")}")
+    else if (parts.exists(_.rulesFingerprint != fingerprint)) {
+      val stale = parts.filter(_.rulesFingerprint != fingerprint).map(_.shard)
+      Left(s"shard(s) ${stale.mkString(", ")} were scanned with different rules")
+    } else if (indexes.distinct.size != indexes.size) {
+      val dups = indexes.groupBy(identity).collect { case (i, is) if is.size > 1 => s"$i/${counts.head}" }
+      Left(s"shard(s) ${dups.toSeq.sorted.mkString(", ")} given more than once")
+    } else if (indexes.size != counts.head) {
+      val missing = (1 to counts.head).filterNot(indexes.toSet).map(i => s"$i/${counts.head}")
+      Left(s"missing shard(s) ${missing.mkString(", ")}")
+    } else if (parts.map(_.scopedRules.isDefined).distinct.size > 1)
+      Left("shard results mix --classes-from runs with full scans")
+    else {
+      val table   = MethodTable.newBuilder
+      val matched = mutable.BitSet.empty
+      val scoped  = parts.head.scopedRules.map(_ => mutable.BitSet.empty)
+      parts.foreach { p =>
+        table ++= p.matches
+        matched ++= p.matchedRules
+        for (s <- scoped; ps <- p.scopedRules) s ++= ps
+      }
+      val methods = table.result()
+      Right(ScanResult(parts.map(_.classesScanned).sum, methods.size, methods, VerifyScanner.unmatchedRules(rules, matched, scoped)))
+    }
+  }
+
+  private def readBits(in: DataInputStream): collection.BitSet = {
+    val bits = mutable.BitSet.empty
+    var n    = in.readInt()
+    while (n > 0) {
+      bits += in.readInt()
+      n -= 1
+    }
+    bits
+  }
+}
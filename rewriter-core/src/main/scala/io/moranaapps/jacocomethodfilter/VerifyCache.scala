@@ -0,0 +1,158 @@
+package io.moranaapps.jacocomethodfilter
+
+import io.moranaapps.jacocomethodfilter.MatchedMethodCodec.{readAll, readInts, writeAll, writeInts}
+
+import java.io.{BufferedInputStream, DataInputStream, DataOutputStream, IOException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import java.security.MessageDigest
+import scala.collection.mutable
+
+/** Persistent cache of per-class verify results.
+  *
+  * An entry is keyed by the class file's path and content hash and stores its [[ClassScan]]. The file
+  * as a whole is bound to a fingerprint of the rule list, so changing, adding or reordering a rule
+  * invalidates everything. Every lookup reads and hashes the class file, and only a different hash
+  * triggers a re-scan. Size and modification time are not trusted: a recompile can keep both within the
+  * file system's timestamp resolution, and a stale result would pass the verify gate.
+  *
+  * Unmatched-rule detection stays exact because cached results carry rule ordinals, which are merged
+  * exactly like freshly scanned ones.
+  *
+  * Not thread-safe.
+  */
+final class VerifyCache private (file: Path, fingerprint: String, entries: mutable.HashMap[String, VerifyCache.Entry]) {
+  import VerifyCache._
+
+  private val seen = mutable.HashSet.empty[String]
+  private var hitCount  = 0
+  private var missCount = 0
+
+  def hits: Int   = hitCount
+  def misses: Int = missCount
+
+  /** Cached result for `classFile`, or `scan` of its bytes (stored for the next run). */
+  def getOrElseUpdate(classFile: Path)(scan: Array[Byte] => ClassScan): ClassScan = {
+    val key   = classFile.toAbsolutePath.normalize().toString
+    val bytes = Files.readAllBytes(classFile)
+    val hash  = sha256(bytes)
+    seen += key
+
+    entries.get(key) match {
+      case Some(e) if e.hash == hash =>
+        hitCount += 1
+        e.result
+      case _ =>
+        missCount += 1
+        val result = scan(bytes)
+        entries.put(key, Entry(hash, result))
+        result
+    }
+  }
+
+  /** Write the cache atomically.
+    *
+    * @param pruneUnseen drop entries for classes not looked up in this run (use after a full scan)
+    */
+  def save(pruneUnseen: Boolean): Unit = {
+    if (pruneUnseen) entries.keys.filterNot(seen.contains).toList.foreach(entries.remove)
+    MatchedMethodCodec.writeAtomically(file)(write)
+  }
+
+  private def write(out: DataOutputStream): Unit = {
+    out.writeInt(Magic)
+    out.writeInt(FormatVersion)
+    out.writeUTF(fingerprint)
+    out.writeInt(entries.size)
+    entries.foreach { case (key, e) =>
+      out.writeUTF(key)
+      out.writeUTF(e.hash)
+      writeInts(out, e.result.matchedRules.toSeq.sorted)
+      writeInts(out, e.result.classRules.toSeq.sorted)
+      writeAll(out, e.result.matches)
+    }
+  }
+}
+
+object VerifyCache {
+  private val Magic         = 0x4a4d4656 // "JMFV"
+  private val FormatVersion = 2
+
+  private final case class Entry(hash: String, result: ClassScan)
+
+  /** Open the cache at `file` for `rules`.
+    *
+    * A missing, unreadable or foreign cache file, or one written for a different rule list, yields an
+    * empty cache; it is replaced on the next [[VerifyCache#save]].
+    */
+  def open(file: Path, rules: Seq[MethodRule], log: String => Unit): VerifyCache = {
+    val fp      = fingerprint(rules)
+    val entries = mutable.HashMap.empty[String, Entry]
+    if (Files.isRegularFile(file)) {
+      try {
+        val in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))
+        try {
+          if (in.readInt() != Magic || in.readInt() != FormatVersion) {
+            log(s"[info] Verify cache $file has an unknown format; rebuilding")
+          } else if (in.readUTF() != fp) {
+            log(s"[info] Rules changed since verify cache $file was written; rebuilding")
+          } else {
+            val n = in.readInt()
+            var i = 0
+            while (i < n) {
+              val key   = in.readUTF()
+              val hash  = in.readUTF()
+              val matchedRules = readInts(in).toSet
+              val classRules   = readInts(in).toSet
+              val matches      = readAll(in)
+              entries.put(key, Entry(hash, ClassScan(matches, matchedRules, classRules)))
+              i += 1
+            }
+          }
+        } finally in.close()
+      } catch {
+        case e: IOException =>
+          entries.clear()
+          log(s"[warn] Ignoring unreadable verify cache $file: ${e.getMessage}")
+      }
+    }
+    new VerifyCache(file, fp, entries)
+  }
+
+  /** Hash of the ordered rule list; cached rule ordinals are only meaningful under the same fingerprint.
+    *
+    * Covers what decides matches and their ids (mode, selectors, flags, predicates, id) but not where a
+    * rule was loaded from, so checkouts in different directories with the same rules agree.
+    */
+  def fingerprint(rules: Seq[MethodRule]): String = {
+    val md = MessageDigest.getInstance("SHA-256")
+    rules.foreach { r =>
+      val fields = Seq(
+        r.mode.toString,
+        r.wholeClass.toString,
+        r.cls.pattern,
+        r.method.pattern,
+        r.desc.pattern,
+        r.flags.toSeq.sorted.mkString(","),
+        r.retGlob.fold("")(_.pattern),
+        r.nameContains.getOrElse(""),
+        r.nameStarts.getOrElse(""),
+        r.nameEnds.getOrElse(""),
+        r.id.getOrElse("")
+      )
+      // Optional fields are written with a presence marker, so an absent predicate differs from an empty one.
+      val optional = Seq(r.retGlob, r.nameContains, r.nameStarts, r.nameEnds, r.id).map(o => if (o.isDefined) "1" else "0").mkString
+      md.update(((fields :+ optional).mkString("\t") + "\n").getBytes(StandardCharsets.UTF_8))
+    }
+    hex(md.digest())
+  }
+
+  private def sha256(bytes: Array[Byte]): String =
+    hex(MessageDigest.getInstance("SHA-256").digest(bytes))
+
+  private def hex(bytes: Array[Byte]): String = {
+    val sb = new StringBuilder(bytes.length * 2)
+    bytes.foreach(b => sb.append(f"${b & 0xff}%02x"))
+    sb.toString
+  }
+}
@@ -1,6 +1,5 @@
 package io.moranaapps.jacocomethodfilter
 
-import io.moranaapps.jacocomethodfilter.Compat._
 import org.objectweb.asm._
 
 import java.nio.file.{Files, Path}
@@ -20,14 +19,22 @@ final case class MatchedMethod(
                                  access: Int
                                )
 
+/** Result of a verify scan.
+  *
+  * @param matches Excluded and rescued methods; the scanner passes a [[MethodTable]], in which case
+  *                `matches` is already in report order
+  */
 final case class ScanResult(
                               classesScanned: Int,
                               totalMatched: Int,
                               matches: Seq[MatchedMethod],
                               unmatchedRules: Seq[MethodRule] = Seq.empty
                             ) {
-  def excludedMethods: Seq[MatchedMethod] = matches.filter(_.outcome == Excluded)
-  def rescuedMethods: Seq[MatchedMethod] = matches.filter(_.outcome == Rescued)
+  /** `matches` in the compact, class-grouped layout (built once, on first use, unless already a table). */
+  lazy val table: MethodTable = MethodTable(matches)
+
+  def excludedMethods: Seq[MatchedMethod] = table.excluded
+  def rescuedMethods: Seq[MatchedMethod] = table.rescued
 
   private def plural(n: Int, word: String): String = {
     val pluralForm = if (word == "class") "classes" else word + "s"
@@ -53,10 +60,9 @@ final case class ScanResult(
     val excluded = excludedMethods
     if (excluded.nonEmpty) {
       out(s"[verify] EXCLUDED (${plural(excluded.size, "method")}):")
-      val byClass = excluded.groupBy(_.fqcn).toSeq.sortBy(_._1)
-      byClass.foreach { case (fqcn, methods) =>
+      table.byClass(Excluded).foreach { case (fqcn, methods) =>
         out(s"[verify]   $fqcn")
-        methods.sortBy(m => (m.methodName, m.descriptor)).foreach { m =>
+        methods.foreach { m =>
           val ruleIdStr = if (m.exclusionIds.nonEmpty) {
             s"  rule-id:${m.exclusionIds.mkString(",")}"
           } else {
@@ -71,10 +77,9 @@ final case class ScanResult(
     val rescued = rescuedMethods
     if (rescued.nonEmpty) {
       out(s"[verify] RESCUED by include rules (${plural(rescued.size, "method")}):")
-      val byClass = rescued.groupBy(_.fqcn).toSeq.sortBy(_._1)
-      byClass.foreach { case (fqcn, methods) =>
+      table.byClass(Rescued).foreach { case (fqcn, methods) =>
         out(s"[verify]   $fqcn")
-        methods.sortBy(m => (m.methodName, m.descriptor)).foreach { m =>
+        methods.foreach { m =>
           val exclStr = if (m.exclusionIds.nonEmpty) m.exclusionIds.mkString(",") else "(no-id)"
           val inclStr = if (m.inclusionIds.nonEmpty) m.inclusionIds.mkString(",") else "(no-id)"
           out(s"[verify]     #${m.methodName}${m.descriptor}  excl:$exclStr → incl:$inclStr")
@@ -110,9 +115,9 @@ final case class ScanResult(
     val lines    = scala.collection.mutable.ArrayBuffer.empty[String]
     if (excluded.nonEmpty) {
       lines += s"EXCLUDED (${plural(excluded.size, "method")}):"
-      excluded.groupBy(_.fqcn).toSeq.sortBy(_._1).foreach { case (fqcn, methods) =>
+      table.byClass(Excluded).foreach { case (fqcn, methods) =>
         lines += s"  $fqcn"
-        methods.sortBy(m => (m.methodName, m.descriptor)).foreach { m =>
+        methods.foreach { m =>
           val ruleIdStr = if (m.exclusionIds.nonEmpty) s"  rule-id:${m.exclusionIds.mkString(",")}" else ""
           lines += s"    #${m.methodName}${m.descriptor}$ruleIdStr"
         }
@@ -121,9 +126,9 @@ final case class ScanResult(
     }
     if (rescued.nonEmpty) {
       lines += s"RESCUED by include rules (${plural(rescued.size, "method")}):"
-      rescued.groupBy(_.fqcn).toSeq.sortBy(_._1).foreach { case (fqcn, methods) =>
+      table.byClass(Rescued).foreach { case (fqcn, methods) =>
         lines += s"  $fqcn"
-        methods.sortBy(m => (m.methodName, m.descriptor)).foreach { m =>
+        methods.foreach { m =>
           val exclStr = if (m.exclusionIds.nonEmpty) m.exclusionIds.mkString(",") else "(no-id)"
           val inclStr = if (m.inclusionIds.nonEmpty) m.inclusionIds.mkString(",") else "(no-id)"
           lines += s"    #${m.methodName}${m.descriptor}  excl:$exclStr \u2192 incl:$inclStr"
@@ -153,8 +158,8 @@ final case class ScanResult(
     def str(s: String): String = s""""${esc(s)}""""
     def strArr(seq: Seq[String]): String = seq.map(str).mkString("[", ", ", "]")
 
-    val excluded = excludedMethods.sortBy(m => (m.fqcn, m.methodName, m.descriptor))
-    val rescued  = rescuedMethods.sortBy(m => (m.fqcn, m.methodName, m.descriptor))
+    val excluded = excludedMethods
+    val rescued  = rescuedMethods
 
     def excludedEntry(m: MatchedMethod): String =
       s"""    {"class": ${str(m.fqcn)}, "method": ${str(m.methodName)}, "descriptor": ${str(m.descriptor)}, "exclusionRuleIds": ${strArr(m.exclusionIds)}}"""
@@ -189,8 +194,8 @@ final case class ScanResult(
     def cell(s: String): String =
       if (s.exists(c => c == ',' || c == '"' || c == '\n')) s""""${s.replace("\"", "\"\"")}"""" else s
 
-    val excluded = excludedMethods.sortBy(m => (m.fqcn, m.methodName, m.descriptor))
-    val rescued  = rescuedMethods.sortBy(m => (m.fqcn, m.methodName, m.descriptor))
+    val excluded = excludedMethods
+    val rescued  = rescuedMethods
     val sb       = new StringBuilder
     sb.append("outcome,class,method,descriptor,exclusionRuleIds,inclusionRuleIds\n")
     excluded.foreach { m =>
@@ -208,58 +213,135 @@ final case class ScanResult(
   }
 }
 
+/** Verify outcome of one class file.
+  *
+  * Rules are referenced by their position in the rule list, so a result can be cached and replayed
+  * as long as the rule list (see [[VerifyCache.fingerprint]]) is unchanged.
+  *
+  * @param matches Excluded and rescued methods of the class
+  * @param matchedRules Ordinals of rules that matched at least one method
+  * @param classRules Ordinals of rules whose class selector matches the class
+  */
+final case class ClassScan(matches: Seq[MatchedMethod], matchedRules: Set[Int], classRules: Set[Int])
+
 object VerifyScanner {
-  def scan(classesDir: Path, rules: Seq[MethodRule]): ScanResult = {
-    var classesScanned = 0
-    val matchedMethods = mutable.ListBuffer.empty[MatchedMethod]
-    // Track every rule that matched at least one method during the scan.
-    // Uses reference identity via case-class equals (Pattern fields use reference equals).
-    val matchedRuleSet = mutable.HashSet.empty[MethodRule]
-
-    using(Files.walk(classesDir)) { stream =>
-      val it = stream.iterator().asScala
-      for {
-        p <- it
-        if Files.isRegularFile(p) && p.toString.endsWith(".class")
-      } {
-        classesScanned += 1
-        val inBytes = Files.readAllBytes(p)
-        val cr = new ClassReader(inBytes)
-
-        var fqcnDots = ""
-        val cv = new ClassVisitor(Opcodes.ASM9) {
-          override def visit(version: Int, access: Int, name: String, signature: String, superName: String, interfaces: Array[String]): Unit = {
-            fqcnDots = name.replace('/', '.')
-            super.visit(version, access, name, signature, superName, interfaces)
-          }
+  /** Scan every class file under `classesDir`. */
+  def scan(classesDir: Path, rules: Seq[MethodRule]): ScanResult =
+    scanFiles(ClassFiles.discover(classesDir), rules, scopeUnmatched = false)
 
-          override def visitMethod(access: Int, name: String, desc: String, signature: String, exceptions: Array[String]): MethodVisitor = {
-            // Use RuleResolver to determine outcome
-            val resolution = RuleResolver.resolve(rules, fqcnDots, name, desc, access)
-
-            // Track every rule that matched this method (regardless of outcome).
-            matchedRuleSet ++= resolution.exclusions
-            matchedRuleSet ++= resolution.inclusions
-
-            if (resolution.shouldExclude) {
-              val exclusionIds = resolution.exclusions.flatMap(_.id)
-              matchedMethods += MatchedMethod(fqcnDots, name, desc, Excluded, exclusionIds, Seq.empty, access)
-            } else if (resolution.isRescued) {
-              val exclusionIds = resolution.exclusions.flatMap(_.id)
-              val inclusionIds = resolution.inclusions.flatMap(_.id)
-              matchedMethods += MatchedMethod(fqcnDots, name, desc, Rescued, exclusionIds, inclusionIds, access)
-            }
-            null // We don't need to visit method body
-          }
-        }
+  /** Scan the given class files.
+    *
+    * @param scopeUnmatched if true (targeted runs), only rules whose class selector matches at least one
+    *                       scanned class can be reported as unmatched; rules aimed at classes outside the
+    *                       work list say nothing about whether they are stale
+    * @param cache optional cache of per-class results; unchanged classes are not parsed again
+    */
+  def scanFiles(
+    files: Seq[Path],
+    rules: Seq[MethodRule],
+    scopeUnmatched: Boolean,
+    cache: Option[VerifyCache] = None
+  ): ScanResult =
+    scanFiles(files, RuleIndex(rules), scopeUnmatched, cache)
+
+  /** Same as above with a rule index the caller already built. */
+  def scanFiles(
+    files: Seq[Path],
+    index: RuleIndex,
+    scopeUnmatched: Boolean,
+    cache: Option[VerifyCache]
+  ): ScanResult = {
+    val (table, matchedRules, inScopeRules) = collect(files, index, scopeUnmatched, cache)
+    ScanResult(files.size, table.size, table, unmatchedRules(index.rules, matchedRules, inScopeRules))
+  }
 
-        cr.accept(cv, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES)
+  /** Scan one shard's class files into a result that [[ShardResult.merge]] combines with the other shards. */
+  def scanShard(
+    files: Seq[Path],
+    index: RuleIndex,
+    scopeUnmatched: Boolean,
+    cache: Option[VerifyCache],
+    shard: Shard
+  ): ShardResult = {
+    val (table, matchedRules, inScopeRules) = collect(files, index, scopeUnmatched, cache)
+    ShardResult(shard, VerifyCache.fingerprint(index.rules), files.size, table, matchedRules, inScopeRules)
+  }
+
+  /** Matched methods, ordinals of matched rules and, if `scopeUnmatched`, ordinals of rules in scope. */
+  private def collect(
+    files: Seq[Path],
+    index: RuleIndex,
+    scopeUnmatched: Boolean,
+    cache: Option[VerifyCache]
+  ): (MethodTable, collection.BitSet, Option[collection.BitSet]) = {
+    val matchedMethods = MethodTable.newBuilder
+    // Rules are tracked by ordinal so per-class results stay valid across runs with the same rule list.
+    val matchedRules = mutable.BitSet.empty
+    // Rules whose class selector matched a scanned class (only consulted when scopeUnmatched).
+    val inScopeRules = mutable.BitSet.empty
+
+    files.foreach { p =>
+      val result = cache match {
+        case Some(c) => c.getOrElseUpdate(p)(scanClass(_, index))
+        case None    => scanClass(Files.readAllBytes(p), index)
       }
+      matchedMethods ++= result.matches
+      matchedRules ++= result.matchedRules
+      if (scopeUnmatched) inScopeRules ++= result.classRules
+    }
+    (matchedMethods.result(), matchedRules, if (scopeUnmatched) Some(inScopeRules) else None)
+  }
+
+  /** Rules that never produced a match and are not marked forward-compat.
+    *
+    * @param inScope if defined, only these rules can be unmatched (targeted runs)
+    */
+  private[jacocomethodfilter] def unmatchedRules(
+    rules: Seq[MethodRule],
+    matched: collection.BitSet,
+    inScope: Option[collection.BitSet]
+  ): Seq[MethodRule] =
+    rules.zipWithIndex.collect {
+      case (r, i) if inScope.forall(_(i)) && !matched(i) && !r.forwardCompat => r
     }
 
-    // Rules that never produced a match and are not marked forward-compat.
-    val unmatchedRules = rules.filterNot(r => matchedRuleSet.contains(r) || r.forwardCompat)
+  /** Resolve every method of one class file against the rules of `index`. */
+  def scanClass(bytes: Array[Byte], index: RuleIndex): ClassScan = {
+    val matches      = mutable.ListBuffer.empty[MatchedMethod]
+    val matchedRules = mutable.BitSet.empty
+    val cr = new ClassReader(bytes)
+
+    var fqcnDots = ""
+    var classRules: IndexedSeq[Int] = Vector.empty
+    val cv = new ClassVisitor(Opcodes.ASM9) {
+      override def visit(version: Int, access: Int, name: String, signature: String, superName: String, interfaces: Array[String]): Unit = {
+        fqcnDots = name.replace('/', '.')
+        // Rules that cannot match this class are dropped once, not re-checked per method.
+        classRules = index.forClass(fqcnDots)
+        super.visit(version, access, name, signature, superName, interfaces)
+      }
+
+      override def visitMethod(access: Int, name: String, desc: String, signature: String, exceptions: Array[String]): MethodVisitor = {
+        val hits = index.matching(classRules, name, desc, access)
+
+        // Track every rule that matched this method (regardless of outcome).
+        matchedRules ++= hits
+
+        val matched    = hits.map(index.rules)
+        val resolution = Resolution(matched.filter(_.mode == Exclude), matched.filter(_.mode == Include))
+        if (resolution.shouldExclude) {
+          val exclusionIds = resolution.exclusions.flatMap(_.id)
+          matches += MatchedMethod(fqcnDots, name, desc, Excluded, exclusionIds, Seq.empty, access)
+        } else if (resolution.isRescued) {
+          val exclusionIds = resolution.exclusions.flatMap(_.id)
+          val inclusionIds = resolution.inclusions.flatMap(_.id)
+          matches += MatchedMethod(fqcnDots, name, desc, Rescued, exclusionIds, inclusionIds, access)
+        }
+        null // We don't need to visit method body
+      }
+    }
 
-    ScanResult(classesScanned, matchedMethods.size, matchedMethods.toSeq, unmatchedRules)
+    cr.accept(cv, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES)
+    ClassScan(matches.toList, matchedRules.toSet, classRules.toSet)
   }
 }
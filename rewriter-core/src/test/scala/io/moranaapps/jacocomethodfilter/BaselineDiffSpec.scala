@@ -0,0 +1,74 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.scalatest.funsuite.AnyFunSuite
+import TestSupport._
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+import scala.collection.mutable
+
+class BaselineDiffSpec extends AnyFunSuite {
+
+  private def method(cls: String, name: String, outcome: MethodOutcome = Excluded, desc: String = "()V") =
+    MatchedMethod(cls, name, desc, outcome, Seq("r"), Seq.empty, access(public = true))
+
+  private val legacyRule = Rules.parseLine("com.legacy.*#run(*) id:legacy-run").toSeq
+
+  private val baseline = ScanResult(3, 3, Seq(
+    method("com.a.User", "copy"),
+    method("com.a.User", "apply"),
+    method("com.b.Keep", "copy", Rescued),
+    method("com.c.Odd", "f", desc = "(Ljava/lang/String;)Lscala/Tuple2<A,B>;")
+  ))
+
+  private def saved(format: String): Path = {
+    val file = Files.createTempFile("jmf-baseline-", s".$format")
+    file.toFile.deleteOnExit()
+    if (format == "bin") BinaryReport.write(baseline, file)
+    else Files.write(file, baseline.formatReport(format).getBytes(StandardCharsets.UTF_8))
+    file
+  }
+
+  private def diff(current: ScanResult, file: Path): (BaselineDiff, Seq[String]) = {
+    val lines = mutable.ListBuffer.empty[String]
+    val d     = BaselineDiff.compare(current, file, lines += _)
+    (d, lines.toList)
+  }
+
+  Seq("csv", "bin").foreach { format =>
+    test(s"identical result matches a $format baseline") {
+      val (d, lines) = diff(baseline.copy(matches = baseline.matches.reverse), saved(format))
+      assert(d.isEmpty, lines.mkString("\n"))
+    }
+
+    test(s"added, removed and changed-outcome methods against a $format baseline") {
+      val current = ScanResult(3, 3, Seq(
+        method("com.a.User", "copy"),
+        method("com.a.User", "equals"),
+        method("com.b.Keep", "copy"),
+        method("com.c.Odd", "f", desc = "(Ljava/lang/String;)Lscala/Tuple2<A,B>;")
+      ), legacyRule)
+      val (d, lines) = diff(current, saved(format))
+      assert(d == BaselineDiff(added = 2, removed = 2, newlyUnmatched = 1))
+      assert(lines.toSet == Set(
+        "[baseline] + EXCLUDED com.a.User#equals()V",
+        "[baseline] - EXCLUDED com.a.User#apply()V",
+        "[baseline] + EXCLUDED com.b.Keep#copy()V",
+        "[baseline] - RESCUED com.b.Keep#copy()V",
+        "[baseline] + UNMATCHED com.legacy.*#run(*)  id:legacy-run"))
+    }
+  }
+
+  test("rules already unmatched in the baseline are not reported again") {
+    val file = Files.createTempFile("jmf-baseline-", ".csv")
+    file.toFile.deleteOnExit()
+    val withUnmatched = baseline.copy(unmatchedRules = legacyRule)
+    Files.write(file, withUnmatched.formatReport("csv").getBytes(StandardCharsets.UTF_8))
+    assert(diff(withUnmatched, file)._1.isEmpty)
+  }
+
+  test("txt and json reports are rejected as baselines") {
+    assertThrows[java.io.IOException](diff(baseline, saved("txt")))
+    assertThrows[java.io.IOException](diff(baseline, saved("json")))
+  }
+}
@@ -0,0 +1,85 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.scalatest.funsuite.AnyFunSuite
+import TestSupport._
+
+import java.nio.file.Files
+import scala.collection.mutable
+
+class BinaryReportSpec extends AnyFunSuite {
+
+  private def excluded(cls: String, name: String, ids: String*) =
+    MatchedMethod(cls, name, "()V", Excluded, ids, Seq.empty, access(public = true))
+
+  private val result = ScanResult(
+    classesScanned = 4,
+    totalMatched = 5,
+    matches = Seq(
+      excluded("com.example.model.User", "copy", "case-copy"),
+      excluded("com.example.model.User", "apply", "case-apply"),
+      excluded("com.example.model.sub.Address", "copy", "case-copy"),
+      excluded("com.examples.Other", "copy", "case-copy"),
+      MatchedMethod("com.example.model.Keep", "copy", "()V", Rescued, Seq("case-copy"), Seq("keep"), access(public = true))
+    ),
+    unmatchedRules = Rules.parseLine("com.legacy.*#run(*) id:legacy-run").toSeq
+  )
+
+  private def withReport(f: BinaryReport => Unit): Unit = {
+    val file = Files.createTempFile("jmf-report-", ".bin")
+    try {
+      BinaryReport.write(result, file)
+      f(BinaryReport.open(file))
+    } finally Files.deleteIfExists(file)
+  }
+
+  private def names(ms: Seq[MatchedMethod]) = ms.map(m => s"${m.fqcn}#${m.methodName}")
+
+  test("round trip keeps every method and the unmatched rules") {
+    withReport { report =>
+      assert(report.classesScanned == 4)
+      assert(report.query().toSet == result.matches.toSet)
+      assert(report.unmatchedRules == Seq(UnmatchedRuleEntry("com.legacy.*#run(*)", Some("legacy-run"), "")))
+    }
+  }
+
+  test("rule and package filters combine") {
+    withReport { report =>
+      assert(names(report.query(rule = Some("case-copy"), pkg = Some("com.example.model"))) == Seq(
+        "com.example.model.Keep#copy", "com.example.model.User#copy", "com.example.model.sub.Address#copy"))
+      assert(names(report.query(rule = Some("case-copy"), pkg = Some("com.example"), outcome = Some(Excluded))) == Seq(
+        "com.example.model.User#copy", "com.example.model.sub.Address#copy"))
+      assert(report.query(rule = Some("no-such-rule")).isEmpty)
+    }
+  }
+
+  test("class, inclusion rule and outcome lookups") {
+    withReport { report =>
+      assert(names(report.query(cls = Some("com.example.model.User"))) == Seq("com.example.model.User#apply", "com.example.model.User#copy"))
+      assert(report.query(cls = Some("com.example.model.Use")).isEmpty)
+      assert(names(report.query(rule = Some("keep"))) == Seq("com.example.model.Keep#copy"))
+      assert(report.byOutcome(Rescued).size == 1)
+      assert(report.byOutcome(Excluded).size == 4)
+    }
+  }
+
+  test("query subcommand prints matching methods") {
+    val file = Files.createTempFile("jmf-report-", ".bin")
+    try {
+      BinaryReport.write(result, file)
+      val lines = mutable.ArrayBuffer.empty[String]
+      val code = ReportQuery.run(Array(file.toString, "--package", "com/examples", "--outcome", "excluded"),
+        new java.util.function.Consumer[String] { def accept(line: String): Unit = lines += line })
+      assert(code == 0)
+      assert(lines.head == "EXCLUDED com.examples.Other#copy()V  rule-id:case-copy")
+      assert(lines.last.startsWith("[info] 1 method(s) matched of 5"))
+
+      assert(ReportQuery.run(Array(file.toString, "--unmatched", "--rule", "x"),
+        new java.util.function.Consumer[String] { def accept(line: String): Unit = () }) == 2)
+    } finally Files.deleteIfExists(file)
+  }
+
+  test("open rejects files that are not binary reports") {
+    val file = write(tmpFile(), Seq("EXCLUDED (1 method):"))
+    assertThrows[java.io.IOException](BinaryReport.open(file))
+  }
+}
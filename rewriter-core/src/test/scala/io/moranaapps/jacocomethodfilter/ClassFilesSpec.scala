@@ -0,0 +1,85 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.objectweb.asm.Opcodes
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.nio.file.{Files, Path}
+import scala.collection.mutable
+import TestSupport._
+
+class ClassFilesSpec extends AnyFunSuite {
+
+  private def withClasses(f: Path => Unit): Unit = {
+    withTempDir("jmf-classes-") { root =>
+      createTestClass(root, "com.example.Foo", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(root, "com.example.Foo$", Seq(("apply", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(root, "com.example.Foo$Inner", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(root, "com.example.FooBar", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      f(root)
+    }
+  }
+
+  private def names(root: Path, files: Seq[Path]): Seq[String] =
+    files.map(p => root.relativize(p).toString.replace('\\', '/'))
+
+  test("discover finds every class file") {
+    withClasses { root =>
+      assert(ClassFiles.discover(root).size == 4)
+    }
+  }
+
+  test("discover walks nested packages, skips other files and returns a sorted list") {
+    withClasses { root =>
+      createTestClass(root, "com.example.deep.pkg.Z", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(root, "A", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      write(root.resolve("com/example/notes.txt"), Seq("not a class"))
+      Files.createDirectories(root.resolve("empty/dir.class"))
+
+      val found = names(root, ClassFiles.discover(root))
+      assert(found.size == 6)
+      assert(found.contains("com/example/deep/pkg/Z.class"))
+      assert(found == found.sorted)
+    }
+  }
+
+  test("Directories creates each output directory once") {
+    withTempDir("jmf-dirs-") { root =>
+      val dirs   = new ClassFiles.Directories
+      val target = root.resolve("a/b/c")
+      dirs.ensure(target)
+      assert(Files.isDirectory(target))
+      deleteRecursively(root.resolve("a"))
+      dirs.ensure(target) // remembered: not created again
+      assert(!Files.exists(target))
+    }
+  }
+
+  test("class name selects the class with its nested and companion classes") {
+    withClasses { root =>
+      val files = ClassFiles.resolve(Seq("com.example.Foo"), root, _ => ())
+      assert(names(root, files) == Seq("com/example/Foo.class", "com/example/Foo$.class", "com/example/Foo$Inner.class"))
+    }
+  }
+
+  test("class file paths resolve against the root or as absolute paths") {
+    withClasses { root =>
+      val abs   = root.resolve("com/example/FooBar.class").toAbsolutePath.toString
+      val files = ClassFiles.resolve(Seq("com/example/Foo.class", abs, "com/example/Foo.class"), root, _ => ())
+      assert(names(root, files) == Seq("com/example/Foo.class", "com/example/FooBar.class"))
+      files.foreach(p => assert(!root.relativize(p).toString.startsWith("..")))
+    }
+  }
+
+  test("blank lines and comments are ignored; unknown and outside entries warn") {
+    withClasses { root =>
+      val warnings = mutable.ArrayBuffer.empty[String]
+      val outside  = Files.createTempFile("jmf-outside-", ".class")
+      try {
+        val files = ClassFiles.resolve(Seq("", "  # changed in this PR", "com.example.Missing", outside.toString), root, warnings += _)
+        assert(files.isEmpty)
+        assert(warnings.size == 2)
+        assert(warnings.forall(_.startsWith("[warn]")))
+      } finally Files.deleteIfExists(outside)
+    }
+  }
+}
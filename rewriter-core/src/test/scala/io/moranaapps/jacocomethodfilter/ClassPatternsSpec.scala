@@ -0,0 +1,38 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.nio.file.Paths
+
+class ClassPatternsSpec extends AnyFunSuite {
+
+  test("patterns follow JaCoCo agent semantics on dotted class names") {
+    val p = ClassPatterns(Some("com.example.*:org.demo.Main"), Some("*Test:*$$anon*:com.example.gen?.*"))
+
+    assert(p.accepts("com.example.Service"))
+    assert(p.accepts("com.example.deep.nested.Service$Inner"), "* spans package separators")
+    assert(p.accepts("org.demo.Main"))
+    assert(!p.accepts("org.demo.MainTest"))
+    assert(!p.accepts("com.example.ServiceTest"))
+    assert(!p.accepts("com.example.Service$$anon$1"))
+    assert(!p.accepts("com.example.gen1.Dto"))
+    assert(p.accepts("com.example.gen12.Dto"), "? is exactly one character")
+    assert(!p.accepts("net.other.Thing"))
+  }
+
+  test("missing or wildcard-only includes without excludes accept everything") {
+    assert(ClassPatterns.all.acceptsAll)
+    assert(ClassPatterns(Some("**"), None).acceptsAll)
+    assert(ClassPatterns(Some("*"), Some("")).acceptsAll)
+    assert(!ClassPatterns(None, Some("scala.*")).acceptsAll)
+    assert(!ClassPatterns(Some(""), None).accepts("a.B"), "an empty include list selects nothing")
+  }
+
+  test("class names come from the class file path under the root") {
+    val root = Paths.get("target", "classes")
+    val p    = ClassPatterns(Some("com.example.*"), Some("com.example.Skip"))
+    assert(p.accepts(root, root.resolve("com/example/Keep.class")))
+    assert(!p.accepts(root, root.resolve("com/example/Skip.class")))
+    assert(!p.accepts(root, root.resolve("org/Other.class")))
+  }
+}
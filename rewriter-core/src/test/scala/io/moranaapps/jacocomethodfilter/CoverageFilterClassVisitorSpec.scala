@@ -0,0 +1,142 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.objectweb.asm.{AnnotationVisitor, ClassReader, ClassVisitor, ClassWriter, FieldVisitor, MethodVisitor, Opcodes}
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.nio.file.{Files, Path}
+import TestSupport._
+
+class CoverageFilterClassVisitorSpec extends AnyFunSuite {
+
+  private def classBytes(fqcn: String, methods: Seq[(String, String, Int)]): Array[Byte] = {
+    withTempDir("jmf-visitor-") { dir =>
+      createTestClass(dir, fqcn, methods)
+      Files.readAllBytes(dir.resolve(fqcn.replace('.', '/') + ".class"))
+    }
+  }
+
+  /** Marked method names, and whether the class itself is marked. */
+  private def marks(bytes: Array[Byte]): (Set[String], Boolean) = {
+    var methods = Set.empty[String]
+    var cls     = false
+    new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM9) {
+      override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
+        if (descriptor == CoverageGenerated.AnnotationDescriptor) cls = true
+        null
+      }
+
+      override def visitMethod(access: Int, name: String, desc: String, signature: String, exceptions: Array[String]): MethodVisitor =
+        new MethodVisitor(Opcodes.ASM9) {
+          override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
+            if (descriptor == CoverageGenerated.AnnotationDescriptor) methods += name
+            null
+          }
+        }
+    }, 0)
+    (methods, cls)
+  }
+
+  test("chained behind another pass, the visitor marks in the same parse") {
+    val in    = classBytes("test.Service", Seq(("copy", "()V", Opcodes.ACC_PUBLIC), ("run", "()V", Opcodes.ACC_PUBLIC)))
+    val index = RuleIndex(rules("*#copy(*) id:copy"))
+    // Stand-in for another pass: renames the class.
+    val cw      = new ClassWriter(0)
+    val visitor = new CoverageFilterClassVisitor(cw, index)
+    new ClassReader(in).accept(new ClassVisitor(Opcodes.ASM9, visitor) {
+      override def visit(version: Int, access: Int, name: String, signature: String, superName: String, interfaces: Array[String]): Unit =
+        super.visit(version, access, "test/Renamed", signature, superName, interfaces)
+    }, 0)
+    val out = cw.toByteArray
+
+    assert(new ClassReader(out).getClassName == "test/Renamed")
+    assert(marks(out) == ((Set("copy"), false)))
+    assert(visitor.markedMethods == 1 && !visitor.classMarked)
+  }
+
+  test("the visitor marks a class whose methods are all excluded, and never marks twice") {
+    val in    = classBytes("gen.Foo", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+    val index = RuleIndex(rules("gen.*#<class> id:gen"))
+    val once  = new CoverageFilterTransformer(index).transform(in)
+    assert(marks(once) == ((Set("<init>", "run"), true)))
+
+    val cw      = new ClassWriter(0)
+    val visitor = new CoverageFilterClassVisitor(cw, index)
+    new ClassReader(once).accept(visitor, 0)
+    assert(visitor.markedMethods == 0 && !visitor.classMarked)
+    assert(marks(cw.toByteArray) == ((Set("<init>", "run"), true)))
+  }
+
+  test("the transformer returns unmatched classes as they are and matches the rewriter's output") {
+    val transformer = new CoverageFilterTransformer(rules("*#copy(*) id:copy"))
+    val untouched   = classBytes("test.Other", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+    assert(transformer.transform(untouched) eq untouched)
+
+    withTempDir("jmf-transformer-") { work =>
+      val in: Path = work.resolve("in")
+      createTestClass(in, "test.Matched", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      val rulesFile = write(work.resolve("rules.txt"), Seq("*#copy(*) id:copy"))
+      val out       = work.resolve("out")
+      assert(CoverageRewriter.run(Array("--in", in.toString, "--out", out.toString, "--local-rules", rulesFile.toString)) == 0)
+
+      val rewritten = Files.readAllBytes(out.resolve("test/Matched.class"))
+      assert(transformer.transform(Files.readAllBytes(in.resolve("test/Matched.class"))).toSeq == rewritten.toSeq)
+      assert(marks(rewritten) == ((Set("copy"), false)))
+    }
+  }
+
+  /** Fails on annotations that ASM's visit order does not allow: on the class after a member, on a method after its code. */
+  private final class OrderCheck(next: ClassVisitor) extends ClassVisitor(Opcodes.ASM9, next) {
+    private var membersSeen = false
+
+    override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
+      assert(!membersSeen, s"class annotation $descriptor after a member")
+      super.visitAnnotation(descriptor, visible)
+    }
+
+    override def visitField(access: Int, name: String, descriptor: String, signature: String, value: AnyRef): FieldVisitor = {
+      membersSeen = true
+      super.visitField(access, name, descriptor, signature, value)
+    }
+
+    override def visitMethod(access: Int, name: String, desc: String, signature: String, exceptions: Array[String]): MethodVisitor = {
+      membersSeen = true
+      new MethodVisitor(Opcodes.ASM9, super.visitMethod(access, name, desc, signature, exceptions)) {
+        private var codeSeen = false
+
+        override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
+          assert(!codeSeen, s"annotation $descriptor on $name after its code")
+          super.visitAnnotation(descriptor, visible)
+        }
+
+        override def visitCode(): Unit = {
+          codeSeen = true
+          super.visitCode()
+        }
+      }
+    }
+  }
+
+  test("the visitor emits annotations where ASM's visit order allows them") {
+    withTempDir("jmf-visitor-order-") { dir =>
+      createTestClass(dir, "gen.Foo", Seq(("run", "()V", Opcodes.ACC_PUBLIC), ("copy", "()V", Opcodes.ACC_PUBLIC)))
+      // A field ahead of the methods: the class annotation must still precede it.
+      val cw0 = new ClassWriter(0)
+      new ClassReader(Files.readAllBytes(dir.resolve("gen/Foo.class"))).accept(new ClassVisitor(Opcodes.ASM9, cw0) {
+        override def visit(version: Int, access: Int, name: String, signature: String, superName: String, interfaces: Array[String]): Unit = {
+          super.visit(version, access, name, signature, superName, interfaces)
+          super.visitField(Opcodes.ACC_PRIVATE, "state", "I", null, null).visitEnd()
+        }
+      }, 0)
+      val in = cw0.toByteArray
+
+      Seq("gen.*#<class> id:gen", "*#copy(*) id:copy").foreach { rule =>
+        val cw      = new ClassWriter(0)
+        val visitor = new CoverageFilterClassVisitor(new OrderCheck(cw), RuleIndex(rules(rule)))
+        new ClassReader(in).accept(visitor, 0)
+        assert(marks(cw.toByteArray) == marks(new CoverageFilterTransformer(rules(rule)).transform(in)), rule)
+        assert(visitor.markedMethods > 0, rule)
+      }
+      new ClassReader(new CoverageFilterTransformer(rules("gen.*#<class> id:gen")).transform(in)).accept(new OrderCheck(null), 0)
+    }
+  }
+}
@@ -0,0 +1,199 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.jacoco.core.data.{ExecutionData, ExecutionDataWriter, SessionInfo}
+import org.objectweb.asm.Opcodes
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.io.{File, FileOutputStream}
+import java.nio.file.{Files, Path}
+import scala.collection.mutable
+import TestSupport._
+
+class CoverageReportSpec extends AnyFunSuite {
+
+  private def withDirs(f: (Path, Path) => Unit): Unit =
+    withTempDir("jmf-report-") { work =>
+      f(Files.createDirectories(work.resolve("classes")), Files.createDirectories(work.resolve("out")))
+    }
+
+  private def writeExecFile(file: Path, session: String = "spec", data: Seq[ExecutionData] = Nil): Path = {
+    val os = new FileOutputStream(file.toFile)
+    try {
+      val writer = new ExecutionDataWriter(os)
+      writer.visitSessionInfo(new SessionInfo(session, 0L, 0L))
+      data.foreach(writer.visitClassExecution)
+    } finally os.close()
+    file
+  }
+
+  private def runReport(args: String*): (Int, Seq[String]) = {
+    val lines = mutable.ArrayBuffer.empty[String]
+    val code = CoverageReport.run(args.toArray, new java.util.function.Consumer[String] {
+      def accept(line: String): Unit = lines += line
+    })
+    (code, lines.toList)
+  }
+
+  private def read(file: Path): String = new String(Files.readAllBytes(file), "UTF-8")
+
+  test("report writes html, xml and csv in one pass") {
+    withDirs { (classes, out) =>
+      createTestClass(classes, "test.A", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(classes, "test.pkg.B", Seq(("go", "()I", Opcodes.ACC_PUBLIC)))
+      val exec = writeExecFile(out.resolve("jacoco.exec"))
+
+      val (code, log) = runReport(
+        exec.toString,
+        "--classfiles", classes.toString,
+        "--html", out.resolve("html").toString,
+        "--xml", out.resolve("xml/report.xml").toString,
+        "--csv", out.resolve("report.csv").toString,
+        "--name", "Spec Report",
+        "--threads", "2")
+
+      assert(code == 0, log.mkString("\n"))
+      assert(Files.exists(out.resolve("html/index.html")))
+      assert(read(out.resolve("xml/report.xml")).contains("name=\"Spec Report\""))
+      val csv = read(out.resolve("report.csv"))
+      assert(csv.contains("test,A,") && csv.contains("test.pkg,B,"))
+    }
+  }
+
+  test("an --overlay shadows the classes of the directory it overlays") {
+    withDirs { (classes, out) =>
+      val base    = Files.createDirectories(classes.resolve("base"))
+      val overlay = Files.createDirectories(classes.resolve("overlay"))
+      val rules   = write(out.resolve("rules.txt"), Seq("*#copy(*) id:copy"))
+      createTestClass(base, "test.A", Seq(("copy", "()V", Opcodes.ACC_PUBLIC), ("run", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(base, "test.B", Seq(("other", "()V", Opcodes.ACC_PUBLIC)))
+
+      CoverageRewriter.main(Array("--in", base.toString, "--out", overlay.toString, "--local-rules", rules.toString, "--overlay"))
+
+      val xml = out.resolve("report.xml")
+      val (code, log) = runReport(
+        "--overlay", overlay.toString + File.pathSeparator + base.toString,
+        "--xml", xml.toString)
+
+      assert(code == 0, log.mkString("\n"))
+      val report = read(xml)
+      assert(report.contains("method name=\"run\""))
+      assert(report.contains("method name=\"other\""))
+      assert(!report.contains("method name=\"copy\""), "annotated method must be filtered from the report")
+    }
+  }
+
+  test("separate --classfiles directories never shadow each other") {
+    withDirs { (classes, out) =>
+      val m1 = Files.createDirectories(classes.resolve("m1"))
+      val m2 = Files.createDirectories(classes.resolve("m2"))
+      createTestClass(m1, "test.A", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(m2, "test.A", Seq(("other", "()V", Opcodes.ACC_PUBLIC)))
+
+      val (code, log) = runReport("--classfiles", m1.toString, "--classfiles", m2.toString,
+        "--xml", out.resolve("r.xml").toString)
+
+      assert(code == 1)
+      assert(log.exists(_.contains("Can't add different class with same name")), log.mkString("\n"))
+    }
+  }
+
+  test("rules applied during analysis give the same report as rewritten classes") {
+    withDirs { (classes, out) =>
+      val base      = Files.createDirectories(classes.resolve("base"))
+      val rewritten = Files.createDirectories(classes.resolve("rewritten"))
+      val rules     = write(out.resolve("rules.txt"), Seq("*#copy(*) id:copy", "test.gen.*#<class> id:gen", "*#*(*) synthetic id:syn"))
+      createTestClass(base, "test.A", Seq(("copy", "()V", Opcodes.ACC_PUBLIC), ("run", "()V", Opcodes.ACC_PUBLIC),
+        ("lambda$0", "()V", Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC)))
+      createTestClass(base, "test.gen.B", Seq(("other", "()V", Opcodes.ACC_PUBLIC)))
+      val exec = writeExecFile(out.resolve("jacoco.exec"))
+
+      CoverageRewriter.main(Array("--in", base.toString, "--out", rewritten.toString, "--local-rules", rules.toString))
+
+      val fromRewrite = out.resolve("rewrite.xml")
+      val fromRules   = out.resolve("rules.xml")
+      val (c1, log1) = runReport(exec.toString, "--classfiles", rewritten.toString, "--xml", fromRewrite.toString)
+      val (c2, log2) = runReport(exec.toString, "--classfiles", base.toString, "--xml", fromRules.toString,
+        "--local-rules", rules.toString)
+
+      assert(c1 == 0, log1.mkString("\n"))
+      assert(c2 == 0, log2.mkString("\n"))
+      assert(read(fromRules) == read(fromRewrite))
+      assert(read(fromRules).contains("method name=\"run\""))
+      assert(!read(fromRules).contains("method name=\"copy\""))
+      assert(read(fromRules).contains("<class name=\"test/gen/B\"/>"))
+      assert(log2.contains("[info] Excluded 4 method(s) matched by rules from the report"), log2.mkString("\n"))
+    }
+  }
+
+  test("report fails on an invalid rules file") {
+    withDirs { (classes, out) =>
+      createTestClass(classes, "test.A", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      val rules = write(out.resolve("rules.txt"), Seq("com.example.Foo#<class>(*) id:bad"))
+      val (code, log) = runReport("--classfiles", classes.toString, "--xml", out.resolve("r.xml").toString,
+        "--local-rules", rules.toString)
+      assert(code == 1)
+      assert(log.exists(_.startsWith("[error] Invalid rules:")), log.mkString("\n"))
+    }
+  }
+
+  test("report rejects missing --classfiles") {
+    val (code, _) = runReport("--xml", "report.xml")
+    assert(code == 2)
+  }
+
+  test("report subcommand parses JaCoCo CLI style arguments") {
+    val cfg = CoverageRewriterCli.parseReport(Array(
+      "a.exec", "b.exec",
+      "--classfiles", "m1", "--classfiles", "m2",
+      "--overlay", s"overlay${File.pathSeparator}classes",
+      "--sourcefiles", "src",
+      "--tabwith", "2", "--encoding", "ISO-8859-1"))
+    assert(cfg.isDefined)
+    val c = cfg.get
+    assert(c.execFiles.map(_.toString) == Seq("a.exec", "b.exec"))
+    assert(c.classFiles.map(_.toString) == Seq("m1", "m2"))
+    assert(c.overlays.map { case (o, b) => (o.toString, b.toString) } == Seq(("overlay", "classes")))
+    assert(c.sourceFiles.map(_.toString) == Seq("src"))
+    assert(c.tabWidth == 2)
+    assert(c.encoding == "ISO-8859-1")
+    assert(CoverageRewriterCli.parseReport(Array("--classfiles", "c", "--threads", "0")).isEmpty)
+    assert(CoverageRewriterCli.parseReport(Array("--overlay", "overlay")).isEmpty)
+  }
+
+  test("exec files are loaded concurrently and merged like jacoco merge") {
+    withDirs { (_, out) =>
+      val a = writeExecFile(out.resolve("a.exec"), "module-a",
+        Seq(new ExecutionData(1L, "test/Shared", Array(true, false)), new ExecutionData(2L, "test/OnlyA", Array(true))))
+      val b = writeExecFile(out.resolve("b.exec"), "module-b",
+        Seq(new ExecutionData(1L, "test/Shared", Array(false, true))))
+
+      val (sessions, store) = CoverageReport.loadExecutionData(Seq(a, b), 2, _ => ())
+
+      assert(sessions.getInfos.size == 2)
+      assert(store.get(1L).getProbes.toSeq == Seq(true, true))
+      assert(store.contains("test/OnlyA"))
+    }
+  }
+
+  test("aggregate report covers class directories of several modules") {
+    withDirs { (classes, out) =>
+      val moduleA = Files.createDirectories(classes.resolve("a"))
+      val moduleB = Files.createDirectories(classes.resolve("b"))
+      createTestClass(moduleA, "a.Service", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(moduleB, "b.Service", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      val execA = writeExecFile(out.resolve("a.exec"), "module-a")
+      val execB = writeExecFile(out.resolve("b.exec"), "module-b")
+
+      val csv = out.resolve("aggregate.csv")
+      val (code, log) = runReport(
+        execA.toString, execB.toString,
+        "--classfiles", moduleA.toString,
+        "--classfiles", moduleB.toString,
+        "--csv", csv.toString)
+
+      assert(code == 0, log.mkString("\n"))
+      val report = read(csv)
+      assert(report.contains("a,Service,") && report.contains("b,Service,"))
+    }
+  }
+}
@@ -75,6 +75,16 @@ class CoverageRewriterCliSpec extends AnyFunSuite {
     assert(result.get.out.isEmpty)
   }
 
+  test("parse should succeed in dry-run mode without --out") {
+    val inDir = newTempDir("jmf-in-")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--dry-run")
+    )
+    assert(result.isDefined)
+    assert(result.get.dryRun)
+    assert(result.get.out.isEmpty)
+  }
+
   test("parse should fail when both global-rules and local-rules are missing") {
     val inDir = newTempDir("jmf-in-")
     val outDir = newTempDir("jmf-out-")
@@ -221,6 +231,29 @@ class CoverageRewriterCliSpec extends AnyFunSuite {
     assert(result.get.reportFormat == "csv", "format must be normalised to lowercase")
   }
 
+  test("parse should accept --baseline with --verify and an existing report") {
+    val inDir    = newTempDir("jmf-in-")
+    val baseline = newTempFile("jmf-baseline-", ".csv")
+    val ok = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify", "--baseline", baseline.toString))
+    assert(ok.flatMap(_.baseline).contains(baseline))
+
+    assert(CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--out", "out", "--global-rules", "rules.txt", "--baseline", baseline.toString)).isEmpty)
+    assert(CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify", "--baseline", "/no/such/report.csv")).isEmpty)
+  }
+
+  test("parse should accept --report-format bin") {
+    val inDir = newTempDir("jmf-in-")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify",
+        "--report-file", "/tmp/report.bin", "--report-format", "bin")
+    )
+    assert(result.isDefined)
+    assert(result.get.reportFormat == "bin")
+  }
+
   test("parse should reject invalid --report-format value") {
     val inDir = newTempDir("jmf-in-")
     val result = CoverageRewriterCli.parse(
@@ -375,4 +408,115 @@ class CoverageRewriterCliSpec extends AnyFunSuite {
     assert(result.get.strict)
     assert(result.get.errorOnUnmatched)
   }
+
+  // --- --overlay ---
+
+  test("parse should accept --overlay in rewrite mode") {
+    val inDir  = newTempDir("jmf-in-")
+    val outDir = newTempDir("jmf-out-")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--out", outDir.toString, "--global-rules", "rules.txt", "--overlay")
+    )
+    assert(result.isDefined)
+    assert(result.get.overlay)
+  }
+
+  test("parse should default overlay to false") {
+    val inDir  = newTempDir("jmf-in-")
+    val outDir = newTempDir("jmf-out-")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--out", outDir.toString, "--global-rules", "rules.txt")
+    )
+    assert(result.isDefined)
+    assert(!result.get.overlay)
+  }
+
+  test("parse should reject --overlay with --verify") {
+    val inDir = newTempDir("jmf-in-")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify", "--overlay")
+    )
+    assert(result.isEmpty)
+  }
+
+  // --- --classes-from ---
+
+  test("parse should accept --classes-from with a file or stdin") {
+    val inDir = newTempDir("jmf-in-")
+    val list  = newTempFile("jmf-classes-", ".txt")
+    val fromFile = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify", "--classes-from", list.toString)
+    )
+    assert(fromFile.flatMap(_.classesFrom).contains(list.toString))
+
+    val fromStdin = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify", "--classes-from", "-")
+    )
+    assert(fromStdin.flatMap(_.classesFrom).contains("-"))
+  }
+
+  test("parse should reject --classes-from pointing to a missing file") {
+    val inDir = newTempDir("jmf-in-")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify", "--classes-from", inDir.resolve("nope.txt").toString)
+    )
+    assert(result.isEmpty)
+  }
+
+  test("parse should reject --classes-from with --overlay") {
+    val inDir  = newTempDir("jmf-in-")
+    val outDir = newTempDir("jmf-out-")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--out", outDir.toString, "--global-rules", "rules.txt", "--overlay", "--classes-from", "-")
+    )
+    assert(result.isEmpty)
+  }
+
+  // --- --verify-cache ---
+
+  test("parse should accept --verify-cache with --verify") {
+    val inDir = newTempDir("jmf-in-")
+    val cache = inDir.resolve("verify.cache")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify", "--verify-cache", cache.toString)
+    )
+    assert(result.flatMap(_.verifyCache).contains(cache))
+  }
+
+  test("parse should reject --verify-cache without --verify") {
+    val inDir  = newTempDir("jmf-in-")
+    val outDir = newTempDir("jmf-out-")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--out", outDir.toString, "--global-rules", "rules.txt", "--verify-cache", "c.cache")
+    )
+    assert(result.isEmpty)
+  }
+
+  test("parse should accept --shard with --shard-result in verify mode") {
+    val inDir = newTempDir("jmf-in-")
+    val part  = inDir.resolve("shard-2.jmfs")
+    val result = CoverageRewriterCli.parse(
+      Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify", "--shard", "2/3", "--shard-result", part.toString)
+    )
+    assert(result.flatMap(_.shard).contains(Shard(2, 3)))
+    assert(result.flatMap(_.shardResult).contains(part))
+  }
+
+  test("parse should reject malformed shards and sharded verify without --shard-result") {
+    val inDir = newTempDir("jmf-in-")
+    def verify(extra: String*) =
+      CoverageRewriterCli.parse(Array("--in", inDir.toString, "--global-rules", "rules.txt", "--verify") ++ extra)
+    assert(verify("--shard", "0/3", "--shard-result", "p").isEmpty)
+    assert(verify("--shard", "4/3", "--shard-result", "p").isEmpty)
+    assert(verify("--shard", "2", "--shard-result", "p").isEmpty)
+    assert(verify("--shard", "1/2").isEmpty)
+    assert(verify("--shard", "1/2", "--shard-result", "p", "--error-on-unmatched").isEmpty)
+  }
+
+  test("parseMerge should require shard results and rules") {
+    val part = newTempFile("jmf-shard-", ".jmfs")
+    assert(CoverageRewriterCli.parseMerge(Array(part.toString, "--global-rules", "rules.txt")).map(_.parts).contains(Seq(part)))
+    assert(CoverageRewriterCli.parseMerge(Array("--global-rules", "rules.txt")).isEmpty)
+    assert(CoverageRewriterCli.parseMerge(Array(part.toString)).isEmpty)
+  }
 }
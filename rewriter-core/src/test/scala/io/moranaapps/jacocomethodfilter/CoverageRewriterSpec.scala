@@ -0,0 +1,168 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.objectweb.asm.{AnnotationVisitor, ClassReader, ClassVisitor, MethodVisitor, Opcodes}
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.nio.file.{Files, Path}
+import TestSupport._
+
+class CoverageRewriterSpec extends AnyFunSuite {
+
+  private def classFile(root: Path, fqcn: String): Path =
+    root.resolve(fqcn.replace('.', '/') + ".class")
+
+  /** Names of methods carrying the `@CoverageGenerated` marker in the given class file. */
+  private def annotatedMethods(file: Path): Set[String] = {
+    var found = Set.empty[String]
+    new ClassReader(Files.readAllBytes(file)).accept(new ClassVisitor(Opcodes.ASM9) {
+      override def visitMethod(access: Int, name: String, desc: String, signature: String, exceptions: Array[String]): MethodVisitor =
+        new MethodVisitor(Opcodes.ASM9) {
+          override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
+            if (descriptor == CoverageGenerated.AnnotationDescriptor) found += name
+            null
+          }
+        }
+    }, 0)
+    found
+  }
+
+  /** Whether the class in the given file carries the `@CoverageGenerated` marker itself. */
+  private def classAnnotated(file: Path): Boolean = {
+    var found = false
+    new ClassReader(Files.readAllBytes(file)).accept(new ClassVisitor(Opcodes.ASM9) {
+      override def visitAnnotation(descriptor: String, visible: Boolean): AnnotationVisitor = {
+        if (descriptor == CoverageGenerated.AnnotationDescriptor) found = true
+        null
+      }
+    }, 0)
+    found
+  }
+
+  private def withDirs(f: (Path, Path, Path) => Unit): Unit =
+    withTempDir("jmf-rw-") { work =>
+      f(Files.createDirectories(work.resolve("in")), Files.createDirectories(work.resolve("out")), work.resolve("rules.txt"))
+    }
+
+  test("rewrite copies every class to --out by default") {
+    withDirs { (in, out, rules) =>
+      createTestClass(in, "test.Matched", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(in, "test.Other", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      write(rules, Seq("*#copy(*) id:copy"))
+
+      CoverageRewriter.main(Array("--in", in.toString, "--out", out.toString, "--local-rules", rules.toString))
+
+      assert(Files.exists(classFile(out, "test.Matched")))
+      assert(Files.exists(classFile(out, "test.Other")))
+      assert(annotatedMethods(classFile(out, "test.Matched")) == Set("copy"))
+    }
+  }
+
+  test("dry run writes nothing to --out") {
+    withDirs { (in, out, rules) =>
+      createTestClass(in, "test.Matched", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      write(rules, Seq("*#copy(*) id:copy"))
+      val target = out.resolve("never-created")
+
+      CoverageRewriter.main(Array("--in", in.toString, "--out", target.toString, "--local-rules", rules.toString, "--dry-run"))
+
+      assert(!Files.exists(target))
+    }
+  }
+
+  test("a class whose every method is excluded is marked as a whole") {
+    withDirs { (in, out, rules) =>
+      createTestClass(in, "test.AllGenerated", Seq(("copy", "()V", Opcodes.ACC_PUBLIC), ("apply", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(in, "test.Partly", Seq(("copy", "()V", Opcodes.ACC_PUBLIC), ("run", "()V", Opcodes.ACC_PUBLIC)))
+      write(rules, Seq("*#copy(*) id:copy", "*#apply(*) id:apply", "*#<init>(*) id:ctor"))
+
+      CoverageRewriter.main(Array("--in", in.toString, "--out", out.toString, "--local-rules", rules.toString))
+
+      assert(classAnnotated(classFile(out, "test.AllGenerated")))
+      assert(annotatedMethods(classFile(out, "test.AllGenerated")) == Set("<init>", "copy", "apply"))
+      assert(!classAnnotated(classFile(out, "test.Partly")))
+      assert(annotatedMethods(classFile(out, "test.Partly")) == Set("<init>", "copy"))
+    }
+  }
+
+  test("whole-class rules mark the class unless an include rule rescues a method") {
+    withDirs { (in, out, rules) =>
+      createTestClass(in, "gen.Foo", Seq(("run", "()V", Opcodes.ACC_PUBLIC), ("go", "(I)I", Opcodes.ACC_STATIC)))
+      createTestClass(in, "gen.Keep", Seq(("run", "()V", Opcodes.ACC_PUBLIC), ("toString", "()Ljava/lang/String;", Opcodes.ACC_PUBLIC)))
+      write(rules, Seq("gen.*#<class> id:gen", "+gen.Keep#toString(*) id:keep"))
+
+      CoverageRewriter.main(Array("--in", in.toString, "--out", out.toString, "--local-rules", rules.toString))
+
+      assert(classAnnotated(classFile(out, "gen.Foo")))
+      assert(annotatedMethods(classFile(out, "gen.Foo")) == Set("<init>", "run", "go"))
+      assert(!classAnnotated(classFile(out, "gen.Keep")))
+      assert(annotatedMethods(classFile(out, "gen.Keep")) == Set("<init>", "run"))
+    }
+  }
+
+  test("overlay rewrite writes only classes with marked methods") {
+    withDirs { (in, out, rules) =>
+      createTestClass(in, "test.Matched", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(in, "test.pkg.Other", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      write(rules, Seq("*#copy(*) id:copy"))
+
+      CoverageRewriter.main(Array("--in", in.toString, "--out", out.toString, "--local-rules", rules.toString, "--overlay"))
+
+      assert(annotatedMethods(classFile(out, "test.Matched")) == Set("copy"))
+      assert(!Files.exists(classFile(out, "test.pkg.Other")))
+      assert(!Files.exists(out.resolve("test/pkg")), "overlay must not create directories for untouched packages")
+    }
+  }
+
+  test("overlay rewrite removes classes left over from a previous run") {
+    withDirs { (in, out, rules) =>
+      createTestClass(in, "test.Matched", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(out, "test.Gone", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      write(rules, Seq("*#copy(*) id:copy"))
+
+      CoverageRewriter.main(Array("--in", in.toString, "--out", out.toString, "--local-rules", rules.toString, "--overlay"))
+
+      assert(Files.exists(classFile(out, "test.Matched")))
+      assert(!Files.exists(classFile(out, "test.Gone")))
+    }
+  }
+
+  test("rewrite with --classes-from processes only the listed classes") {
+    withDirs { (in, out, rules) =>
+      createTestClass(in, "test.Listed", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(in, "test.Other", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      write(rules, Seq("*#copy(*) id:copy"))
+      val list = write(Files.createTempFile("jmf-classes-", ".txt"), Seq("test.Listed"))
+
+      try CoverageRewriter.main(Array("--in", in.toString, "--out", out.toString, "--local-rules", rules.toString,
+        "--classes-from", list.toString))
+      finally Files.deleteIfExists(list)
+
+      assert(annotatedMethods(classFile(out, "test.Listed")) == Set("copy"))
+      assert(!Files.exists(classFile(out, "test.Other")))
+    }
+  }
+
+  test("classes outside --includes/--excludes are copied unchanged, or left out of an overlay") {
+    withDirs { (in, out, rules) =>
+      createTestClass(in, "app.Service", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(in, "app.generated.Dto", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(in, "lib.Helper", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      write(rules, Seq("*#copy(*) id:copy"))
+      val patterns = Array("--includes", "app.*", "--excludes", "app.generated.*")
+
+      CoverageRewriter.main(Array("--in", in.toString, "--out", out.toString, "--local-rules", rules.toString) ++ patterns)
+
+      assert(annotatedMethods(classFile(out, "app.Service")) == Set("copy"))
+      Seq("app.generated.Dto", "lib.Helper").foreach { skipped =>
+        assert(Files.readAllBytes(classFile(out, skipped)).toSeq == Files.readAllBytes(classFile(in, skipped)).toSeq)
+      }
+
+      val overlay = out.resolve("overlay")
+      CoverageRewriter.main(Array("--in", in.toString, "--out", overlay.toString, "--local-rules", rules.toString, "--overlay") ++ patterns)
+
+      assert(Files.exists(classFile(overlay, "app.Service")))
+      assert(!Files.exists(classFile(overlay, "app.generated.Dto")))
+      assert(!Files.exists(classFile(overlay, "lib.Helper")))
+    }
+  }
+}
@@ -74,4 +74,40 @@ class GlobSpec extends AnyFunSuite {
     assert(matches("", ""))
     assert(!matches("", "x"))
   }
+
+  test("identical globs share one compiled pattern") {
+    assert(Glob.toRegex("*#copy(*)") eq Glob.toRegex("*#copy(*)"))
+    assert(Glob.toRegex("copy") ne Glob.toRegex("copy*"))
+  }
+
+  test("literals returns the text between wildcards") {
+    def lits(glob: String) = Glob.literals(Glob.toRegex(glob))
+    assert(lits("com.example.*$") == Some(Seq("com.example.", "$")))
+    assert(lits("*copy*") == Some(Seq("copy")))
+    assert(lits("a?b(c)*") == Some(Seq("a", "b(c)")))
+    assert(lits("*") == Some(Seq.empty))
+    assert(Glob.literals(java.util.regex.Pattern.compile("[a-z]+")).isEmpty)
+  }
+
+  test("source recovers the glob a pattern was compiled from") {
+    Seq("com.example.*$", "*", "a?b(c)*", "(Ljava/lang/String;)*", "").foreach { g =>
+      assert(Glob.source(Glob.toRegex(g)) == Some(g))
+    }
+    assert(Glob.source(java.util.regex.Pattern.compile("[a-z]+")).isEmpty)
+  }
+
+  test("covers decides glob containment") {
+    assert(Glob.covers("*", "com.acme.*"))
+    assert(Glob.covers("com.*", "com.acme.*"))
+    assert(Glob.covers("*copy*", "copy$default$?"))
+    assert(Glob.covers("*$", "com.acme.*$"))
+    assert(Glob.covers("get?", "getA"))
+    assert(Glob.covers("(*)*", "(I)V"))
+    assert(Glob.covers("*a*", "*aa*"))
+    assert(!Glob.covers("com.acme.*", "com.*"))
+    assert(!Glob.covers("get?", "get*"))
+    assert(!Glob.covers("copy", "copy*"))
+    assert(!Glob.covers("*$", "com.acme.*"))
+    assert(!Glob.covers("(I)*", "(*)V"))
+  }
 }
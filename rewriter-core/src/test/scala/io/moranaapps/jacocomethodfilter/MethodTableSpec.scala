@@ -0,0 +1,57 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.scalatest.funsuite.AnyFunSuite
+import TestSupport._
+
+class MethodTableSpec extends AnyFunSuite {
+
+  private def m(cls: String, name: String, outcome: MethodOutcome, excl: Seq[String], incl: Seq[String] = Seq.empty) =
+    MatchedMethod(cls, name, "()V", outcome, excl, incl, access(public = true))
+
+  private val methods = Seq(
+    m("b.Two", "copy", Excluded, Seq("case-copy")),
+    m("a.One", "keep", Rescued, Seq("case-copy"), Seq("keep", "keep-2")),
+    m("a.One", "copy", Excluded, Seq("case-copy")),
+    m("a.One", "apply", Excluded, Seq.empty),
+    m("b.Two", "apply", Rescued, Seq("case-apply"), Seq("keep"))
+  )
+
+  private val table = MethodTable(methods)
+
+  private def names(ms: Seq[MatchedMethod]) = ms.map(x => s"${x.fqcn}#${x.methodName}").toList
+
+  test("rows are decoded unchanged") {
+    assert(table.size == methods.size)
+    assert(table.toSet == methods.toSet)
+  }
+
+  test("rows are sorted by outcome, class, method and descriptor") {
+    assert(names(table) == List("a.One#apply", "a.One#copy", "b.Two#copy", "a.One#keep", "b.Two#apply"))
+    assert(names(table.excluded) == List("a.One#apply", "a.One#copy", "b.Two#copy"))
+    assert(names(table.rescued) == List("a.One#keep", "b.Two#apply"))
+  }
+
+  test("byClass groups each outcome by class") {
+    val excluded = table.byClass(Excluded).map { case (cls, ms) => cls -> ms.map(_.methodName).toList }.toList
+    val rescued  = table.byClass(Rescued).map { case (cls, ms) => cls -> ms.map(_.methodName).toList }.toList
+    assert(excluded == List("a.One" -> List("apply", "copy"), "b.Two" -> List("copy")))
+    assert(rescued == List("a.One" -> List("keep"), "b.Two" -> List("apply")))
+  }
+
+  test("repeated strings are pooled") {
+    val ones = table.filter(_.fqcn == "a.One")
+    assert(ones.forall(_.fqcn eq ones.head.fqcn))
+  }
+
+  test("a table is not rebuilt and an empty table has no groups") {
+    assert(MethodTable(table) eq table)
+    assert(MethodTable.empty.isEmpty)
+    assert(MethodTable.empty.byClass(Excluded).isEmpty)
+  }
+
+  test("scan results keep the report order") {
+    val result = ScanResult(2, methods.size, methods)
+    assert(names(result.excludedMethods) == names(table.excluded))
+    assert(names(result.rescuedMethods) == names(table.rescued))
+  }
+}
@@ -0,0 +1,93 @@
+package io.moranaapps.jacocomethodfilter
+
+import io.moranaapps.jacocomethodfilter.Compat._
+import org.objectweb.asm.Opcodes
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.nio.file.attribute.FileTime
+import java.nio.file.{Files, Path}
+import TestSupport._
+
+class RewriteCacheSpec extends AnyFunSuite {
+
+  private def withDirs(f: (Path, Path) => Unit): Unit =
+    withTempDir("jmf-rwcache-")(work => f(work, work.resolve("cache")))
+
+  private def entries(cache: Path): Seq[Path] =
+    using(Files.walk(cache))(_.iterator().asScala.filter(_.toString.endsWith(".jmfc")).toVector)
+
+  private def tree(root: Path): Map[String, Seq[Byte]] =
+    ClassFiles.discover(root).map(p => root.relativize(p).toString -> Files.readAllBytes(p).toSeq).toMap
+
+  test("a second workspace is served from the store with identical output") {
+    withDirs { (work, cache) =>
+      val outputs = Seq("a", "b").map { ws =>
+        // Each checkout has its own copy of the rules, at a different absolute path.
+        val rulesFile = write(Files.createDirectories(work.resolve(ws)).resolve("rules.txt"), Seq("*#copy(*) id:copy"))
+        val in        = work.resolve(s"$ws/classes")
+        val out       = work.resolve(s"$ws/filtered")
+        createTestClass(in, "test.Matched", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+        createTestClass(in, "test.Other", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+        val args = Array("--in", in.toString, "--out", out.toString, "--local-rules", rulesFile.toString, "--cache-dir", cache.toString)
+        val log  = new java.io.ByteArrayOutputStream
+        assert(scala.Console.withOut(log)(CoverageRewriter.run(args)) == 0)
+        (tree(out), log.toString("UTF-8"))
+      }
+      assert(outputs(0)._1 == outputs(1)._1)
+      assert(outputs(0)._2.contains("0 hit(s), 2 class file(s) rewritten"))
+      assert(outputs(1)._2.contains("2 hit(s), 0 class file(s) rewritten"))
+      assert(outputs(1)._2.contains("marked 1 method(s)"))
+      assert(entries(cache).size == 2)
+      // Cache entries must not be mistaken for a binary report.
+      entries(cache).foreach(e => assert(java.nio.ByteBuffer.wrap(Files.readAllBytes(e)).getInt != BinaryReport.Magic))
+    }
+  }
+
+  test("entries are keyed by the rules as well as the class bytes") {
+    withDirs { (work, cache) =>
+      val in = work.resolve("classes")
+      createTestClass(in, "test.A", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      val bytes = Files.readAllBytes(in.resolve("test/A.class"))
+      def rewrite(rs: Seq[MethodRule]): (RewriteCache, RewriteCache.Entry) = {
+        val c = RewriteCache.open(cache, rs, 1L << 20)
+        (c, c.getOrElseUpdate(bytes)(_ => RewriteCache.Entry(rs.size, classMarked = false, None)))
+      }
+      val (c1, e1) = rewrite(rules("*#copy(*) id:copy"))
+      val (c2, e2) = rewrite(rules("*#copy(*) id:copy"))
+      val (c3, e3) = rewrite(rules("*#copy(*) id:copy", "*#run(*) id:run"))
+      assert(c1.misses == 1 && c2.hits == 1 && c3.misses == 1)
+      assert(e1 == e2 && e3.marked == 2)
+    }
+  }
+
+  test("a corrupt entry is a miss and is replaced") {
+    withDirs { (_, cache) =>
+      val c     = RewriteCache.open(cache, rules("*#copy(*)"), 1L << 20)
+      val input = Array[Byte](1, 2, 3)
+      val entry = RewriteCache.Entry(1, classMarked = true, Some(Array[Byte](4, 5)))
+      c.getOrElseUpdate(input)(_ => entry)
+      Files.write(entries(cache).head, Array[Byte](0, 1))
+
+      val again = c.getOrElseUpdate(input)(_ => entry)
+      assert(c.misses == 2 && again.output.map(_.toSeq) == Some(Seq[Byte](4, 5)))
+      assert(c.getOrElseUpdate(input)(_ => fail("should be stored")).output.map(_.toSeq) == Some(Seq[Byte](4, 5)))
+    }
+  }
+
+  test("eviction removes least recently used entries beyond the size bound") {
+    withDirs { (_, cache) =>
+      val payload = new Array[Byte](1000)
+      val c       = RewriteCache.open(cache, rules("*#copy(*)"), 2500)
+      val inputs  = (0 until 5).map(i => Array[Byte](i.toByte))
+      inputs.foreach(in => c.getOrElseUpdate(in)(_ => RewriteCache.Entry(1, classMarked = false, Some(payload))))
+      // Age every entry, then use inputs 0 and 1 again: they become the most recently used.
+      entries(cache).foreach(Files.setLastModifiedTime(_, FileTime.fromMillis(0L)))
+      inputs.take(2).foreach(in => c.getOrElseUpdate(in)(_ => fail("should be stored")))
+
+      assert(c.evict() == 3)
+      assert(entries(cache).size == 2)
+      inputs.take(2).foreach(in => c.getOrElseUpdate(in)(_ => fail("recently used entry was evicted")))
+      assert(c.evict() == 0)
+    }
+  }
+}
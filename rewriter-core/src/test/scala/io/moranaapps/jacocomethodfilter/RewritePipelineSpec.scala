@@ -0,0 +1,82 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.nio.file.{Path, Paths}
+import java.util.concurrent.atomic.AtomicInteger
+import scala.collection.mutable
+
+class RewritePipelineSpec extends AnyFunSuite {
+
+  private val files: Seq[Path] = (1 to 200).map(i => Paths.get(s"C$i.class"))
+
+  test("results are collected in input order with every stage applied") {
+    val written   = java.util.concurrent.ConcurrentHashMap.newKeySet[Path]()
+    val collected = mutable.ArrayBuffer.empty[(Path, String)]
+    val pipeline  = new RewritePipeline(cpuThreads = 4, ioThreads = 4, maxInFlight = 8)
+    try {
+      pipeline.run[String](files)(
+        read = p => p.toString.getBytes("UTF-8"),
+        transform = (_, bytes) => new String(bytes, "UTF-8").toUpperCase,
+        write = (p, _) => written.add(p)
+      )((p, s) => collected += ((p, s)))
+    } finally pipeline.close()
+
+    assert(collected.map(_._1) == files)
+    assert(collected.forall { case (p, s) => s == p.toString.toUpperCase })
+    assert(written.size == files.size)
+  }
+
+  test("no more than maxInFlight files are between reading and collection") {
+    val inFlight = new AtomicInteger(0)
+    val peak     = new AtomicInteger(0)
+    val pipeline = new RewritePipeline(cpuThreads = 4, ioThreads = 4, maxInFlight = 5)
+    try {
+      pipeline.run[Array[Byte]](files)(
+        read = _ => {
+          val n = inFlight.incrementAndGet()
+          peak.accumulateAndGet(n, new java.util.function.IntBinaryOperator {
+            def applyAsInt(a: Int, b: Int): Int = math.max(a, b)
+          })
+          Array.emptyByteArray
+        },
+        transform = (_, b) => b,
+        write = (_, _) => ()
+      )((_, _) => inFlight.decrementAndGet())
+    } finally pipeline.close()
+
+    assert(peak.get <= 5)
+  }
+
+  test("a failing stage surfaces its original exception") {
+    val pipeline = new RewritePipeline(cpuThreads = 2, ioThreads = 2, maxInFlight = 4)
+    try {
+      val e = intercept[java.io.IOException] {
+        pipeline.run[Array[Byte]](files)(
+          read = p => if (p.toString == "C7.class") throw new java.io.IOException("disk gone") else Array.emptyByteArray,
+          transform = (_, b) => b,
+          write = (_, _) => ()
+        )((_, _) => ())
+      }
+      assert(e.getMessage == "disk gone")
+    } finally pipeline.close()
+  }
+
+  test("the I/O stage falls back to platform threads when virtual threads are missing or preview-only") {
+    // JDK 19/20 without --enable-preview: the factory exists but throws UnsupportedOperationException.
+    val previewOnly = Class.forName("io.moranaapps.jacocomethodfilter.PreviewOnlyExecutors").getMethod("newVirtualThreadPerTaskExecutor")
+    // JDK 8-18: no such factory.
+    val missing: () => java.lang.reflect.Method = () => classOf[java.util.concurrent.Executors].getMethod("noSuchFactory")
+    Seq(() => previewOnly, missing).foreach { factory =>
+      val (executor, virtual) = RewritePipeline.ioExecutor(2, factory())
+      try assert(!virtual && executor.submit(new java.util.concurrent.Callable[Int] { def call(): Int = 42 }).get == 42)
+      finally executor.shutdownNow()
+    }
+  }
+}
+
+/** Stand-in for `Executors` on JDK 19/20, where virtual threads are a preview API. */
+object PreviewOnlyExecutors {
+  def newVirtualThreadPerTaskExecutor(): java.util.concurrent.ExecutorService =
+    throw new UnsupportedOperationException("Preview Features not enabled")
+}
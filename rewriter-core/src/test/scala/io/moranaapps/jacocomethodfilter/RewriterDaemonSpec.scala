@@ -0,0 +1,144 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.objectweb.asm.Opcodes
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.io.{DataInputStream, DataOutputStream, IOException}
+import java.net.{InetAddress, Socket}
+import java.nio.file.{Files, Path, Paths}
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.Arrays.asList
+import scala.collection.mutable
+import TestSupport._
+
+class RewriterDaemonSpec extends AnyFunSuite {
+
+  private val command = asList("java", "-cp", "test")
+
+  /** Run a daemon on a background thread for `body`, with port file in `stateDir`. */
+  private def withDaemon[A](stateDir: Path, idleTimeoutSeconds: Int = 60)(body: Thread => A): A = {
+    val portFile = RewriterDaemon.portFileFor(stateDir, command)
+    val server = new Thread(new Runnable {
+      def run(): Unit = RewriterDaemon.serve(ServerConfig(portFile, idleTimeoutSeconds))
+    })
+    server.setDaemon(true)
+    server.start()
+    val deadline = System.currentTimeMillis() + 10000
+    while (!Files.exists(portFile) && System.currentTimeMillis() < deadline) Thread.sleep(20)
+    assert(Files.exists(portFile), "daemon did not write its port file")
+    body(server)
+  }
+
+  private def submit(stateDir: Path, args: String*): (Int, Seq[String]) = submitIn(Paths.get(""), stateDir, args: _*)
+
+  private def submitIn(workingDir: Path, stateDir: Path, args: String*): (Int, Seq[String]) = {
+    val lines = mutable.ArrayBuffer.empty[String]
+    val code = RewriterDaemon.submit(stateDir, command, 60, workingDir, args.toArray, new java.util.function.Consumer[String] {
+      def accept(line: String): Unit = lines.synchronized(lines += line)
+    })
+    (code, lines.toList)
+  }
+
+  test("runs concurrent verify and rewrite requests and returns their output and exit codes") {
+    withTempDir("jmf-daemon-") { dir =>
+      val in = dir.resolve("in")
+      createTestClass(in, "com/example/User", Seq(("copy", "()V", Opcodes.ACC_PUBLIC), ("name", "()V", Opcodes.ACC_PUBLIC)))
+      val rules = write(dir.resolve("rules.txt"), Seq("com.example.*#copy(*) id:copy"))
+
+      withDaemon(dir.resolve("state")) { _ =>
+        val results = new java.util.concurrent.ConcurrentLinkedQueue[(Int, Seq[String])]()
+        val runs = (1 to 4).map { i =>
+          val t = new Thread(new Runnable {
+            def run(): Unit =
+              results.add(submit(dir.resolve("state"), "--in", in.toString, "--out", dir.resolve(s"out-$i").toString,
+                "--local-rules", rules.toString))
+          })
+          t.start()
+          t
+        }
+        runs.foreach(_.join())
+        assert(results.size == 4)
+        results.toArray(Array.empty[(Int, Seq[String])]).foreach { case (code, lines) =>
+          assert(code == 0)
+          assert(lines.exists(_.contains("marked 1 method(s)")), lines.mkString("\n"))
+        }
+        (1 to 4).foreach(i => assert(Files.exists(dir.resolve(s"out-$i/com/example/User.class"))))
+
+        val (code, lines) = submit(dir.resolve("state"), "--verify", "--in", in.toString, "--local-rules", rules.toString)
+        assert(code == 0)
+        assert(lines.exists(_.contains("Verification complete")))
+        assert(lines.exists(_.contains("#copy()V")))
+
+        val (strictCode, strictLines) = submit(dir.resolve("state"), "--verify", "--in", in.toString, "--local-rules",
+          write(dir.resolve("unlabelled.txt"), Seq("com.example.*#copy(*)")).toString, "--strict")
+        assert(strictCode == 1)
+        assert(strictLines.exists(_.contains("--strict is set")))
+
+        val (badCode, badLines) = submit(dir.resolve("state"), "--in", in.toString)
+        assert(badCode == 2)
+        assert(badLines.exists(_.contains("--out is required")), badLines.mkString("\n"))
+      }
+    }
+  }
+
+  test("resolves relative paths against the client's working directory, not the daemon's") {
+    withTempDir("jmf-daemon-") { dir =>
+      val workspace = dir.resolve("workspace")
+      createTestClass(workspace.resolve("classes"), "com/example/User", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      write(workspace.resolve("rules.txt"), Seq("com.example.*#copy(*) id:copy"))
+      val args = Seq("--verify", "--in", "classes", "--global-rules", "rules.txt")
+
+      withDaemon(dir.resolve("state")) { _ =>
+        val (code, lines) = submitIn(workspace, dir.resolve("state"), args: _*)
+        assert(code == 0, lines.mkString("\n"))
+        assert(lines.exists(_.contains("#copy()V")), lines.mkString("\n"))
+
+        // From another directory, the same arguments name files that do not exist there.
+        val (otherCode, otherLines) = submitIn(dir, dir.resolve("state"), args: _*)
+        assert(otherCode == 2, otherLines.mkString("\n"))
+        assert(otherLines.exists(_.contains("--in must exist")), otherLines.mkString("\n"))
+      }
+    }
+  }
+
+  test("ignores clients without the token or a handshake and shuts down when idle") {
+    withTempDir("jmf-daemon-") { dir =>
+      val stateDir = dir.resolve("state")
+      withDaemon(stateDir, idleTimeoutSeconds = 1) { server =>
+        val portFile = RewriterDaemon.portFileFor(stateDir, command)
+        if (portFile.getFileSystem.supportedFileAttributeViews.contains("posix"))
+          assert(PosixFilePermissions.toString(Files.getPosixFilePermissions(portFile)) == "rw-------")
+        val port     = new String(Files.readAllBytes(portFile), "UTF-8").split("\n")(0).trim.toInt
+
+        val silent = new Socket(InetAddress.getLoopbackAddress, port)
+        try {
+          silent.setSoTimeout(RewriterDaemon.HandshakeTimeoutMs * 3)
+          assert(new DataInputStream(silent.getInputStream).read() == -1)
+        } finally silent.close()
+
+        val s        = new Socket(InetAddress.getLoopbackAddress, port)
+        try {
+          val out = new DataOutputStream(s.getOutputStream)
+          out.writeUTF("jmf-daemon/2")
+          out.writeUTF("wrong-token")
+          out.writeInt(0)
+          out.flush()
+          assert(new DataInputStream(s.getInputStream).read() == -1)
+        } finally s.close()
+
+        server.join(15000)
+        assert(!server.isAlive, "daemon did not shut down after its idle timeout")
+        assert(!Files.exists(portFile))
+      }
+    }
+  }
+
+  test("submit fails with an IOException when no daemon can be started") {
+    withTempDir("jmf-daemon-") { dir =>
+      intercept[IOException] {
+        RewriterDaemon.submit(dir, asList(dir.resolve("no-such-java").toString), 60, dir, Array("--verify"),
+          new java.util.function.Consumer[String] { def accept(line: String): Unit = () })
+      }
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.scalatest.funsuite.AnyFunSuite
+import TestSupport._
+
+import scala.collection.mutable
+
+class RuleIndexSpec extends AnyFunSuite {
+
+  test("automaton reports every key occurring in the text, including overlapping ones") {
+    val ac    = new RuleIndex.AhoCorasick(Vector("he", "she", "his", "hers", "e"))
+    val found = mutable.ListBuffer.empty[Int]
+    ac.search("ushers", found += _)
+    assert(found.sorted == Seq(0, 1, 3, 4))
+  }
+
+  test("class candidates are narrowed by the literal of each selector") {
+    val index = RuleIndex(rules(
+      "com.example.*#copy(*)",
+      "com/other/*#copy(*)",
+      "*#toString(*)",
+      "*.model.*Dto#*(*)"))
+    assert(index.classCandidates("com.example.User").toSet == Set(0, 2))
+    assert(index.classCandidates("com.other.User").toSet == Set(1, 2))
+    assert(index.classCandidates("com.other.model.UserDto").toSet == Set(1, 2, 3))
+    assert(index.forClass("com.other.model.UserDto") == Seq(1, 2, 3))
+    assert(index.forClass("com.example.model.User") == Seq(0, 2))
+  }
+
+  test("name predicates narrow method candidates when the glob has no literal") {
+    val index = RuleIndex(rules("*#*(*) name-starts:$anonfun$", "*#copy(*)", "*#*(*) static"))
+    assert(index.methodCandidates("$anonfun$run$1").toSet == Set(0, 2))
+    assert(index.methodCandidates("copy$default$1").toSet == Set(1, 2))
+  }
+
+  test("whole-class exclusions apply only when no include rule selects the class") {
+    val index = RuleIndex(rules(
+      "com.gen.*#<class>",
+      "*#copy(*)",
+      "+com.gen.Keep#toString(*)"))
+    assert(index.wholeClassExclusions(index.forClass("com.gen.Foo")) == Seq(0))
+    assert(index.wholeClassExclusions(index.forClass("com.gen.Keep")).isEmpty)
+    assert(index.wholeClassExclusions(index.forClass("com.other.Foo")).isEmpty)
+    // Without the shortcut the whole-class rule still matches every method.
+    val keep = index.forClass("com.gen.Keep")
+    assert(index.resolve(keep, "run", "()V", 0).shouldExclude)
+    assert(index.resolve(keep, "toString", "()Ljava/lang/String;", 0).isRescued)
+  }
+
+  test("redundant rules are left out of the candidates but still reported as matching") {
+    val rs = rules(
+      "*#copy(*)",
+      "com.acme.*#copy(*) public",
+      "*#copy(*)",
+      "com.acme.*#copy(*)",
+      "com.acme.Foo#*(*)")
+    val index = RuleIndex(rs)
+    // Identical rules are equal (they share compiled patterns), so look ordinals up by reference.
+    def ordinal(r: MethodRule) = rs.indexWhere(_ eq r)
+    assert(index.redundant.map(r => (ordinal(r.rule), ordinal(r.coveredBy), r.duplicate)) ==
+      Seq((1, 0, false), (2, 0, true), (3, 0, false)))
+    assert(index.classCandidates("com.acme.Foo").toSet == Set(0, 4))
+    assert(index.methodCandidates("copy").toSet == Set(0, 4))
+    assert(index.forClass("com.acme.Foo") == Seq(0, 1, 2, 3, 4))
+    assert(index.forClass("org.Bar") == Seq(0, 2))
+    assert(index.matching(index.forClass("com.acme.Foo"), "copy", "()V", access(public = true)) == Seq(0, 1, 2, 3, 4))
+    assert(index.matching(index.forClass("com.acme.Foo"), "copy", "()V", access(privateA = true)) == Seq(0, 2, 3, 4))
+    assert(index.matching(index.forClass("org.Bar"), "copy", "()V", access(public = true)) == Seq(0, 2))
+  }
+
+  test("index resolution and decisions agree with RuleResolver on every class and method") {
+    val rs = rules(
+      "com.example.*#copy(*)",
+      "com.example.*$#apply(*)",
+      "+com.example.Keep#copy(*)",
+      "com/example/sub/*#*(*) synthetic",
+      "*#$anonfun$*(*) name-contains:fun",
+      "*Dto#get?(*)",
+      "*.model.*#equals(Ljava/lang/Object;)Z",
+      "*#*(*) ret:V name-ends:$1",
+      "*#*(*) bridge",
+      "com.example.*#copy(*) synthetic",
+      "*#copy(*)",
+      "+com.example.Keep#copy(*) public",
+      "*#*(*) ret:V name-ends:$1")
+    val index   = RuleIndex(rs)
+    val classes = Seq("com.example.User", "com.example.User$", "com.example.Keep", "com.example.sub.X",
+      "org.model.ThingDto", "Top", "com.examplex.User")
+    val methods = Seq("copy", "apply", "getA", "getAB", "equals", "$anonfun$f$1", "run$1", "<init>")
+    val descs   = Seq("()V", "(Ljava/lang/Object;)Z", "(I)Ljava/lang/String;")
+    val accs    = Seq(access(public = true), access(synthetic = true), access(bridge = true))
+
+    for (cls <- classes; m <- methods; d <- descs; a <- accs) {
+      val expected = RuleResolver.resolve(rs, cls, m, d, a)
+      val actual   = index.resolve(index.forClass(cls), m, d, a)
+      assert(actual == expected, s"$cls#$m$d access=$a")
+      assert(index.shouldExclude(index.forClass(cls), m, d, a) == expected.shouldExclude, s"decision for $cls#$m$d access=$a")
+      assert(RuleResolver.shouldExclude(rs, cls, m, d, a) == expected.shouldExclude, s"resolver decision for $cls#$m$d access=$a")
+    }
+  }
+
+  test("literal rules are found by class name and resolve like RuleResolver") {
+    val rs = rules(
+      "com.acme.Foo#bar(I)V",
+      "com/acme/Foo#baz()V public",
+      "+com.acme.Foo#bar(I)V",
+      "com.acme.Foo#qux()V",
+      "com.acme.*#qux()V",
+      "com.acme.Foo#bar(I)V",
+      "com.acme/Foo#bar(I)V",
+      "com.acme.Foo$#bar(I)V")
+    val index = RuleIndex(rs)
+    // Literal rules bypass the automata; the glob rule and the mixed-separator one are still candidates.
+    assert(index.classCandidates("com.acme.Foo").toSet == Set(4, 6))
+    assert(index.forClass("com.acme.Foo") == Seq(0, 1, 2, 3, 4, 5))
+    assert(index.forClass("com.acme.Foo$") == Seq(4, 7))
+    assert(index.forClass("com.acme.Bar") == Seq(4))
+
+    for {
+      cls <- Seq("com.acme.Foo", "com.acme.Foo$", "com.acme.Bar", "com.acme")
+      m   <- Seq("bar", "baz", "qux")
+      d   <- Seq("(I)V", "()V")
+      a   <- Seq(access(public = true), access(privateA = true))
+    } {
+      val expected = RuleResolver.resolve(rs, cls, m, d, a)
+      assert(index.resolve(index.forClass(cls), m, d, a) == expected, s"$cls#$m$d access=$a")
+      assert(index.shouldExclude(index.forClass(cls), m, d, a) == expected.shouldExclude, s"decision for $cls#$m$d access=$a")
+    }
+  }
+}
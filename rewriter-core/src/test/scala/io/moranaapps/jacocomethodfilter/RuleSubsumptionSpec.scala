@@ -0,0 +1,54 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.scalatest.funsuite.AnyFunSuite
+import TestSupport._
+
+class RuleSubsumptionSpec extends AnyFunSuite {
+
+  private def coveredBy(lines: String*): Seq[Int] = RuleSubsumption.coveredBy(rules(lines: _*).toIndexedSeq).toSeq
+
+  test("duplicates keep the first rule") {
+    assert(coveredBy("*#copy(*)", "*#copy(*)  ", "*#copy") == Seq(-1, 0, 0))
+  }
+
+  test("narrower selectors, extra flags and predicates are covered") {
+    assert(coveredBy(
+      "com.acme.*#copy(*) public",
+      "*#copy(*)",
+      "*#*(*) synthetic",
+      "com.acme.Foo#lambda$1(*) synthetic static",
+      "*#get*(*)",
+      "*#get*(*) ret:I",
+      "*#*(*) name-starts:$anonfun$",
+      "*#*(*) name-starts:$anonfun$run") == Seq(1, -1, -1, 2, -1, 4, -1, 6))
+  }
+
+  test("rules of different modes never cover each other") {
+    assert(coveredBy("*#copy(*)", "+com.acme.Foo#copy(*)") == Seq(-1, -1))
+  }
+
+  test("broader flags, predicates or selectors are not covered") {
+    assert(coveredBy(
+      "*#copy(*) public",
+      "*#copy(*) synthetic",
+      "*#*(*) ret:V",
+      "*#*(*) ret:*",
+      "com.acme.*#*(*)",
+      "com.*#get(*)") == Seq(-1, -1, 3, -1, -1, -1))
+  }
+
+  test("whole-class rules are only covered by whole-class rules") {
+    assert(coveredBy("*#*(*)", "com.gen.*#<class>", "com.*#<class>", "com.gen.Foo#run(*)") == Seq(-1, 2, -1, 0))
+  }
+
+  test("chains resolve to a kept rule") {
+    assert(coveredBy("com.acme.Foo#copy(*)", "com.acme.*#copy(*)", "*#copy(*)") == Seq(2, 2, -1))
+  }
+
+  test("redundant describes each redundant rule and whether it is a duplicate") {
+    val rs = rules("*#copy(*)", "com.acme.*#copy(*)", "*#copy(*)").toIndexedSeq
+    assert(RuleSubsumption.redundant(rs) == Seq(
+      RedundantRule(rs(1), rs(0), duplicate = false),
+      RedundantRule(rs(2), rs(0), duplicate = true)))
+  }
+}
@@ -164,6 +164,21 @@ class RulesLoadSpec extends AnyFunSuite {
     assert(ex.getMessage.contains("Missing '#' separator"))
   }
 
+  test("parseLine accepts a whole-class rule") {
+    val r = Rules.parseLine("com.example.gen.*#<class>  id:gen").get
+    assert(r.wholeClass)
+    assert(r.patternText == "com.example.gen.*#<class>")
+    assert(Rules.matches(r, "com.example.gen.Foo", "anything", "(I)V", 0))
+    assert(!Rules.matches(r, "com.example.Foo", "anything", "(I)V", 0))
+  }
+
+  test("parseLine rejects a descriptor or flags on a whole-class rule") {
+    val desc = intercept[IllegalArgumentException](Rules.parseLine("com.example.Foo#<class>(*)  id:x"))
+    assert(desc.getMessage.contains("Whole-class rules take no descriptor"))
+    val flags = intercept[IllegalArgumentException](Rules.parseLine("com.example.Foo#<class>  synthetic id:x"))
+    assert(flags.getMessage.contains("Whole-class rules take no flags"))
+  }
+
   test("parseLine throws on empty method name after #") {
     val ex = intercept[IllegalArgumentException] {
       Rules.parseLine("com.example.Foo#")
@@ -453,4 +468,33 @@ class RulesLoadSpec extends AnyFunSuite {
     assert(output.contains("[warn]"), s"Expected [warn] for global unlabelled rule, got: $output")
     assert(output.contains(globalFile.toString), s"Expected global file path in [warn], got: $output")
   }
+
+  test("signature list loads literal entries with the header's id and a single warning when unlabelled") {
+    val labelled = write(tmpFile(), Seq(
+      "# [jmf-signatures] id:generated forward-compat",
+      "com.acme.Foo#bar(I)V",
+      "",
+      "# comment",
+      "+com/acme/Foo#baz()Ljava/lang/String;"))
+    val rules = Rules.load(labelled)
+    assert(rules.size == 2)
+    assert(rules.forall(r => r.id.contains("generated") && r.forwardCompat && r.source == LocalSource(labelled.toString)))
+    assert(rules.map(_.mode) == Seq(Exclude, Include))
+    assert(Rules.matches(rules(0), "com.acme.Foo", "bar", "(I)V", 0))
+    assert(!Rules.matches(rules(0), "com.acme.Foo", "bar", "(J)V", 0))
+    assert(Rules.matches(rules(1), "com.acme.Foo", "baz", "()Ljava/lang/String;", 0))
+
+    val unlabelled = write(tmpFile(), "# [jmf-signatures]" +: (1 to 50).map(i => s"com.acme.C$i#run()V"))
+    val out = new java.io.ByteArrayOutputStream()
+    assert(Console.withOut(out)(Rules.load(unlabelled)).size == 50)
+    assert(out.toString.split("\n").count(_.startsWith("[warn]")) == 1)
+  }
+
+  test("signature list rejects wildcards, tokens and incomplete signatures with the line number") {
+    Seq("com.acme.*#bar(I)V", "com.acme.Foo#bar(I)V id:x", "com.acme.Foo#bar", "com.acme.Foo#(I)V", "com.acme.Foo#bar(I)").foreach { bad =>
+      val file = write(tmpFile(), Seq("# [jmf-signatures] id:generated", "com.acme.Foo#ok()V", bad))
+      val e    = intercept[IllegalArgumentException](Rules.load(file))
+      assert(e.getMessage.contains("line 3"), bad)
+    }
+  }
 }
@@ -274,4 +274,20 @@ class RulesMatchSpec extends AnyFunSuite {
     assert(resolution.inclusions.size == 1)
   }
 
+  test("RuleResolver.shouldExclude: decides like resolve without collecting matches") {
+    val p = write(tmpFile(), Seq(
+      "com.example.*#copy",
+      "+com.example.Config$#copy",
+      "*#get* name-starts:get static"
+    ))
+    val rules = Rules.load(p)
+    val d = desc("", "V")
+
+    assert(RuleResolver.shouldExclude(rules, "com.example.User", "copy", d, access()))
+    assert(!RuleResolver.shouldExclude(rules, "com.example.Config$", "copy", d, access()))
+    assert(!RuleResolver.shouldExclude(rules, "org.other.User", "copy", d, access()))
+    assert(RuleResolver.shouldExclude(rules, "org.other.User", "getX", d, access(staticA = true)))
+    assert(!RuleResolver.shouldExclude(rules, "org.other.User", "getX", d, access()))
+  }
+
 }
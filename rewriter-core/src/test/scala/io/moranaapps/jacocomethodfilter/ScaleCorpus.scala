@@ -0,0 +1,152 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.objectweb.asm.{ClassWriter, Opcodes, Type}
+
+import java.nio.file.{Files, Path, Paths}
+
+/** Generates a synthetic class-file corpus for scale testing (`integration-tests/scale-harness.sh`).
+  *
+  * The corpus is built from units of three classes shaped like scalac and javac output: a case class
+  * (accessors, `copy`, `copy$default$N`, the `Product` methods, `$anonfun$` lambda bodies), its
+  * companion module (`apply`, `unapply`, `readResolve`, a bridge `apply`) and a Java-style service
+  * (getters and setters, `lambda$` bodies, a bridge `compareTo`). Units are spread over packages of 100.
+  * Method bodies only return a default value, so classes are valid for ASM and JaCoCo without frames.
+  *
+  * Usage: `ScaleCorpus <outDir> <methods>`; at least `methods` methods are generated.
+  */
+object ScaleCorpus {
+
+  final case class Summary(classes: Int, methods: Int)
+
+  private val Pub       = Opcodes.ACC_PUBLIC
+  private val PubStatic = Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC
+  private val Synthetic = Opcodes.ACC_STATIC | Opcodes.ACC_SYNTHETIC
+  private val Bridge    = Opcodes.ACC_PUBLIC | Opcodes.ACC_BRIDGE | Opcodes.ACC_SYNTHETIC
+
+  /** Methods per unit (case class + companion + service). */
+  val MethodsPerUnit: Int = 36
+
+  def main(args: Array[String]): Unit = {
+    if (args.length != 2) {
+      System.err.println("Usage: ScaleCorpus <outDir> <methods>")
+      sys.exit(2)
+    }
+    val out = Paths.get(args(0))
+    val s   = generate(out, args(1).toInt)
+    println(s"[info] Generated ${s.classes} class file(s), ${s.methods} method(s) in $out")
+  }
+
+  /** Write `ceil(methods / MethodsPerUnit)` units under `out`. */
+  def generate(out: Path, methods: Int): Summary = {
+    val units = math.max(1, (methods + MethodsPerUnit - 1) / MethodsPerUnit)
+    var classes = 0
+    var count   = 0
+    (0 until units).foreach { i =>
+      val pkg = s"corpus/p${i / 100}"
+      Seq(caseClass(pkg, i), companion(pkg, i), service(pkg, i)).foreach { case (name, n, bytes) =>
+        val file = out.resolve(name + ".class")
+        Files.createDirectories(file.getParent)
+        Files.write(file, bytes)
+        classes += 1
+        count += n
+      }
+    }
+    Summary(classes, count)
+  }
+
+  private final class Emitter(val name: String, superName: String, interfaces: String*) {
+    val cw      = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+    var methods = 0
+    cw.visit(Opcodes.V1_8, Pub | Opcodes.ACC_SUPER, name, null, superName, interfaces.toArray)
+
+    def ctor(access: Int, desc: String): Unit = {
+      val mv = cw.visitMethod(access, "<init>", desc, null, null)
+      mv.visitCode()
+      mv.visitVarInsn(Opcodes.ALOAD, 0)
+      mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false)
+      mv.visitInsn(Opcodes.RETURN)
+      mv.visitMaxs(0, 0)
+      mv.visitEnd()
+      methods += 1
+    }
+
+    /** A method whose body returns the zero value of its return type. */
+    def method(access: Int, methodName: String, desc: String): Unit = {
+      val mv = cw.visitMethod(access, methodName, desc, null, null)
+      mv.visitCode()
+      Type.getReturnType(desc).getSort match {
+        case Type.VOID   => mv.visitInsn(Opcodes.RETURN)
+        case Type.LONG   => mv.visitInsn(Opcodes.LCONST_0); mv.visitInsn(Opcodes.LRETURN)
+        case Type.FLOAT  => mv.visitInsn(Opcodes.FCONST_0); mv.visitInsn(Opcodes.FRETURN)
+        case Type.DOUBLE => mv.visitInsn(Opcodes.DCONST_0); mv.visitInsn(Opcodes.DRETURN)
+        case Type.OBJECT | Type.ARRAY => mv.visitInsn(Opcodes.ACONST_NULL); mv.visitInsn(Opcodes.ARETURN)
+        case _           => mv.visitInsn(Opcodes.ICONST_0); mv.visitInsn(Opcodes.IRETURN)
+      }
+      mv.visitMaxs(0, 0)
+      mv.visitEnd()
+      methods += 1
+    }
+
+    def result(): (String, Int, Array[Byte]) = {
+      cw.visitEnd()
+      (name, methods, cw.toByteArray)
+    }
+  }
+
+  private def caseClass(pkg: String, i: Int): (String, Int, Array[Byte]) = {
+    val self = s"$pkg/Model$i"
+    val e    = new Emitter(self, "java/lang/Object", "scala/Product", "scala/Serializable")
+    e.cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "id", "I", null, null).visitEnd()
+    e.cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "name", "Ljava/lang/String;", null, null).visitEnd()
+    e.ctor(Pub, "(ILjava/lang/String;)V")
+    e.method(Pub, "id", "()I")
+    e.method(Pub, "name", "()Ljava/lang/String;")
+    e.method(Pub, "copy", s"(ILjava/lang/String;)L$self;")
+    e.method(Pub, "copy$default$1", "()I")
+    e.method(Pub, "copy$default$2", "()Ljava/lang/String;")
+    e.method(Pub, "productPrefix", "()Ljava/lang/String;")
+    e.method(Pub, "productArity", "()I")
+    e.method(Pub, "productElement", "(I)Ljava/lang/Object;")
+    e.method(Pub, "productIterator", "()Lscala/collection/Iterator;")
+    e.method(Pub, "canEqual", "(Ljava/lang/Object;)Z")
+    e.method(Pub, "hashCode", "()I")
+    e.method(Pub, "toString", "()Ljava/lang/String;")
+    e.method(Pub, "equals", "(Ljava/lang/Object;)Z")
+    e.method(Pub, "total", "(I)I")
+    e.method(PubStatic | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_FINAL, "$anonfun$total$1", "(II)I")
+    e.method(PubStatic | Opcodes.ACC_SYNTHETIC | Opcodes.ACC_FINAL, "$anonfun$total$1$adapted", "(Ljava/lang/Object;)Ljava/lang/Object;")
+    e.method(Opcodes.ACC_PRIVATE | Synthetic, "$deserializeLambda$", "(Ljava/lang/invoke/SerializedLambda;)Ljava/lang/Object;")
+    e.result()
+  }
+
+  private def companion(pkg: String, i: Int): (String, Int, Array[Byte]) = {
+    val model = s"$pkg/Model$i"
+    val e     = new Emitter(model + "$", "java/lang/Object", "scala/Serializable")
+    e.cw.visitField(PubStatic | Opcodes.ACC_FINAL, "MODULE$", s"L$model$$;", null, null).visitEnd()
+    e.method(Opcodes.ACC_STATIC, "<clinit>", "()V")
+    e.ctor(Opcodes.ACC_PRIVATE, "()V")
+    e.method(Pub, "apply", s"(ILjava/lang/String;)L$model;")
+    e.method(Pub, "unapply", s"(L$model;)Lscala/Option;")
+    e.method(Pub | Opcodes.ACC_FINAL, "toString", "()Ljava/lang/String;")
+    e.method(Opcodes.ACC_PRIVATE, "readResolve", "()Ljava/lang/Object;")
+    e.method(Bridge, "apply", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;")
+    e.method(Pub, "$lessinit$greater$default$1", "()I")
+    e.result()
+  }
+
+  private def service(pkg: String, i: Int): (String, Int, Array[Byte]) = {
+    val self = s"$pkg/Service$i"
+    val e    = new Emitter(self, "java/lang/Object", "java/lang/Comparable")
+    e.ctor(Pub, "()V")
+    e.method(Pub, "getName", "()Ljava/lang/String;")
+    e.method(Pub, "setName", "(Ljava/lang/String;)V")
+    e.method(Pub, "getCount", "()I")
+    e.method(Pub, "setCount", "(I)V")
+    e.method(Pub, "process", "(Ljava/util/List;)I")
+    e.method(Opcodes.ACC_PRIVATE | Synthetic, "lambda$process$0", "(Ljava/lang/Object;)Z")
+    e.method(Opcodes.ACC_PRIVATE | Synthetic, "lambda$process$1", "(Ljava/lang/Object;)Ljava/lang/Object;")
+    e.method(Pub, "compareTo", s"(L$self;)I")
+    e.method(Bridge, "compareTo", "(Ljava/lang/Object;)I")
+    e.result()
+  }
+}
@@ -0,0 +1,46 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.jacoco.core.analysis.{Analyzer, CoverageBuilder}
+import org.jacoco.core.data.ExecutionDataStore
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.nio.file.Files
+import TestSupport._
+
+class ScaleCorpusSpec extends AnyFunSuite {
+
+  test("generates whole units with the requested number of methods") {
+    withTempDir("jmf-corpus-") { dir =>
+      val s = ScaleCorpus.generate(dir, 1000)
+      val units = (1000 + ScaleCorpus.MethodsPerUnit - 1) / ScaleCorpus.MethodsPerUnit
+      assert(s == ScaleCorpus.Summary(units * 3, units * ScaleCorpus.MethodsPerUnit))
+      assert(ClassFiles.discover(dir).size == s.classes)
+      assert(Files.exists(dir.resolve("corpus/p0/Model0$.class")))
+    }
+  }
+
+  test("corpus classes are matched by typical rules and accepted by JaCoCo") {
+    withTempDir("jmf-corpus-") { dir =>
+      ScaleCorpus.generate(dir, ScaleCorpus.MethodsPerUnit)
+      val rules = Seq(
+        "*#copy(*) id:case-copy",
+        "*#*  synthetic name-contains:$anonfun$ id:scala-anonfun",
+        "*$*#apply(*) id:comp-apply",
+        "+*$#apply(*)  bridge id:keep-bridge"
+      ).flatMap(Rules.parseLine(_))
+      val result = VerifyScanner.scan(dir, rules)
+      val excluded = result.excludedMethods.map(m => s"${m.fqcn}#${m.methodName}").toSet
+      assert(excluded == Set(
+        "corpus.p0.Model0#copy",
+        "corpus.p0.Model0#$anonfun$total$1",
+        "corpus.p0.Model0#$anonfun$total$1$adapted",
+        "corpus.p0.Model0$#apply"))
+      assert(result.rescuedMethods.map(_.descriptor) == Seq("(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;"))
+
+      val coverage = new CoverageBuilder
+      val analyzed = new Analyzer(new ExecutionDataStore, coverage).analyzeAll(dir.toFile)
+      assert(analyzed == 3)
+      assert(coverage.getClasses.size == 3)
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.objectweb.asm.Opcodes
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.nio.file.{Files, Path}
+import TestSupport._
+
+class ShardResultSpec extends AnyFunSuite {
+
+  private def withClasses(f: Path => Unit): Unit = {
+    withTempDir("jmf-shard-classes-") { dir =>
+      (1 to 12).foreach { i =>
+        createTestClass(dir, s"test.C$i", Seq(("copy", "()V", Opcodes.ACC_PUBLIC), ("run", "()V", Opcodes.ACC_PUBLIC)))
+      }
+      createTestClass(dir, "test.Only", Seq(("onlyHere", "()V", Opcodes.ACC_PUBLIC)))
+      f(dir)
+    }
+  }
+
+  private def shardResults(dir: Path, rs: Seq[MethodRule], count: Int): Seq[ShardResult] = {
+    val files = ClassFiles.discover(dir)
+    (1 to count).map { i =>
+      val shard = Shard(i, count)
+      VerifyScanner.scanShard(files.filter(shard.contains(dir, _)), RuleIndex(rs), scopeUnmatched = false, None, shard)
+    }
+  }
+
+  test("Shard.parse accepts i/n with 1 <= i <= n") {
+    assert(Shard.parse("1/1") == Right(Shard(1, 1)))
+    assert(Shard.parse("3/4") == Right(Shard(3, 4)))
+    Seq("0/2", "3/2", "2", "a/b", "1/", "-1/2", "1/2/3", "1/99999999999").foreach { bad =>
+      assert(Shard.parse(bad).isLeft, bad)
+    }
+  }
+
+  test("every class file belongs to exactly one shard") {
+    withClasses { dir =>
+      val files = ClassFiles.discover(dir)
+      val count = 3
+      files.foreach { f =>
+        assert((1 to count).count(i => Shard(i, count).contains(dir, f)) == 1, f)
+      }
+    }
+  }
+
+  test("merged shards reproduce a single verify run, unmatched rules included") {
+    withClasses { dir =>
+      val rs = rules("*#copy(*) id:copy", "+test.C1#copy(*) id:keep", "test.Only#onlyHere(*) id:only", "*#ghost(*) id:ghost")
+      val single = VerifyScanner.scan(dir, rs)
+
+      val merged = ShardResult.merge(shardResults(dir, rs, 4), rs).fold(e => fail(e), identity)
+
+      assert(merged.classesScanned == single.classesScanned)
+      assert(merged.matches == single.matches)
+      assert(merged.unmatchedRules == single.unmatchedRules)
+      assert(merged.unmatchedRules.flatMap(_.id) == Seq("ghost"))
+    }
+  }
+
+  test("shard results survive a write and read, and replace an older file without leftovers") {
+    withClasses { dir =>
+      val rs    = rules("*#copy(*) id:copy", "+test.C1#copy(*) id:keep")
+      val parts = shardResults(dir, rs, 2)
+      withTempDir("jmf-shard-") { out =>
+        val file = out.resolve("shard.jmfs")
+        ShardResult.write(parts(1), file)
+        ShardResult.write(parts(0), file)
+        val back = ShardResult.read(file)
+        assert(back.copy(matches = Nil) == parts(0).copy(matches = Nil))
+        assert(back.matches == parts(0).matches.toVector)
+        assert(out.toFile.list().toSeq == Seq("shard.jmfs"))
+      }
+    }
+  }
+
+  test("merge rejects missing, repeated and foreign shards") {
+    withClasses { dir =>
+      val rs    = rules("*#copy(*) id:copy")
+      val parts = shardResults(dir, rs, 3)
+
+      assert(ShardResult.merge(parts.take(2), rs).left.exists(_.contains("missing shard(s) 3/3")))
+      assert(ShardResult.merge(parts :+ parts.head, rs).left.exists(_.contains("1/3")))
+      assert(ShardResult.merge(parts, rules("*#run(*) id:run")).left.exists(_.contains("different rules")))
+      assert(ShardResult.merge(parts.take(2) ++ shardResults(dir, rs, 2).take(1), rs).isLeft)
+    }
+  }
+
+  test("sharded verify and merge enforce --error-on-unmatched over all shards") {
+    withClasses { dir =>
+      withTempDir("jmf-shard-out-") { work =>
+        val rulesFile = write(work.resolve("rules.txt"), Seq("*#copy(*) id:copy", "test.Only#onlyHere(*) id:only"))
+        val parts = (1 to 3).map(i => work.resolve(s"shard-$i.jmfs"))
+        parts.zipWithIndex.foreach { case (p, i) =>
+          val args = Array("--in", dir.toString, "--local-rules", rulesFile.toString, "--verify", "--shard", s"${i + 1}/3", "--shard-result", p.toString)
+          assert(CoverageRewriter.run(args) == 0)
+        }
+        val report = work.resolve("report.csv")
+        val merge  = Array("merge") ++ parts.map(_.toString) ++
+          Array("--local-rules", rulesFile.toString, "--error-on-unmatched", "--report-file", report.toString, "--report-format", "csv")
+        assert(CoverageRewriter.run(merge) == 0)
+        assert(new String(Files.readAllBytes(report), "UTF-8").split("\n").count(_.startsWith("EXCLUDED,")) == 13)
+
+        write(rulesFile, Seq("*#copy(*) id:copy", "test.Only#onlyHere(*) id:only", "*#ghost(*) id:ghost"))
+        assert(CoverageRewriter.run(merge) == 1, "rules changed since the shards were scanned")
+        parts.zipWithIndex.foreach { case (p, i) =>
+          val args = Array("--in", dir.toString, "--local-rules", rulesFile.toString, "--verify", "--shard", s"${i + 1}/3", "--shard-result", p.toString)
+          assert(CoverageRewriter.run(args) == 0)
+        }
+        assert(CoverageRewriter.run(merge) == 1, "ghost matches in no shard")
+        assert(CoverageRewriter.run(merge.take(3) ++ merge.drop(4)) == 1, "shard 3 missing")
+      }
+    }
+  }
+
+  test("merge accepts shards whose identical rules were loaded from different workspaces") {
+    withClasses { dir =>
+      withTempDir("jmf-shard-ws-") { work =>
+        val lines = Seq("*#copy(*) id:copy", "test.Only#onlyHere(*) id:only")
+        // Each CI agent and the merge node check out the rules in their own workspace (e.g. job@2).
+        val rulesAt = Seq("job", "job@2", "merge").map(ws => ws -> write(Files.createDirectories(work.resolve(ws)).resolve("jmf-rules.txt"), lines)).toMap
+        val parts = Seq(1, 2).map { i =>
+          val part = work.resolve(s"shard-$i.jmfs")
+          val ws   = if (i == 1) "job" else "job@2"
+          val args = Array("--in", dir.toString, "--local-rules", rulesAt(ws).toString, "--verify", "--shard", s"$i/2", "--shard-result", part.toString)
+          assert(CoverageRewriter.run(args) == 0)
+          part
+        }
+        val merge = Array("merge") ++ parts.map(_.toString) ++ Array("--local-rules", rulesAt("merge").toString, "--error-on-unmatched")
+        assert(CoverageRewriter.run(merge) == 0)
+      }
+    }
+  }
+}
@@ -1,7 +1,7 @@
 package io.moranaapps.jacocomethodfilter
 
 import java.nio.file.{Files, Path}
-import org.objectweb.asm.Opcodes
+import org.objectweb.asm.{ClassWriter, Opcodes}
 
 object TestSupport {
   def tmpFile(prefix: String = "rules-", suffix: String = ".txt"): Path =
@@ -33,4 +33,89 @@ object TestSupport {
     if (abstractA)  a |= Opcodes.ACC_ABSTRACT
     a
   }
+
+  // Helper to create a simple class file in a temp directory
+  def createTestClass(dir: Path, className: String, methods: Seq[(String, String, Int)]): Unit = {
+    val cw = new ClassWriter(ClassWriter.COMPUTE_MAXS)
+    cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, className.replace('.', '/'), null, "java/lang/Object", null)
+    
+    // Add constructor
+    val mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null)
+    mv.visitCode()
+    mv.visitVarInsn(Opcodes.ALOAD, 0)
+    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false)
+    mv.visitInsn(Opcodes.RETURN)
+    mv.visitMaxs(1, 1)
+    mv.visitEnd()
+    
+    // Add requested methods
+    methods.foreach { case (name, desc, access) =>
+      val m = cw.visitMethod(access, name, desc, null, null)
+      m.visitCode()
+      
+      // Generate correct return opcode based on descriptor's return type
+      val returnTypeDesc = desc.substring(desc.lastIndexOf(')') + 1)
+      returnTypeDesc.charAt(0) match {
+        case 'V' =>
+          m.visitInsn(Opcodes.RETURN)
+        case 'L' | '[' =>
+          m.visitInsn(Opcodes.ACONST_NULL)
+          m.visitInsn(Opcodes.ARETURN)
+        case 'Z' | 'B' | 'C' | 'S' | 'I' =>
+          m.visitInsn(Opcodes.ICONST_0)
+          m.visitInsn(Opcodes.IRETURN)
+        case 'J' =>
+          m.visitInsn(Opcodes.LCONST_0)
+          m.visitInsn(Opcodes.LRETURN)
+        case 'F' =>
+          m.visitInsn(Opcodes.FCONST_0)
+          m.visitInsn(Opcodes.FRETURN)
+        case 'D' =>
+          m.visitInsn(Opcodes.DCONST_0)
+          m.visitInsn(Opcodes.DRETURN)
+        case _ =>
+          // Fallback: treat as reference type
+          m.visitInsn(Opcodes.ACONST_NULL)
+          m.visitInsn(Opcodes.ARETURN)
+      }
+      // ClassWriter.COMPUTE_MAXS will recalculate correct maxStack/maxLocals
+      // (e.g., 2 for long/double which occupy 2 stack slots)
+      m.visitMaxs(0, 0)
+      m.visitEnd()
+    }
+    
+    cw.visitEnd()
+    
+    val classFile = dir.resolve(className.replace('.', '/') + ".class")
+    Files.createDirectories(classFile.getParent)
+    Files.write(classFile, cw.toByteArray)
+  }
+
+  // Parse rule lines; blank and comment lines yield no rule
+  def rules(lines: String*): Seq[MethodRule] = lines.flatMap(l => Rules.parseLine(l))
+
+  // Run `f` with a fresh temp directory, deleted afterwards
+  def withTempDir[A](prefix: String)(f: Path => A): A = {
+    val dir = Files.createTempDirectory(prefix)
+    try f(dir)
+    finally deleteRecursively(dir)
+  }
+
+  // Helper to delete directory recursively
+  def deleteRecursively(path: Path): Unit = {
+    if (Files.exists(path)) {
+      if (Files.isDirectory(path)) {
+        val stream = Files.list(path)
+        try {
+          val iterator = stream.iterator()
+          while (iterator.hasNext) {
+            deleteRecursively(iterator.next())
+          }
+        } finally {
+          stream.close()
+        }
+      }
+      Files.delete(path)
+    }
+  }
 }
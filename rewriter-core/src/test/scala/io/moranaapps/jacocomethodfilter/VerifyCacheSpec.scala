@@ -0,0 +1,122 @@
+package io.moranaapps.jacocomethodfilter
+
+import org.objectweb.asm.Opcodes
+import org.scalatest.funsuite.AnyFunSuite
+
+import java.nio.file.{Files, Path}
+import scala.collection.mutable
+import TestSupport._
+
+class VerifyCacheSpec extends AnyFunSuite {
+
+  private def withClasses(f: (Path, Path) => Unit): Unit =
+    withTempDir("jmf-cache-") { work =>
+      val dir = work.resolve("classes")
+      createTestClass(dir, "test.A", Seq(("copy", "()V", Opcodes.ACC_PUBLIC), ("run", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(dir, "test.B", Seq(("equals", "(Ljava/lang/Object;)Z", Opcodes.ACC_PUBLIC)))
+      f(dir, work.resolve("verify.cache"))
+    }
+
+  private def scan(dir: Path, cache: Path, rs: Seq[MethodRule]): (ScanResult, VerifyCache) = {
+    val c      = VerifyCache.open(cache, rs, _ => ())
+    val result = VerifyScanner.scanFiles(ClassFiles.discover(dir), rs, scopeUnmatched = false, Some(c))
+    c.save(pruneUnseen = true)
+    (result, c)
+  }
+
+  test("warm run serves every class from the cache with an identical result") {
+    withClasses { (dir, cache) =>
+      val rs = rules("*#copy(*) id:copy", "+test.A#copy(*) id:keep", "*#ghost(*) id:ghost")
+      val (cold, c1) = scan(dir, cache, rs)
+      val (warm, c2) = scan(dir, cache, rs)
+
+      assert(c1.misses == 2 && c1.hits == 0)
+      assert(c2.misses == 0 && c2.hits == 2)
+      assert(warm.matches.toSet == cold.matches.toSet)
+      assert(warm.unmatchedRules.flatMap(_.id) == Seq("ghost"))
+      assert(warm.classesScanned == 2)
+      assert(warm == VerifyScanner.scan(dir, rs).copy(matches = warm.matches))
+    }
+  }
+
+  test("changed class content is scanned again") {
+    withClasses { (dir, cache) =>
+      val rs = rules("*#copy(*) id:copy")
+      scan(dir, cache, rs)
+
+      createTestClass(dir, "test.B", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      Files.setLastModifiedTime(dir.resolve("test/B.class"), java.nio.file.attribute.FileTime.fromMillis(0L))
+      val (result, c) = scan(dir, cache, rs)
+
+      assert(c.misses == 1 && c.hits == 1)
+      assert(result.excludedMethods.map(_.fqcn).toSet == Set("test.A", "test.B"))
+    }
+  }
+
+  test("touched but unchanged class is served by content hash") {
+    withClasses { (dir, cache) =>
+      val rs = rules("*#copy(*) id:copy")
+      scan(dir, cache, rs)
+      Files.setLastModifiedTime(dir.resolve("test/A.class"), java.nio.file.attribute.FileTime.fromMillis(0L))
+
+      val (_, c) = scan(dir, cache, rs)
+      assert(c.misses == 0 && c.hits == 2)
+    }
+  }
+
+  test("a recompile that keeps size and modification time is scanned again") {
+    withClasses { (dir, cache) =>
+      val rs    = rules("*#copy(*) id:copy")
+      val a     = dir.resolve("test/A.class")
+      val size  = Files.size(a)
+      val mtime = Files.getLastModifiedTime(a)
+      scan(dir, cache, rs)
+
+      // A renamed method of the same length keeps the size; the timestamp is restored as a coarse clock would leave it.
+      createTestClass(dir, "test.A", Seq(("copz", "()V", Opcodes.ACC_PUBLIC), ("run", "()V", Opcodes.ACC_PUBLIC)))
+      Files.setLastModifiedTime(a, mtime)
+      assert(Files.size(a) == size)
+      val (result, c) = scan(dir, cache, rs)
+
+      assert(c.misses == 1 && c.hits == 1)
+      assert(result.excludedMethods.isEmpty)
+    }
+  }
+
+  test("a different rule list invalidates the cache") {
+    withClasses { (dir, cache) =>
+      scan(dir, cache, rules("*#copy(*) id:copy"))
+      val log = mutable.ArrayBuffer.empty[String]
+      val c   = VerifyCache.open(cache, rules("*#run(*) id:run"), log += _)
+      VerifyScanner.scanFiles(ClassFiles.discover(dir), rules("*#run(*) id:run"), scopeUnmatched = false, Some(c))
+
+      assert(c.misses == 2)
+      assert(log.exists(_.contains("Rules changed")))
+    }
+  }
+
+  test("a corrupt cache file is ignored") {
+    withClasses { (dir, cache) =>
+      write(cache, Seq("not a cache"))
+      val log = mutable.ArrayBuffer.empty[String]
+      val c   = VerifyCache.open(cache, rules("*#copy(*)"), log += _)
+      VerifyScanner.scanFiles(ClassFiles.discover(dir), rules("*#copy(*)"), scopeUnmatched = false, Some(c))
+      assert(c.misses == 2)
+      assert(log.nonEmpty)
+    }
+  }
+
+  test("fingerprint depends on rule order") {
+    val a = rules("*#copy(*) id:copy", "*#run(*) id:run")
+    assert(VerifyCache.fingerprint(a) == VerifyCache.fingerprint(rules("*#copy(*) id:copy", "*#run(*) id:run")))
+    assert(VerifyCache.fingerprint(a) != VerifyCache.fingerprint(a.reverse))
+  }
+
+  test("fingerprint depends on what rules match, not where they were loaded from") {
+    def from(source: RuleSource, lines: String*) = lines.flatMap(l => Rules.parseLine(l, source))
+    val a = from(LocalSource("/ws/job/jmf-rules.txt"), "*#copy(*) id:copy", "+test.A#copy(*) public id:keep")
+    assert(VerifyCache.fingerprint(a) == VerifyCache.fingerprint(from(LocalSource("/ws/job@2/jmf-rules.txt"), "*#copy(*) id:copy", "+test.A#copy(*) public id:keep")))
+    assert(VerifyCache.fingerprint(a) != VerifyCache.fingerprint(from(LocalSource("/ws/job/jmf-rules.txt"), "*#copy(*) id:copy", "+test.A#copy(*) id:keep")))
+    assert(VerifyCache.fingerprint(a) != VerifyCache.fingerprint(from(LocalSource("/ws/job/jmf-rules.txt"), "*#copy(*) id:copy2", "+test.A#copy(*) public id:keep")))
+  }
+}
@@ -2,68 +2,11 @@ package io.moranaapps.jacocomethodfilter
 
 import org.scalatest.funsuite.AnyFunSuite
 import org.objectweb.asm._
-import java.nio.file.{Files, Path}
+import java.nio.file.Files
 import TestSupport._
 
 class VerifyScannerSpec extends AnyFunSuite {
 
-  // Helper to create a simple class file in a temp directory
-  private def createTestClass(dir: Path, className: String, methods: Seq[(String, String, Int)]): Unit = {
-    val cw = new ClassWriter(ClassWriter.COMPUTE_MAXS)
-    cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, className.replace('.', '/'), null, "java/lang/Object", null)
-    
-    // Add constructor
-    val mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null)
-    mv.visitCode()
-    mv.visitVarInsn(Opcodes.ALOAD, 0)
-    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false)
-    mv.visitInsn(Opcodes.RETURN)
-    mv.visitMaxs(1, 1)
-    mv.visitEnd()
-    
-    // Add requested methods
-    methods.foreach { case (name, desc, access) =>
-      val m = cw.visitMethod(access, name, desc, null, null)
-      m.visitCode()
-      
-      // Generate correct return opcode based on descriptor's return type
-      val returnTypeDesc = desc.substring(desc.lastIndexOf(')') + 1)
-      returnTypeDesc.charAt(0) match {
-        case 'V' =>
-          m.visitInsn(Opcodes.RETURN)
-        case 'L' | '[' =>
-          m.visitInsn(Opcodes.ACONST_NULL)
-          m.visitInsn(Opcodes.ARETURN)
-        case 'Z' | 'B' | 'C' | 'S' | 'I' =>
-          m.visitInsn(Opcodes.ICONST_0)
-          m.visitInsn(Opcodes.IRETURN)
-        case 'J' =>
-          m.visitInsn(Opcodes.LCONST_0)
-          m.visitInsn(Opcodes.LRETURN)
-        case 'F' =>
-          m.visitInsn(Opcodes.FCONST_0)
-          m.visitInsn(Opcodes.FRETURN)
-        case 'D' =>
-          m.visitInsn(Opcodes.DCONST_0)
-          m.visitInsn(Opcodes.DRETURN)
-        case _ =>
-          // Fallback: treat as reference type
-          m.visitInsn(Opcodes.ACONST_NULL)
-          m.visitInsn(Opcodes.ARETURN)
-      }
-      // ClassWriter.COMPUTE_MAXS will recalculate correct maxStack/maxLocals
-      // (e.g., 2 for long/double which occupy 2 stack slots)
-      m.visitMaxs(0, 0)
-      m.visitEnd()
-    }
-    
-    cw.visitEnd()
-    
-    val classFile = dir.resolve(className.replace('.', '/') + ".class")
-    Files.createDirectories(classFile.getParent)
-    Files.write(classFile, cw.toByteArray)
-  }
-
   test("scan returns correct count of scanned classes") {
     val dir = Files.createTempDirectory("verify-test-")
     try {
@@ -878,21 +821,39 @@ class VerifyScannerSpec extends AnyFunSuite {
     assert(unmatchedRow.contains("missing-copy"))
   }
 
-  // Helper to delete directory recursively
-  private def deleteRecursively(path: Path): Unit = {
-    if (Files.exists(path)) {
-      if (Files.isDirectory(path)) {
-        val stream = Files.list(path)
-        try {
-          val iterator = stream.iterator()
-          while (iterator.hasNext) {
-            deleteRecursively(iterator.next())
-          }
-        } finally {
-          stream.close()
-        }
-      }
-      Files.delete(path)
+  // --- targeted scans (--classes-from) ---
+
+  test("scanFiles only scans the given class files") {
+    val dir = Files.createTempDirectory("verify-test-")
+    try {
+      createTestClass(dir, "test.Listed", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      createTestClass(dir, "test.Skipped", Seq(("copy", "()V", Opcodes.ACC_PUBLIC)))
+      val rules = Seq(Rules.parseLine("*#copy(*) id:copy").get)
+
+      val result = VerifyScanner.scanFiles(Seq(dir.resolve("test/Listed.class")), rules, scopeUnmatched = true)
+
+      assert(result.classesScanned == 1)
+      assert(result.matches.map(_.fqcn) == Seq("test.Listed"))
+    } finally {
+      deleteRecursively(dir)
+    }
+  }
+
+  test("scoped scan reports only unmatched rules whose class selector matches a scanned class") {
+    val dir = Files.createTempDirectory("verify-test-")
+    try {
+      createTestClass(dir, "a.Service", Seq(("run", "()V", Opcodes.ACC_PUBLIC)))
+      val inScope    = Rules.parseLine("a.*#copy(*) id:a-copy").get
+      val outOfScope = Rules.parseLine("b.*#copy(*) id:b-copy").get
+      val files      = Seq(dir.resolve("a/Service.class"))
+
+      val scoped = VerifyScanner.scanFiles(files, Seq(inScope, outOfScope), scopeUnmatched = true)
+      assert(scoped.unmatchedRules.flatMap(_.id) == Seq("a-copy"))
+
+      val unscoped = VerifyScanner.scanFiles(files, Seq(inScope, outOfScope), scopeUnmatched = false)
+      assert(unscoped.unmatchedRules.flatMap(_.id) == Seq("a-copy", "b-copy"))
+    } finally {
+      deleteRecursively(dir)
     }
   }
 }
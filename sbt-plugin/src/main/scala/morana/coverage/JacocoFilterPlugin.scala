@@ -76,6 +76,63 @@ object JacocoFilterPlugin extends AutoPlugin {
     }
   }
 
+  private lazy val jacocoReportAggregateCmd = Command.command("jacocoReportAggregate") { state =>
+    val e       = Project.extract(state)
+    val current = e.currentRef
+    val under   = enabledUnder(state)
+
+    val selfEnabled = e.getOpt(current / jacocoPluginEnabled).getOrElse(false)
+    val targets     = (if (selfEnabled) current +: under else under).distinct
+    val log         = state.log
+
+    if (targets.isEmpty) {
+      println("[jacoco] nothing to aggregate (no enabled modules here).")
+      state
+    } else {
+      // Rewrite every module first; the report itself is a single in-process run over all of them.
+      val (afterRewrite, modules) = targets.foldLeft((state, Vector.empty[(File, Seq[File], File)])) {
+        case ((st, acc), ref) =>
+          val (next, classesDirs) = Project.extract(st).runTask(ref / jacocoReportClasses, st)
+          (next, acc :+ ((e.get(ref / jacocoExecFile), classesDirs, e.get(ref / Compile / sourceDirectory))))
+      }
+      val (finalState, jmfReport) = Project.extract(afterRewrite).runTask(targets.head / Jmf / update, afterRewrite)
+      val jmfJars = jmfReport.matching(artifactFilter(`type` = "jar")).distinct
+
+      val (present, missing) = modules.map(_._1).partition(_.exists)
+      missing.foreach(f => log.warn(s"[jacoco] exec file missing, not merged: ${f.getAbsolutePath}"))
+
+      val reportDir = e.get(current / jacocoAggregateReportDir)
+      IO.createDirectory(reportDir)
+      if (present.isEmpty) {
+        log.warn("[jacoco] no exec files found; aggregate report skipped")
+      } else {
+        val first = targets.head
+        // One report run applies one rule set: the first module's, as for the other report settings.
+        val filterArgs = inReportRulesArgs(
+          e.get(first / jmfEnabled) && e.get(first / jmfFilterInReport),
+          e.get(first / jmfGlobalRules),
+          e.get(first / jmfLocalRules),
+          e.get(first / jmfLocalRulesFile),
+          log
+        )
+        val args = reportArgs(
+          present,
+          modules.map(_._2),
+          modules.map(_._3),
+          reportDir,
+          e.getOpt(current / jacocoReportFormats).getOrElse(e.get(first / jacocoReportFormats)),
+          e.getOpt(current / jacocoSourceEncoding).getOrElse(e.get(first / jacocoSourceEncoding)),
+          s"Report: ${current.project} (aggregate)",
+          log
+        ) ++ filterArgs
+        log.info(s"[jacoco] aggregate report over ${targets.size} module(s): ${args.mkString(" ")}")
+        val code = runReport(jmfJars, args, log)
+        if (code != 0) sys.error(s"[jacoco] aggregate report failed ($code)")
+      }
+      finalState
+    }
+  }
+
   private def agentJar(cp: Seq[Attributed[File]]): File = {
     val files = cp.map(_.data)
     files
@@ -85,12 +142,173 @@ object JacocoFilterPlugin extends AutoPlugin {
       .getOrElse(sys.error("JaCoCo runtime agent JAR not found on Test / dependencyClasspath"))
   }
 
-  private def cliJar(cp: Seq[Attributed[File]]): File = {
-    val files = cp.map(_.data)
-    files
-      .find(f => f.getName.startsWith("org.jacoco.cli-") && f.getName.contains("nodeps"))
-      .orElse(files.find(_.getName.startsWith("org.jacoco.cli-")))
-      .getOrElse(sys.error("org.jacoco.cli (nodeps) JAR not found on Test / dependencyClasspath"))
+  /** Report arguments for one module's [[jacocoReportClasses]]: an overlay and the classes it was written
+    * from go together, so the overlay shadows only its own module's classes.
+    */
+  private def classesArgs(classesDirs: Seq[File]): Seq[String] = classesDirs match {
+    case Seq(overlay, base) => Seq("--overlay", overlay.getAbsolutePath + java.io.File.pathSeparator + base.getAbsolutePath)
+    case dirs               => dirs.flatMap(d => Seq("--classfiles", d.getAbsolutePath))
+  }
+
+  /** Arguments for the core `report` subcommand. */
+  private def reportArgs(
+    execFiles: Seq[File],
+    moduleClasses: Seq[Seq[File]],
+    sourceDirs: Seq[File],
+    reportDir: File,
+    formats: Set[String],
+    encoding: String,
+    name: String,
+    log: Logger
+  ): Seq[String] = {
+    val baseArgs = execFiles.map(_.getAbsolutePath) ++
+      moduleClasses.flatMap(classesArgs) ++
+      sourceDirs.flatMap(d => Seq("--sourcefiles", d.getAbsolutePath))
+
+    // Conditionally add report format outputs
+    val validFormats = Set("html", "xml", "csv")
+    val formatArgs = formats.toSeq.flatMap {
+      case "html" => Seq("--html", reportDir.getAbsolutePath)
+      case "xml"  => Seq("--xml", (reportDir / "jacoco.xml").getAbsolutePath)
+      case "csv"  => Seq("--csv", (reportDir / "jacoco.csv").getAbsolutePath)
+      case other  =>
+        log.warn(s"[jacoco] unknown report format: $other (valid: html, xml, csv)")
+        Seq.empty
+    }
+
+    if ((formats & validFormats).isEmpty) {
+      log.warn("[jacoco] jacocoReportFormats is empty \u2014 no reports will be generated")
+    }
+
+    baseArgs ++ formatArgs ++ Seq("--encoding", encoding) ++ Seq("--name", name)
+  }
+
+  /** `--global-rules` / `--local-rules` arguments; the default rules file is used when neither is set. */
+  private def rulesArgs(globalRules: Option[String], localRules: Option[File], rulesFile: File): Seq[String] =
+    if (globalRules.isDefined || localRules.isDefined) {
+      globalRules.toSeq.flatMap(g => Seq("--global-rules", g)) ++
+      localRules.toSeq.flatMap(l => Seq("--local-rules", l.getAbsolutePath))
+    } else {
+      Seq("--local-rules", rulesFile.getAbsolutePath)
+    }
+
+  /** The agent's include/exclude patterns, so JMF skips classes JaCoCo does not record. */
+  private def agentPatternArgs(includes: Seq[String], excludes: Seq[String]): Seq[String] =
+    Seq("--includes", includes.mkString(":")) ++
+      (if (excludes.nonEmpty) Seq("--excludes", excludes.mkString(":")) else Seq.empty)
+
+  /** Rules arguments for the report when it filters methods itself (jmfFilterInReport), otherwise none. */
+  private def inReportRulesArgs(
+    filter: Boolean,
+    globalRules: Option[String],
+    localRules: Option[File],
+    rulesFile: File,
+    log: Logger
+  ): Seq[String] =
+    if (!filter) Seq.empty
+    else if (globalRules.isDefined || localRules.exists(_.exists) || rulesFile.exists) rulesArgs(globalRules, localRules, rulesFile)
+    else {
+      log.warn(s"[jacoco] rules file missing: ${rulesFile.getAbsolutePath}; report is not filtered.")
+      Seq.empty
+    }
+
+  private val reportMain = "io.moranaapps.jacocomethodfilter.CoverageReport"
+
+  /** Run the core report engine inside the sbt JVM.
+    *
+    * The core is built for the project's Scala version, so it is loaded from the Jmf jars in an isolated
+    * class loader rather than linked against the plugin.
+    */
+  private def runReport(jmfJars: Seq[File], args: Seq[String], log: Logger): Int = {
+    val loader = new java.net.URLClassLoader(jmfJars.map(_.toURI.toURL).toArray, ClassLoader.getSystemClassLoader.getParent)
+    try {
+      val sink = new java.util.function.Consumer[String] {
+        def accept(line: String): Unit =
+          if (line.startsWith("[warn]")) log.warn(s"[jacoco] ${line.stripPrefix("[warn]").trim}")
+          else if (line.startsWith("[error]")) log.error(s"[jacoco] ${line.stripPrefix("[error]").trim}")
+          else log.info(s"[jacoco] ${line.stripPrefix("[info]").trim}")
+      }
+      val run = loader.loadClass(reportMain)
+        .getMethod("run", classOf[Array[String]], classOf[java.util.function.Consumer[_]])
+      try run.invoke(null, args.toArray, sink).asInstanceOf[Int]
+      catch {
+        case e: java.lang.reflect.InvocationTargetException => throw e.getCause
+      }
+    } finally loader.close()
+  }
+
+  private val daemonMain = "io.moranaapps.jacocomethodfilter.RewriterDaemon"
+
+  /** Run the JMF CLI with `args`: on the shared rewriter daemon when `daemon` is set and it can be reached,
+    * otherwise in a forked JVM. The daemon is started with `jvm` (java and the Jmf classpath) and outlives
+    * the build until it has been idle for `idleTimeout` seconds.
+    */
+  private def runCli(
+    jmfJars: Seq[File],
+    jvm: Seq[String],
+    main: String,
+    args: Seq[String],
+    archive: Option[StartupArchive],
+    workDir: File,
+    daemon: Boolean,
+    idleTimeout: Int,
+    log: Logger
+  ): Int = {
+    val viaDaemon =
+      if (daemon) submitToDaemon(jmfJars, jvm, idleTimeout, workDir, args, log) match {
+        case Right(code) => Some(code)
+        case Left(e) =>
+          log.warn(s"[jmf] rewriter daemon unavailable, forking instead: ${e.getMessage}")
+          None
+      }
+      else None
+    viaDaemon.getOrElse {
+      val command = jvm.take(1) ++ archive.toSeq.flatMap(_.jvmOptions) ++ jvm.drop(1) ++ (main +: args)
+      val code = scala.sys.process.Process(command, workDir).!
+      archive.foreach(_.finish(code == 0))
+      code
+    }
+  }
+
+  /** Hand `args` to the rewriter daemon through its client, loaded from the Jmf jars like [[runReport]].
+    * Relative paths in `args` resolve against `workDir`, as they do in a forked run.
+    */
+  private def submitToDaemon(
+    jmfJars: Seq[File],
+    jvm: Seq[String],
+    idleTimeout: Int,
+    workDir: File,
+    args: Seq[String],
+    log: Logger
+  ): Either[java.io.IOException, Int] = {
+    val loader = new java.net.URLClassLoader(jmfJars.map(_.toURI.toURL).toArray, ClassLoader.getSystemClassLoader.getParent)
+    try {
+      val sink = new java.util.function.Consumer[String] {
+        def accept(line: String): Unit =
+          if (line.startsWith("[warn]")) log.warn(s"[jmf] ${line.stripPrefix("[warn]").trim}")
+          else if (line.startsWith("[error]")) log.error(s"[jmf] ${line.stripPrefix("[error]").trim}")
+          else log.info(s"[jmf] ${line.stripPrefix("[info]").trim}")
+      }
+      val stateDir = file(sys.props.getOrElse("user.home", ".")) / ".cache" / "jacoco-method-filter" / "daemon"
+      val submit = loader.loadClass(daemonMain).getMethod(
+        "submit",
+        classOf[java.nio.file.Path],
+        classOf[java.util.List[_]],
+        classOf[Int],
+        classOf[java.nio.file.Path],
+        classOf[Array[String]],
+        classOf[java.util.function.Consumer[_]]
+      )
+      val jvmCommand = java.util.Arrays.asList(jvm: _*)
+      try Right(submit.invoke(null, stateDir.toPath, jvmCommand, Int.box(idleTimeout), workDir.toPath, args.toArray, sink).asInstanceOf[Int])
+      catch {
+        case e: java.lang.reflect.InvocationTargetException =>
+          e.getCause match {
+            case io: java.io.IOException => Left(io)
+            case other                   => throw other
+          }
+      }
+    } finally loader.close()
   }
 
   private val defaultIncludes = Seq("**")
@@ -98,7 +316,8 @@ object JacocoFilterPlugin extends AutoPlugin {
 
   override def buildSettings: Seq[Def.Setting[_]] = Seq(
     jacocoPluginEnabled := false,
-    commands ++= Seq(jacocoCleanAllCmd, jacocoReportAllCmd)
+    jacocoAggregateReportDir := (ThisBuild / baseDirectory).value / "target" / "jacoco-report-aggregate",
+    commands ++= Seq(jacocoCleanAllCmd, jacocoReportAllCmd, jacocoReportAggregateCmd)
   )
 
   override def projectSettings: Seq[Setting[_]] = Seq(
@@ -109,8 +328,9 @@ object JacocoFilterPlugin extends AutoPlugin {
     jmfCoreVersion := "2.1.1",
     libraryDependencies ++= Seq(
       ("org.jacoco" % "org.jacoco.agent" % jacocoVersion.value % Test).classifier("runtime"),
-      ("org.jacoco" % "org.jacoco.cli" % jacocoVersion.value % Test).classifier("nodeps"),
-      "io.github.moranaapps" %% "jacoco-method-filter-core" % jmfCoreVersion.value % Jmf.name
+      "io.github.moranaapps" %% "jacoco-method-filter-core" % jmfCoreVersion.value % Jmf.name,
+      // The core's `report` subcommand drives the JaCoCo report API in-process.
+      "org.jacoco" % "org.jacoco.report" % jacocoVersion.value % Jmf.name
     ),
 
     jacocoSetUserDirToBuildRoot := true,
@@ -138,6 +358,16 @@ object JacocoFilterPlugin extends AutoPlugin {
     jmfLocalRules := None,
     jmfCliMain := "io.moranaapps.jacocomethodfilter.CoverageRewriter",
     jmfDryRun := false,
+    jmfOverlay := false,
+    jmfFilterInReport := false,
+    jmfClassesFrom := None,
+    jmfVerifyCache := Some(jmfOutDir.value / "jmf-verify.cache"),
+    jmfStartupArchiveDir := Some(file(sys.props.getOrElse("user.home", ".")) / ".cache" / "jacoco-method-filter" / "cds"),
+    jmfBaseline := None,
+    jmfRewriteCacheDir := None,
+    jmfRewriteCacheMaxMb := 1024L,
+    jmfDaemon := false,
+    jmfDaemonIdleTimeout := 900,
     jmfEnabled := true,
     jmfInitRulesForce := false,
     jmfReportFile := None,
@@ -197,31 +427,28 @@ object JacocoFilterPlugin extends AutoPlugin {
             log.warn(s"[jmf] rules file missing: ${rulesFile.getAbsolutePath}; skipping.")
             log.info(s"[jmf] Run 'jmfInitRules' to create a rules file.")
           } else {
+            val archive = jmfStartupArchiveDir.value.flatMap(StartupArchive.forClasspath(jmfJars, _))
+            val jvm = Seq(javaBin, "-cp", cpStr)
             val baseArgs = Seq(
-              javaBin,
-              "-cp",
-              cpStr,
-              jmfCliMain.value,
               "--verify",
               "--in",
               classesIn.getAbsolutePath
             )
 
-            val rulesArgs = if (globalRules.isDefined || localRules.isDefined) {
-              globalRules.toSeq.flatMap(g => Seq("--global-rules", g)) ++
-              localRules.toSeq.flatMap(l => Seq("--local-rules", l.getAbsolutePath))
-            } else {
-              Seq("--local-rules", rulesFile.getAbsolutePath)
-            }
+            val ruleArgs = rulesArgs(globalRules, localRules, rulesFile)
 
             val reportArgs = reportFile.toSeq.flatMap(f =>
               Seq("--report-file", f.getAbsolutePath, "--report-format", reportFormat)
             )
+            val classesFromArgs = jmfClassesFrom.value.toSeq.flatMap(f => Seq("--classes-from", f.getAbsolutePath))
+            val patternArgs = agentPatternArgs(jacocoIncludes.value, jacocoExcludes.value)
 
-            val args = baseArgs ++ rulesArgs ++ reportArgs
+            val cacheArgs = jmfVerifyCache.value.toSeq.flatMap(f => Seq("--verify-cache", f.getAbsolutePath))
+            val baselineArgs = jmfBaseline.value.toSeq.flatMap(f => Seq("--baseline", f.getAbsolutePath))
+            val args = baseArgs ++ ruleArgs ++ classesFromArgs ++ patternArgs ++ cacheArgs ++ baselineArgs ++ reportArgs
 
             log.info(s"[jmf] verify: ${args.mkString(" ")}")
-            val code = scala.sys.process.Process(args, workDir).!
+            val code = runCli(jmfJars, jvm, jmfCliMain.value, args, archive, workDir, jmfDaemon.value, jmfDaemonIdleTimeout.value, log)
             if (code != 0) sys.error(s"[jmf] verify failed ($code)")
           }
         }
@@ -265,37 +492,41 @@ object JacocoFilterPlugin extends AutoPlugin {
             classesIn
           } else {
             val outDir = jmfOutDir.value / "classes-filtered"
-            IO.delete(outDir)
-            IO.createDirectory(outDir)
+            val dryRun = jmfDryRun.value
+            // A dry run writes nothing, so keep any previous output and hand the original classes on.
+            if (!dryRun) {
+              IO.delete(outDir)
+              IO.createDirectory(outDir)
+            }
 
+            val archive = jmfStartupArchiveDir.value.flatMap(StartupArchive.forClasspath(jmfJars, _))
+            val jvm = Seq(javaBin, "-cp", cpStr)
             val baseArgs = Seq(
-              javaBin,
-              "-cp",
-              cpStr,
-              jmfCliMain.value,
               "--in",
               classesIn.getAbsolutePath,
               "--out",
               outDir.getAbsolutePath
             )
             
-            val rulesArgs = if (globalRules.isDefined || localRules.isDefined) {
-              globalRules.toSeq.flatMap(g => Seq("--global-rules", g)) ++
-              localRules.toSeq.flatMap(l => Seq("--local-rules", l.getAbsolutePath))
-            } else {
-              Seq("--local-rules", rulesFile.getAbsolutePath)
-            }
+            val ruleArgs = rulesArgs(globalRules, localRules, rulesFile)
             
-            val dryRunArgs = if (jmfDryRun.value) Seq("--dry-run") else Seq.empty
+            val dryRunArgs = if (dryRun) Seq("--dry-run") else Seq.empty
+            val overlayArgs = if (jmfOverlay.value) Seq("--overlay") else Seq.empty
+            val cacheArgs = jmfRewriteCacheDir.value.toSeq.flatMap(d =>
+              Seq("--cache-dir", d.getAbsolutePath, "--cache-max-mb", jmfRewriteCacheMaxMb.value.toString)
+            )
             val reportArgs = reportFile.toSeq.flatMap(f =>
               Seq("--report-file", f.getAbsolutePath, "--report-format", reportFormat)
             )
-            val args = baseArgs ++ rulesArgs ++ dryRunArgs ++ reportArgs
+            // jmfClassesFrom applies to jmfVerify only: a rewrite of the listed classes alone would leave every
+            // other class out of classes-filtered, and so out of the tests and the coverage report.
+            val patternArgs = agentPatternArgs(jacocoIncludes.value, jacocoExcludes.value)
+            val args = baseArgs ++ ruleArgs ++ dryRunArgs ++ overlayArgs ++ patternArgs ++ cacheArgs ++ reportArgs
 
             log.info(s"[jmf] rewrite: ${args.mkString(" ")}")
-            val code = scala.sys.process.Process(args, workDir).!
+            val code = runCli(jmfJars, jvm, jmfCliMain.value, args, archive, workDir, jmfDaemon.value, jmfDaemonIdleTimeout.value, log)
             if (code != 0) sys.error(s"[jmf] rewriter failed ($code)")
-            outDir
+            if (dryRun) classesIn else outDir
           }
         }
       }
@@ -306,7 +537,9 @@ object JacocoFilterPlugin extends AutoPlugin {
       else Def.task { () }
     }.value,
 
-    // Ensure tests see rewritten main classes first (when enabled)
+    // Ensure tests see rewritten main classes first (when enabled).
+    // The original classes stay at the end, so a sparse overlay (jmfOverlay) still resolves every class.
+    // With jmfFilterInReport nothing is rewritten: the report applies the rules itself.
     Test / fullClasspath := Def.taskDyn {
       val testOut   = (Test / classDirectory).value
       val mainOut   = (Compile / classDirectory).value
@@ -324,7 +557,7 @@ object JacocoFilterPlugin extends AutoPlugin {
         (prefix ++ rest :+ Attributed.blank(mainOut))
       }
 
-      if (jacocoPluginEnabled.value) build(Some(jmfRewrite.value))
+      if (jacocoPluginEnabled.value && !jmfFilterInReport.value) build(Some(jmfRewrite.value))
       else build(None)
     }.value,
 
@@ -375,83 +608,69 @@ object JacocoFilterPlugin extends AutoPlugin {
       log.info(s"[jacoco] cleaned: ${jacocoDir.getAbsolutePath}")
     },
 
+    // ---- classes analysed by the report
+    // Use rewritten classes if JMF is enabled, otherwise (or when the report filters itself) original classes.
+    // A sparse overlay is listed before the original classes; the report lets it shadow only those classes.
+    jacocoReportClasses := Def.taskDyn {
+      val baseClassesDir = (Compile / classDirectory).value
+      val overlay        = jmfOverlay.value
+      if (jacocoPluginEnabled.value && jmfEnabled.value && !jmfFilterInReport.value) {
+        Def.task {
+          val rewritten = jmfRewrite.value
+          if (overlay && rewritten != baseClassesDir) Seq(rewritten, baseClassesDir)
+          else Seq(rewritten)
+        }
+      } else {
+        Def.task { Seq(baseClassesDir) }
+      }
+    }.value,
+
     // ---- per-module report
-    jacocoReport := Def.taskDyn {
+    jacocoReport := {
       val log        = streams.value.log
       val reportDir  = jacocoReportDir.value
       val execFile   = jacocoExecFile.value
-      val name       = jacocoReportName.value
-      val formats    = jacocoReportFormats.value
-      val encoding   = jacocoSourceEncoding.value
       val enabled    = jacocoPluginEnabled.value
       val failOnMissing = jacocoFailOnMissingExec.value
-      val cp         = (Test / dependencyClasspath).value
-      val baseClassesDir = (Compile / classDirectory).value
+      val classesDirs = jacocoReportClasses.value
       val sourcesDir = (Compile / sourceDirectory).value
-      val jmfIsEnabled = jmfEnabled.value
-
-      // Use rewritten classes if JMF is enabled, otherwise use original classes
-      val classesTask = if (enabled && jmfIsEnabled) {
-        Def.task { jmfRewrite.value }
+      val jmfJars: Seq[File] = (Jmf / update).value.matching(artifactFilter(`type` = "jar")).distinct
+      val filterArgs = inReportRulesArgs(
+        enabled && jmfEnabled.value && jmfFilterInReport.value,
+        jmfGlobalRules.value,
+        jmfLocalRules.value,
+        jmfLocalRulesFile.value,
+        log
+      )
+
+      if (!enabled) {
+        IO.createDirectory(reportDir)
+        log.info("[jacoco] disabled (jacocoPluginEnabled=false); report no-op")
+        reportDir
+      } else if (!execFile.exists) {
+        val msg = s"[jacoco] exec file missing, skipping report: ${execFile.getAbsolutePath}"
+        if (failOnMissing) sys.error(msg) else log.warn(msg)
+        IO.createDirectory(reportDir)
+        reportDir
       } else {
-        Def.task { baseClassesDir }
+        IO.createDirectory(reportDir)
+
+        val args = reportArgs(
+          Seq(execFile),
+          Seq(classesDirs),
+          Seq(sourcesDir),
+          reportDir,
+          jacocoReportFormats.value,
+          jacocoSourceEncoding.value,
+          jacocoReportName.value,
+          log
+        ) ++ filterArgs
+
+        log.info(s"[jacoco] report: ${args.mkString(" ")}")
+        val code = runReport(jmfJars, args, log)
+        if (code != 0) sys.error(s"[jacoco] report failed ($code)")
+        reportDir
       }
-
-      Def.task {
-        val classesDir = classesTask.value
-
-        if (!enabled) {
-          IO.createDirectory(reportDir)
-          log.info("[jacoco] disabled (jacocoPluginEnabled=false); report no-op")
-          reportDir
-        } else if (!execFile.exists) {
-          val msg = s"[jacoco] exec file missing, skipping report: ${execFile.getAbsolutePath}"
-          if (failOnMissing) sys.error(msg) else log.warn(msg)
-          IO.createDirectory(reportDir)
-          reportDir
-        } else {
-          val cli = cliJar(cp)
-
-          IO.createDirectory(reportDir)
-
-          val baseArgs = Seq(
-            "java",
-            "-jar",
-            cli.getAbsolutePath,
-            "report",
-            execFile.getAbsolutePath,
-            "--classfiles",
-            classesDir.getAbsolutePath,
-            "--sourcefiles",
-            sourcesDir.getAbsolutePath
-          )
-
-          // Conditionally add report format outputs
-          val validFormats = Set("html", "xml", "csv")
-          val formatArgs = formats.toSeq.flatMap {
-            case "html" => Seq("--html", reportDir.getAbsolutePath)
-            case "xml"  => Seq("--xml", (reportDir / "jacoco.xml").getAbsolutePath)
-            case "csv"  => Seq("--csv", (reportDir / "jacoco.csv").getAbsolutePath)
-            case other  => 
-              log.warn(s"[jacoco] unknown report format: $other (valid: html, xml, csv)")
-              Seq.empty
-          }
-
-          if ((formats & validFormats).isEmpty) {
-            log.warn("[jacoco] jacocoReportFormats is empty \u2014 no reports will be generated")
-          }
-
-          val encodingArgs = Seq("--encoding", encoding)
-          val nameArgs = Seq("--name", name)
-
-          val args = baseArgs ++ formatArgs ++ encodingArgs ++ nameArgs
-
-          log.info(s"[jacoco] report: ${args.mkString(" ")}")
-          val code = scala.sys.process.Process(args, baseDirectory.value).!
-          if (code != 0) sys.error(s"[jacoco] report failed ($code)")
-          reportDir
-        }
-      }
-    }.value
+    }
   )
 }
@@ -27,6 +27,11 @@ object Keys {
     val jacocoCleanAll  = taskKey[Unit]("Run jacocoClean in all aggregated modules (no merge)")
     val jacocoReportAll = taskKey[Unit]("Run jacocoReport in all aggregated modules (no merge)")
 
+    // Root-only helper (MERGED): one report over every enabled module's exec file and classes
+    val jacocoReportAggregate    = taskKey[File]("Generate one merged JaCoCo report for all enabled aggregated modules")
+    val jacocoAggregateReportDir = settingKey[File]("Output directory of jacocoReportAggregate")
+    val jacocoReportClasses      = taskKey[Seq[File]]("Class directories analysed by jacocoReport (an overlay, then the classes it overlays)")
+
     val jacocoSetUserDirToBuildRoot = settingKey[Boolean](
       "Mimic non-forked runs by setting -Duser.dir to the build root for forked tests"
     )
@@ -41,12 +46,22 @@ object Keys {
     val jmfLocalRules      = settingKey[Option[File]]("JMF local rules file")
     val jmfCliMain         = settingKey[String]("Main class of the JMF CLI")
     val jmfDryRun          = settingKey[Boolean]("Dry-run rewriter")
+    val jmfOverlay         = settingKey[Boolean]("Write only rewritten classes and layer them over the compiled classes (default: false)")
+    val jmfFilterInReport  = settingKey[Boolean]("Apply the rules inside jacocoReport instead of rewriting classes; tests run on the compiled classes (default: false)")
+    val jmfClassesFrom     = settingKey[Option[File]]("jmfVerify scans only the classes listed in this file (class files or class names, one per line)")
+    val jmfStartupArchiveDir = settingKey[Option[File]]("Directory of AppCDS archives that speed up the forked JMF JVM on JDK 13+ (None disables)")
+    val jmfRewriteCacheDir = settingKey[Option[File]]("Content-addressed store of rewritten classes shared across workspaces, e.g. ~/.cache/jacoco-method-filter/rewrite (None disables)")
+    val jmfRewriteCacheMaxMb = settingKey[Long]("Size bound of jmfRewriteCacheDir in MiB; least recently used entries are evicted beyond it (default: 1024)")
+    val jmfDaemon          = settingKey[Boolean]("Run jmfVerify and jmfRewrite on a shared rewriter daemon instead of forking a JVM each time (default: false)")
+    val jmfDaemonIdleTimeout = settingKey[Int]("Seconds the rewriter daemon stays up without requests (default: 900)")
     val jmfEnabled         = settingKey[Boolean]("Enable JMF rewriting")
     val jmfPrepareForTests = taskKey[Unit]("Run JMF rewrite when enabled")
     val jmfInitRules       = taskKey[File]("Create default jmf-rules.txt if it does not exist")
     val jmfInitRulesForce  = settingKey[Boolean]("Force overwrite existing jmf-rules.txt (default: false)")
     val jmfVerify          = taskKey[Unit]("On-demand scan: show which methods would be excluded from coverage by current rules")
+    val jmfVerifyCache     = settingKey[Option[File]]("Cache of per-class jmfVerify results, reused for unchanged classes (None disables)")
+    val jmfBaseline        = settingKey[Option[File]]("csv or bin verify report that jmfVerify must reproduce exactly (fails on any difference)")
     val jmfReportFile      = settingKey[Option[File]]("Write filtered-methods report to this file (used with jmfVerify or jmfRewrite, including dry-run mode)")
-    val jmfReportFormat    = settingKey[String]("Report format for jmfReportFile: txt (default), json, or csv")
+    val jmfReportFormat    = settingKey[String]("Report format for jmfReportFile: txt (default), json, csv, or bin")
   }
 }
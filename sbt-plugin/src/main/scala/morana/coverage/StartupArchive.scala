@@ -0,0 +1,73 @@
+package morana.coverage
+
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.nio.file.{AtomicMoveNotSupportedException, Files, StandardCopyOption}
+import java.security.MessageDigest
+
+/** Application class-data-sharing (AppCDS) archive for the forked JMF JVM.
+  *
+  * On JDK 13+ the first fork for a given JDK and classpath records the classes it loaded into a
+  * dynamic archive (`-XX:ArchiveClassesAtExit`); later forks map it instead of loading the Scala
+  * library, scopt and ASM again. The archive name covers the JDK and the path, size and modification
+  * time of every jar, since the JVM only accepts an archive for the exact classpath it was dumped with.
+  * It is dumped to a temporary file and moved into place only after a successful fork.
+  */
+private[coverage] final class StartupArchive private (archive: File, pending: Option[File]) {
+
+  /** JVM options that map the archive, or record it when it does not exist yet. */
+  def jvmOptions: Seq[String] = {
+    val archiveOpt = pending match {
+      case Some(p) => s"-XX:ArchiveClassesAtExit=${p.getAbsolutePath}"
+      case None    => s"-XX:SharedArchiveFile=${archive.getAbsolutePath}"
+    }
+    // A mismatched archive is skipped; keep its warnings out of the build log.
+    Seq(archiveOpt, "-Xlog:cds=off", "-Xlog:cds+dynamic=off")
+  }
+
+  /** Publish a recorded archive after a successful fork; discard it otherwise. */
+  def finish(succeeded: Boolean): Unit =
+    pending.filter(_.isFile).foreach { p =>
+      try {
+        if (succeeded) {
+          try Files.move(p.toPath, archive.toPath, StandardCopyOption.ATOMIC_MOVE)
+          catch {
+            case _: AtomicMoveNotSupportedException =>
+              Files.move(p.toPath, archive.toPath, StandardCopyOption.REPLACE_EXISTING)
+          }
+        } else Files.delete(p.toPath)
+      } catch {
+        case _: java.io.IOException => p.delete()
+      }
+    }
+}
+
+private[coverage] object StartupArchive {
+  private val MinJava = 13
+
+  /** Archive for forks of the running JDK with `jars`; `None` when the JDK cannot use dynamic archives,
+    * the classpath is not all jars (the JVM refuses to dump with a directory on it), or `directory`
+    * cannot be created.
+    */
+  def forClasspath(jars: Seq[File], directory: File): Option[StartupArchive] =
+    if (javaFeatureVersion < MinJava || jars.isEmpty || !jars.forall(j => j.getName.endsWith(".jar") && j.isFile)) None
+    else if (!directory.isDirectory && !directory.mkdirs()) None
+    else {
+      val archive = new File(directory, s"jmf-${key(jars)}.jsa")
+      if (archive.isFile) Some(new StartupArchive(archive, None))
+      else Some(new StartupArchive(archive, Some(new File(directory, s"${archive.getName}.${System.nanoTime()}.tmp"))))
+    }
+
+  private def key(jars: Seq[File]): String = {
+    val text = (Seq(sys.props.getOrElse("java.home", ""), sys.props.getOrElse("java.vm.version", "")) ++
+      jars.map(j => s"${j.getAbsolutePath} ${j.length} ${j.lastModified}")).mkString("\n")
+    MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8)).take(12).map("%02x".format(_)).mkString
+  }
+
+  private def javaFeatureVersion: Int = {
+    val spec    = sys.props.getOrElse("java.specification.version", "")
+    val feature = if (spec.startsWith("1.")) spec.substring(2) else spec
+    try feature.toInt
+    catch { case _: NumberFormatException => 0 }
+  }
+}